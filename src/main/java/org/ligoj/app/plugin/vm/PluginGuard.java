@@ -0,0 +1,391 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.ClassUtils;
+import org.ligoj.app.api.ServicePlugin;
+import org.ligoj.app.resource.node.NodeResource;
+import org.ligoj.bootstrap.core.resource.BusinessException;
+import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Guard of the plug-in calls, per node and plug-in: a bulkhead limits the concurrent calls, an optional timeout bounds
+ * each call, and a circuit breaker rejects the calls after repeated node errors or timeouts. While open, the breaker
+ * rejects all calls, then lets a single trial call pass to close it again. A hanging node then only holds its own call
+ * slots. The business and validation errors are not node errors and do not open the breaker. The calls made within a
+ * transaction are accounted, since they hold a database connection while waiting for the node. The
+ * {@link ServicePlugin} methods, such as the plug-in key, are not guarded.
+ */
+@Slf4j
+@Service
+@Path(VmResource.SERVICE_URL + "/guard")
+@Produces(MediaType.APPLICATION_JSON)
+public class PluginGuard implements DisposableBean {
+
+	/**
+	 * Configuration key of the maximal amount of concurrent calls per node.
+	 */
+	public static final String CONF_CONCURRENCY = VmResource.SERVICE_KEY + ":guard-concurrency";
+
+	private static final int DEFAULT_CONCURRENCY = 10;
+
+	/**
+	 * Configuration key of the maximal duration, in milliseconds, to wait for a call slot.
+	 */
+	public static final String CONF_WAIT = VmResource.SERVICE_KEY + ":guard-wait";
+
+	private static final int DEFAULT_WAIT = 10000;
+
+	/**
+	 * Configuration key of the maximal duration, in milliseconds, of a call. When positive, the call runs in a guard
+	 * thread sharing the security context, but not the transaction, of the caller, and is interrupted after this
+	 * duration. Since it also bounds the long provider operations such as the snapshots, it should be enabled only
+	 * with a duration covering them. <code>0</code>, the default, disables the timeout and runs the call in the caller
+	 * thread.
+	 */
+	public static final String CONF_TIMEOUT = VmResource.SERVICE_KEY + ":guard-timeout";
+
+	private static final int DEFAULT_TIMEOUT = 0;
+
+	/**
+	 * Configuration key of the amount of consecutive failed calls opening the circuit breaker.
+	 */
+	public static final String CONF_FAILURES = VmResource.SERVICE_KEY + ":guard-failures";
+
+	private static final int DEFAULT_FAILURES = 5;
+
+	/**
+	 * Configuration key of the duration, in milliseconds, the circuit breaker stays open.
+	 */
+	public static final String CONF_OPEN = VmResource.SERVICE_KEY + ":guard-open";
+
+	private static final int DEFAULT_OPEN = 30000;
+
+	/**
+	 * Guard state of a node and a plug-in.
+	 */
+	private static class State {
+		private final String node;
+		private final String plugin;
+		private final int concurrency;
+		private final Semaphore slots;
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicBoolean trial = new AtomicBoolean();
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong timeouts = new AtomicLong();
+		private final AtomicLong transactional = new AtomicLong();
+		private final AtomicLong transactionalTime = new AtomicLong();
+		private volatile long openUntil;
+
+		private State(final String node, final String plugin, final int concurrency) {
+			this.node = node;
+			this.plugin = plugin;
+			this.concurrency = concurrency;
+			this.slots = new Semaphore(concurrency);
+		}
+	}
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	protected NodeResource nodeResource;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Guard states per plug-in instance, then per node. A plug-in no more used is released.
+	 */
+	private final Map<Object, Map<String, State>> states = Collections.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Return a guarded view of the given plug-in for the given node. The returned instance implements the contract and
+	 * its sub-contracts implemented by the plug-in.
+	 *
+	 * @param node     The node identifier.
+	 * @param contract The requested contract.
+	 * @param plugin   The plug-in implementing the contract.
+	 * @param <T>      The contract type.
+	 * @return The guarded plug-in. <code>null</code> when the plug-in is <code>null</code>.
+	 */
+	public <T> T wrap(final String node, final Class<T> contract, final T plugin) {
+		if (plugin == null || plugin instanceof Guarded) {
+			return plugin;
+		}
+		final var state = states.computeIfAbsent(plugin, p -> new ConcurrentHashMap<>()).computeIfAbsent(node,
+				n -> new State(n, plugin instanceof ServicePlugin sp ? sp.getKey() : plugin.getClass().getName(),
+						Math.max(1, configuration.get(CONF_CONCURRENCY, DEFAULT_CONCURRENCY))));
+		final var interfaces = new LinkedHashSet<Class<?>>();
+		interfaces.add(contract);
+		ClassUtils.getAllInterfaces(plugin.getClass()).stream()
+				.filter(i -> contract.isAssignableFrom(i) && org.springframework.util.ClassUtils.isVisible(i,
+						contract.getClassLoader()))
+				.forEach(interfaces::add);
+		interfaces.add(Guarded.class);
+		return contract.cast(Proxy.newProxyInstance(contract.getClassLoader(), interfaces.toArray(Class<?>[]::new),
+				new Handler(plugin, state)));
+	}
+
+	/**
+	 * Return the plug-in instance behind the given guarded view.
+	 *
+	 * @param plugin The plug-in, guarded or not.
+	 * @return The plug-in instance.
+	 */
+	public static Object getTarget(final Object plugin) {
+		return plugin instanceof Guarded guarded ? guarded.getGuardedTarget() : plugin;
+	}
+
+	/**
+	 * Return the guard states of all nodes. Only the administrators of the VM service, allowed to write its node, can
+	 * read them.
+	 *
+	 * @return The guard states ordered by node.
+	 */
+	@GET
+	public List<PluginGuardStatus> findAll() {
+		nodeResource.checkWritableNode(VmResource.SERVICE_KEY);
+		final var result = new ArrayList<PluginGuardStatus>();
+		synchronized (states) {
+			states.values().forEach(m -> m.values().forEach(s -> result.add(toStatus(s))));
+		}
+		result.sort(Comparator.comparing(PluginGuardStatus::getNode));
+		return result;
+	}
+
+	private PluginGuardStatus toStatus(final State state) {
+		final var status = new PluginGuardStatus();
+		status.setNode(state.node);
+		status.setPlugin(state.plugin);
+		status.setState(getState(state));
+		status.setRunning(state.concurrency - state.slots.availablePermits());
+		status.setFailures(state.failures.get());
+		status.setCalls(state.calls.get());
+		status.setRejected(state.rejected.get());
+		status.setTimeouts(state.timeouts.get());
+		status.setTransactionalCalls(state.transactional.get());
+		status.setTransactionalTime(state.transactionalTime.get());
+		return status;
+	}
+
+	private String getState(final State state) {
+		if (state.openUntil == 0) {
+			return "closed";
+		}
+		return state.openUntil > System.currentTimeMillis() ? "open" : "half-open";
+	}
+
+	/**
+	 * Execute a call through the guard of the given state.
+	 */
+	private Object call(final State state, final Callable<Object> call) throws Exception {
+		final var openUntil = state.openUntil;
+		if (openUntil > System.currentTimeMillis() || openUntil != 0 && !state.trial.compareAndSet(false, true)) {
+			// Open, or half-open with a running trial call
+			state.rejected.incrementAndGet();
+			throw new PluginGuardException(PluginGuardException.OPEN, state.node);
+		}
+		if (!state.slots.tryAcquire(configuration.get(CONF_WAIT, DEFAULT_WAIT), TimeUnit.MILLISECONDS)) {
+			// The node has not been reached, this rejection is not a node failure
+			state.rejected.incrementAndGet();
+			state.trial.set(false);
+			throw new PluginGuardException(PluginGuardException.BUSY, state.node);
+		}
+		state.calls.incrementAndGet();
+		final var start = System.currentTimeMillis();
+		try {
+			final var result = callTimed(state, call);
+			succeed(state);
+			return result;
+		} catch (final Exception e) {
+			if (isNodeFailure(e)) {
+				failed(state);
+			} else {
+				// The node has answered, or has not been reached
+				state.trial.set(false);
+			}
+			throw e;
+		} finally {
+			held(state, start);
+		}
+	}
+
+	/**
+	 * Account the duration of a call made within a transaction of the caller.
+	 */
+	private void held(final State state, final long start) {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			final var duration = System.currentTimeMillis() - start;
+			state.transactional.incrementAndGet();
+			state.transactionalTime.addAndGet(duration);
+			log.debug("Call to node {} held a database connection for {}ms", state.node, duration);
+		}
+	}
+
+	/**
+	 * Execute a call holding a slot, and release this slot when the call is completed.
+	 */
+	private Object callTimed(final State state, final Callable<Object> call) throws Exception {
+		final var timeout = configuration.get(CONF_TIMEOUT, DEFAULT_TIMEOUT);
+		if (timeout <= 0) {
+			try {
+				return call.call();
+			} finally {
+				state.slots.release();
+			}
+		}
+
+		// The slot is kept until the end of the call, even after the timeout
+		final var context = SecurityContextHolder.getContext();
+		final var future = executor.submit(() -> {
+			SecurityContextHolder.setContext(context);
+			try {
+				return call.call();
+			} finally {
+				SecurityContextHolder.clearContext();
+				state.slots.release();
+			}
+		});
+		try {
+			return future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (final TimeoutException e) {
+			future.cancel(true);
+			state.timeouts.incrementAndGet();
+			log.warn("Call to node {} is not completed after {}ms", state.node, timeout);
+			throw new PluginGuardException(PluginGuardException.TIMEOUT, state.node);
+		} catch (final ExecutionException e) {
+			throw e.getCause() instanceof Exception cause ? cause : e;
+		}
+	}
+
+	/**
+	 * Indicate the given error is a failure of the node: a provider or an I/O error, or a timeout. The business and
+	 * validation errors are raised by the caller or by a node behaving correctly.
+	 */
+	private boolean isNodeFailure(final Exception e) {
+		return e instanceof PluginGuardException
+				|| !(e instanceof BusinessException || e instanceof ValidationJsonException);
+	}
+
+	private void succeed(final State state) {
+		state.failures.set(0);
+		if (state.openUntil != 0) {
+			log.info("Circuit breaker of node {} is closed", state.node);
+			state.openUntil = 0;
+		}
+		state.trial.set(false);
+	}
+
+	private void failed(final State state) {
+		if (state.failures.incrementAndGet() >= configuration.get(CONF_FAILURES, DEFAULT_FAILURES)
+				|| state.openUntil != 0) {
+			log.warn("Circuit breaker of node {} is open after {} consecutive failures", state.node,
+					state.failures.get());
+			state.openUntil = System.currentTimeMillis() + configuration.get(CONF_OPEN, DEFAULT_OPEN);
+		}
+		state.trial.set(false);
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Marker of a guarded plug-in.
+	 */
+	public interface Guarded {
+
+		/**
+		 * Return the plug-in instance behind this guarded view.
+		 *
+		 * @return The plug-in instance.
+		 */
+		Object getGuardedTarget();
+	}
+
+	/**
+	 * Route the contract calls through the guard.
+	 */
+	private class Handler implements InvocationHandler {
+
+		private final Object target;
+
+		private final State state;
+
+		private Handler(final Object target, final State state) {
+			this.target = target;
+			this.state = state;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Guarded.class) {
+				return target;
+			}
+			if (method.getDeclaringClass() == Object.class) {
+				return switch (method.getName()) {
+					case "equals" -> proxy == args[0];
+					case "hashCode" -> System.identityHashCode(proxy);
+					default -> "Guarded " + target;
+				};
+			}
+			if (method.getDeclaringClass().isAssignableFrom(ServicePlugin.class)) {
+				// Plug-in description, not a node call
+				try {
+					return method.invoke(target, args);
+				} catch (final InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+			return call(state, () -> {
+				try {
+					return method.invoke(target, args);
+				} catch (final InvocationTargetException e) {
+					if (e.getCause() instanceof Error error) {
+						throw error;
+					}
+					throw (Exception) e.getCause();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import org.ligoj.bootstrap.core.resource.BusinessException;
+
+/**
+ * A plug-in call rejected by the {@link PluginGuard}: the plug-in has not been reached.
+ */
+public class PluginGuardException extends BusinessException {
+
+	/**
+	 * SID
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The circuit breaker of the node is open after repeated errors.
+	 */
+	public static final String OPEN = "vm-guard-open";
+
+	/**
+	 * No call slot of the node has been released in time.
+	 */
+	public static final String BUSY = "vm-guard-busy";
+
+	/**
+	 * The call has not been completed in time.
+	 */
+	public static final String TIMEOUT = "vm-guard-timeout";
+
+	/**
+	 * Constructor with the reason and the related node.
+	 *
+	 * @param reason The rejection reason, used as message.
+	 * @param node   The related node identifier.
+	 */
+	public PluginGuardException(final String reason, final String node) {
+		super(reason, node);
+	}
+}
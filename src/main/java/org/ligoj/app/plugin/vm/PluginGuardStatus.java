@@ -0,0 +1,65 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Guard state of the calls to a plug-in for a node.
+ */
+@Getter
+@Setter
+public class PluginGuardStatus {
+
+	/**
+	 * The node identifier.
+	 */
+	private String node;
+
+	/**
+	 * The plug-in key.
+	 */
+	private String plugin;
+
+	/**
+	 * The circuit breaker state: <code>closed</code>, <code>open</code> or <code>half-open</code>.
+	 */
+	private String state;
+
+	/**
+	 * Amount of running calls.
+	 */
+	private int running;
+
+	/**
+	 * Amount of consecutive failed calls.
+	 */
+	private int failures;
+
+	/**
+	 * Amount of accepted calls.
+	 */
+	private long calls;
+
+	/**
+	 * Amount of rejected calls.
+	 */
+	private long rejected;
+
+	/**
+	 * Amount of calls not completed in time.
+	 */
+	private long timeouts;
+
+	/**
+	 * Amount of calls made within a transaction, holding a database connection.
+	 */
+	private long transactionalCalls;
+
+	/**
+	 * Total duration, in milliseconds, of the calls made within a transaction.
+	 */
+	private long transactionalTime;
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Memoized {@link ServicePluginLocator} lookups. A lookup walks the refined nodes and the Spring context, while its
+ * result only changes when the plug-ins are installed or reloaded. The results, including the missing ones, are kept
+ * per locator, node and contract, and are cleared on each context refresh.
+ */
+@Slf4j
+@Component
+public class PluginResolver implements ApplicationListener<ContextRefreshedEvent> {
+
+	/**
+	 * A lookup.
+	 *
+	 * @param node     The node identifier.
+	 * @param contract The requested contract.
+	 */
+	private record Key(String node, Class<?> contract) {
+	}
+
+	@Autowired
+	protected PluginGuard guard;
+
+	/**
+	 * Resolved plug-ins per locator. A locator no more used is released.
+	 */
+	private final Map<ServicePluginLocator, Map<Key, Optional<Object>>> resolved = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Return the plug-in implementing the given contract for the given node.
+	 *
+	 * @param locator  The locator resolving the plug-in on cache miss.
+	 * @param node     The node identifier.
+	 * @param contract The requested contract.
+	 * @param <T>      The contract type.
+	 * @return The resolved plug-in, guarded by {@link PluginGuard}. <code>null</code> when not found.
+	 * @see ServicePluginLocator#getResource(String, Class)
+	 */
+	public <T> T getResource(final ServicePluginLocator locator, final String node, final Class<T> contract) {
+		return contract.cast(resolved.computeIfAbsent(locator, l -> new ConcurrentHashMap<>())
+				.computeIfAbsent(new Key(node, contract),
+						k -> Optional.ofNullable(guard.wrap(node, contract, locator.getResource(node, contract))))
+				.orElse(null));
+	}
+
+	/**
+	 * Return the plug-in implementing the given contract for the given node.
+	 *
+	 * @param locator  The locator resolving the plug-in on cache miss.
+	 * @param node     The node identifier.
+	 * @param contract The requested contract.
+	 * @param <T>      The contract type.
+	 * @return The resolved plug-in, guarded by {@link PluginGuard}. Never <code>null</code>.
+	 * @see ServicePluginLocator#getResourceExpected(String, Class)
+	 */
+	public <T> T getResourceExpected(final ServicePluginLocator locator, final String node, final Class<T> contract) {
+		final var resource = getResource(locator, node, contract);
+		if (resource == null) {
+			// Let the locator raise its own error
+			return guard.wrap(node, contract, locator.getResourceExpected(node, contract));
+		}
+		return resource;
+	}
+
+	/**
+	 * Clear all resolved plug-ins.
+	 */
+	public void clear() {
+		resolved.clear();
+	}
+
+	@Override
+	public void onApplicationEvent(final ContextRefreshedEvent event) {
+		log.info("Clear the resolved VM plug-ins");
+		clear();
+	}
+}
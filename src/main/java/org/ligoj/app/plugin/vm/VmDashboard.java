@@ -0,0 +1,55 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ligoj.app.plugin.vm.execution.Vm;
+import org.ligoj.app.plugin.vm.model.VmExecutionStatus;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.plugin.vm.snapshot.Snapshot;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * All details of a VM subscription. A part failing or not completed in time is <code>null</code>, and its error is
+ * available in {@link #errors}.
+ */
+@Getter
+@Setter
+public class VmDashboard {
+
+	/**
+	 * The configuration: schedules and snapshot capability.
+	 */
+	private VmConfigurationVo configuration;
+
+	/**
+	 * The last execution task. May be <code>null</code>.
+	 */
+	private VmExecutionStatus execution;
+
+	/**
+	 * The last snapshot task. May be <code>null</code>.
+	 */
+	private VmSnapshotStatus snapshot;
+
+	/**
+	 * The VM details from the provider.
+	 */
+	private Vm vm;
+
+	/**
+	 * The snapshots, ordered by descending creation date. <code>null</code> when snapshot is not supported.
+	 */
+	private List<Snapshot> snapshots;
+
+	/**
+	 * The error of each failed part. Key is the part name.
+	 */
+	private Map<String, String> errors = new TreeMap<>();
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.ligoj.app.plugin.vm.execution.VmExecutionResource;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.schedule.VmScheduleResource;
+import org.ligoj.app.plugin.vm.snapshot.SnapshotCache;
+import org.ligoj.app.plugin.vm.snapshot.Snapshotting;
+import org.ligoj.app.plugin.vm.snapshot.VmSnapshotResource;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.app.resource.subscription.SubscriptionResource;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * VM subscription dashboard: all details of a subscription in one request. The visibility is checked once, then all
+ * parts are fetched in parallel, each one with its own timeout. A failed part does not fail the other ones. The tasks
+ * are completed from their remote state as their own endpoints do.
+ */
+@Slf4j
+@Service
+@Path(VmResource.SERVICE_URL + "/{subscription:\\d+}/dashboard")
+@Produces(MediaType.APPLICATION_JSON)
+public class VmDashboardResource implements DisposableBean {
+
+	/**
+	 * Configuration key of the maximal duration, in milliseconds, to wait for a part. A part specific duration can be
+	 * set with this key suffixed by <code>-</code> and the part name, for instance <code>-vm</code>.
+	 */
+	public static final String CONF_TIMEOUT = VmResource.SERVICE_KEY + ":dashboard-timeout";
+
+	private static final int DEFAULT_TIMEOUT = 5000;
+
+	/**
+	 * Part name of the configuration.
+	 */
+	public static final String PART_CONFIGURATION = "configuration";
+
+	/**
+	 * Part name of the last execution task.
+	 */
+	public static final String PART_EXECUTION = "execution";
+
+	/**
+	 * Part name of the last snapshot task.
+	 */
+	public static final String PART_SNAPSHOT = "snapshot";
+
+	/**
+	 * Part name of the VM details.
+	 */
+	public static final String PART_VM = "vm";
+
+	/**
+	 * Part name of the snapshots.
+	 */
+	public static final String PART_SNAPSHOTS = "snapshots";
+
+	/**
+	 * Error of a part not completed in time.
+	 */
+	public static final String ERROR_TIMEOUT = "timeout";
+
+	/**
+	 * Error of a part not started because too many parts are already waiting.
+	 */
+	public static final String ERROR_BUSY = "busy";
+
+	/**
+	 * Amount of threads fetching the parts.
+	 */
+	private static final int THREADS = 16;
+
+	/**
+	 * Maximal amount of parts waiting for a thread.
+	 */
+	private static final int QUEUE = 64;
+
+	@Autowired
+	protected SubscriptionResource subscriptionResource;
+
+	@Autowired
+	protected ServicePluginLocator locator;
+
+	@Autowired
+	protected PluginResolver resolver;
+
+	@Autowired
+	protected VmScheduleResource scheduleResource;
+
+	@Autowired
+	protected VmExecutionResource executionResource;
+
+	@Autowired
+	protected VmSnapshotResource snapshotResource;
+
+	@Autowired
+	protected SnapshotCache cache;
+
+	@Autowired
+	protected VmSubscriptionCache subscriptionCache;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	private SecurityHelper securityHelper;
+
+	/**
+	 * Bounded executor of the parts. A part not completed in time is interrupted.
+	 */
+	private final ExecutorService executor = new ThreadPoolExecutor(THREADS, THREADS, 1, TimeUnit.MINUTES,
+			new ArrayBlockingQueue<>(QUEUE));
+
+	/**
+	 * Return all details of the given subscription.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @return The details. The failed parts are <code>null</code> and their errors are listed.
+	 */
+	@GET
+	public VmDashboard get(@PathParam("subscription") final int subscription) {
+		// Check the visibility once
+		final var node = subscriptionCache.checkVisible(subscriptionResource, subscription).getNode().getId();
+		final var snap = resolver.getResource(locator, node, Snapshotting.class);
+		final var parameters = subscriptionCache.getParameters(subscriptionResource, subscription);
+		final var user = securityHelper.getLogin();
+		final var result = new VmDashboard();
+
+		// All parts run in parallel
+		final var parts = new ArrayList<Part<?>>();
+		parts.add(submit(user, PART_VM, () -> resolver
+				.getResourceExpected(locator, node, VmExecutionServicePlugin.class).getVmDetails(parameters),
+				result::setVm));
+		if (snap != null) {
+			parts.add(submit(user, PART_SNAPSHOTS,
+					() -> cache.get(subscription, () -> snap.findAllSnapshots(subscription, "")),
+					result::setSnapshots));
+		}
+		parts.add(submit(user, PART_CONFIGURATION, () -> {
+			final var vo = new VmConfigurationVo();
+			vo.setSchedules(scheduleResource.findAll(subscription));
+			vo.setSupportSnapshot(snap != null);
+			return vo;
+		}, result::setConfiguration));
+		parts.add(submit(user, PART_EXECUTION, () -> executionResource.getTask(subscription), result::setExecution));
+		parts.add(submit(user, PART_SNAPSHOT, () -> snapshotResource.getTask(subscription), result::setSnapshot));
+
+		// Each part has its own deadline
+		parts.forEach(p -> join(result, p));
+		return result;
+	}
+
+	/**
+	 * A submitted part.
+	 *
+	 * @param name     The part name.
+	 * @param future   The running part. <code>null</code> when it has been rejected.
+	 * @param deadline The timestamp the part must be completed at.
+	 * @param setter   The result setter.
+	 * @param <T>      The part type.
+	 */
+	private record Part<T>(String name, Future<T> future, long deadline, Consumer<T> setter) {
+	}
+
+	private long getTimeout(final String name) {
+		return configuration.get(CONF_TIMEOUT + "-" + name, configuration.get(CONF_TIMEOUT, DEFAULT_TIMEOUT));
+	}
+
+	private <T> Part<T> submit(final String user, final String name, final Callable<T> part,
+			final Consumer<T> setter) {
+		final var deadline = System.currentTimeMillis() + getTimeout(name);
+		try {
+			return new Part<>(name, executor.submit(() -> {
+				securityHelper.setUserName(user);
+				try {
+					return part.call();
+				} finally {
+					// The pool thread is reused by other users
+					SecurityContextHolder.clearContext();
+				}
+			}), deadline, setter);
+		} catch (final RejectedExecutionException e) {
+			log.info("Dashboard part {} is rejected, too many parts are waiting", name);
+			return new Part<>(name, null, deadline, setter);
+		}
+	}
+
+	private <T> void join(final VmDashboard result, final Part<T> part) {
+		if (part.future() == null) {
+			result.getErrors().put(part.name(), ERROR_BUSY);
+			return;
+		}
+		try {
+			part.setter().accept(part.future().get(Math.max(0, part.deadline() - System.currentTimeMillis()),
+					TimeUnit.MILLISECONDS));
+		} catch (final TimeoutException e) {
+			log.info("Dashboard part {} is not completed in time", part.name());
+			// Interrupt the worker, so the slot is released
+			part.future().cancel(true);
+			result.getErrors().put(part.name(), ERROR_TIMEOUT);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			part.future().cancel(true);
+			result.getErrors().put(part.name(), ERROR_TIMEOUT);
+		} catch (final ExecutionException e) {
+			fail(result, part.name(), e.getCause());
+		}
+	}
+
+	private void fail(final VmDashboard result, final String name, final Throwable e) {
+		log.info("Dashboard part {} failed: {}", name, e.getMessage());
+		result.getErrors().put(name, ObjectUtils.getIfNull(e.getMessage(), e.getClass().getSimpleName()));
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.ligoj.app.plugin.vm.model.VmStatus;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Status of all visible VMs of a node.
+ */
+@Getter
+@Setter
+public class VmFleet {
+
+	/**
+	 * The related node identifier.
+	 */
+	private String node;
+
+	/**
+	 * The refresh date of the oldest known VM state. <code>null</code> when no VM state is known.
+	 */
+	private Date date;
+
+	/**
+	 * Amount of visible subscriptions.
+	 */
+	private int total;
+
+	/**
+	 * Amount of VMs per status.
+	 */
+	private Map<VmStatus, Integer> counts = new EnumMap<>(VmStatus.class);
+
+	/**
+	 * Amount of VMs whose details are not available.
+	 */
+	private int unknown;
+
+	/**
+	 * Total amount of CPUs of the powered on VMs.
+	 */
+	private int cpu;
+
+	/**
+	 * Total memory of the powered on VMs, MB.
+	 */
+	private long ram;
+}
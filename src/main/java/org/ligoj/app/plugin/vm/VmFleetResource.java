@@ -0,0 +1,76 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.Date;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import org.ligoj.app.plugin.vm.dao.VmInventoryRepository;
+import org.ligoj.app.plugin.vm.dao.VmSubscriptionRepository;
+import org.ligoj.app.plugin.vm.model.VmInventory;
+import org.ligoj.app.plugin.vm.model.VmStatus;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Status of all VMs of a node. The VM states are read from the inventory refreshed in the background, so the visible
+ * part is aggregated without calling the providers.
+ */
+@Service
+@Path(VmResource.SERVICE_URL + "/{node:service:.+}/fleet")
+@Produces(MediaType.APPLICATION_JSON)
+public class VmFleetResource {
+
+	@Autowired
+	protected VmSubscriptionRepository subscriptionRepository;
+
+	@Autowired
+	protected VmInventoryRepository inventoryRepository;
+
+	@Autowired
+	private SecurityHelper securityHelper;
+
+	/**
+	 * Return the status of all visible VMs of the given node.
+	 *
+	 * @param node The node identifier, may be a parent node.
+	 * @return The status of all visible VMs of the given node. The date is the one of the oldest VM state.
+	 */
+	@GET
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public VmFleet get(@PathParam("node") final String node) {
+		final var visible = subscriptionRepository.findAllVisibleByNode(node, securityHelper.getLogin());
+		final var inventories = inventoryRepository.findAllByNode(node).stream()
+				.collect(Collectors.toMap(i -> i.getSubscription().getId(), Function.identity()));
+		final var result = new VmFleet();
+		result.setNode(node);
+		result.setTotal(visible.size());
+		visible.forEach(s -> add(result, inventories.get(s)));
+		return result;
+	}
+
+	private void add(final VmFleet fleet, final VmInventory vm) {
+		if (vm == null || vm.getStatus() == null) {
+			fleet.setUnknown(fleet.getUnknown() + 1);
+			return;
+		}
+		final var date = Date.from(vm.getRefreshed());
+		if (fleet.getDate() == null || date.before(fleet.getDate())) {
+			fleet.setDate(date);
+		}
+		fleet.getCounts().merge(vm.getStatus(), 1, Integer::sum);
+		if (vm.getStatus() == VmStatus.POWERED_ON) {
+			fleet.setCpu(fleet.getCpu() + vm.getCpu());
+			fleet.setRam(fleet.getRam() + vm.getRam());
+		}
+	}
+}
@@ -13,8 +13,10 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 
 import org.ligoj.app.api.ConfigurablePlugin;
+import org.ligoj.app.plugin.vm.inventory.VmInventoryResource;
 import org.ligoj.app.plugin.vm.schedule.VmScheduleResource;
 import org.ligoj.app.plugin.vm.snapshot.Snapshotting;
+import org.ligoj.app.plugin.vm.snapshot.VmSnapshotRetentionResource;
 import org.ligoj.app.resource.ServicePluginLocator;
 import org.ligoj.app.resource.plugin.AbstractServicePlugin;
 import org.ligoj.app.resource.subscription.SubscriptionResource;
@@ -46,9 +48,21 @@ public class VmResource extends AbstractServicePlugin implements ConfigurablePlu
 	@Autowired
 	protected ServicePluginLocator locator;
 
+	@Autowired
+	protected PluginResolver resolver;
+
 	@Autowired
 	protected VmScheduleResource scheduleResource;
 
+	@Autowired
+	protected VmSnapshotRetentionResource retentionResource;
+
+	@Autowired
+	protected VmInventoryResource inventoryResource;
+
+	@Autowired
+	protected VmSubscriptionCache cache;
+
 	@Override
 	public String getKey() {
 		return SERVICE_KEY;
@@ -58,7 +72,10 @@ public class VmResource extends AbstractServicePlugin implements ConfigurablePlu
 	@Transactional
 	public void delete(final int subscription, final boolean deleteRemoteData) throws SchedulerException {
 		// Also remove execution history
+		cache.invalidate(subscription);
 		scheduleResource.delete(subscription);
+		retentionResource.deleteAll(subscription);
+		inventoryResource.delete(subscription);
 	}
 
 	@GET
@@ -68,14 +85,14 @@ public class VmResource extends AbstractServicePlugin implements ConfigurablePlu
 	@org.springframework.transaction.annotation.Transactional(readOnly = true)
 	public VmConfigurationVo getConfiguration(@PathParam("subscription") final int subscription) throws ParseException {
 		// Check the subscription is visible
-		final var entity = subscriptionResource.checkVisible(subscription);
+		final var entity = cache.checkVisible(subscriptionResource, subscription);
 
 		// Get the details
 		final var result = new VmConfigurationVo();
 		result.setSchedules(scheduleResource.findAll(subscription));
 
 		// Add snapshot capability
-		result.setSupportSnapshot(locator.getResource(entity.getNode().getId(), Snapshotting.class) != null);
+		result.setSupportSnapshot(resolver.getResource(locator, entity.getNode().getId(), Snapshotting.class) != null);
 		return result;
 	}
 }
@@ -0,0 +1,183 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.schedule.VmScheduleVo;
+import org.ligoj.app.resource.subscription.SubscriptionResource;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Read-mostly cache of the subscription data read by the read and polling endpoints: the visible subscriptions per
+ * user, the subscription parameters and the schedules. The endpoints starting or changing something check the
+ * visibility without this cache. The entries of a subscription are invalidated when its schedules change and when it
+ * is deleted, and expire after a short delay to follow the changes without notification to this plug-in: the group
+ * memberships, the subscription parameters and the changes made by another instance. A failed check is never cached.
+ */
+@Component
+public class VmSubscriptionCache {
+
+	/**
+	 * Configuration key of the duration, in seconds, an entry is served from the cache. <code>0</code> disables the
+	 * cache.
+	 */
+	public static final String CONF_TTL = VmResource.SERVICE_KEY + ":subscription-cache-ttl";
+
+	private static final int DEFAULT_TTL = 60;
+
+	/**
+	 * A cached data of a subscription.
+	 */
+	private sealed interface Key {
+		int subscription();
+	}
+
+	/**
+	 * The subscription, visible by the user.
+	 *
+	 * @param user         The principal username.
+	 * @param subscription The subscription identifier.
+	 */
+	private record VisibleKey(String user, int subscription) implements Key {
+	}
+
+	/**
+	 * The subscription parameters.
+	 *
+	 * @param subscription The subscription identifier.
+	 */
+	private record ParametersKey(int subscription) implements Key {
+	}
+
+	/**
+	 * The subscription schedules.
+	 *
+	 * @param subscription The subscription identifier.
+	 */
+	private record SchedulesKey(int subscription) implements Key {
+	}
+
+	/**
+	 * A cached value.
+	 *
+	 * @param value  The immutable value.
+	 * @param loaded The load timestamp.
+	 */
+	private record Entry(Object value, long loaded) {
+	}
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	protected SecurityHelper securityHelper;
+
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Invalidation counters, so a load started before an invalidation does not overwrite the newer state.
+	 */
+	private final Map<Integer, Long> generations = new ConcurrentHashMap<>();
+
+	/**
+	 * Return the subscription visible by the current user, from the cache when available.
+	 *
+	 * @param resource     The resource checking the visibility on cache miss.
+	 * @param subscription The subscription identifier.
+	 * @return The visible subscription, with its node and project. Shared by the callers and not attached to any
+	 *         transaction.
+	 * @see SubscriptionResource#checkVisible
+	 */
+	public Subscription checkVisible(final SubscriptionResource resource, final int subscription) {
+		return get(new VisibleKey(securityHelper.getLogin(), subscription), () -> resource.checkVisible(subscription));
+	}
+
+	/**
+	 * Return the parameters of the given subscription, from the cache when available. Visibility is not checked.
+	 *
+	 * @param resource     The resource reading the parameters on cache miss.
+	 * @param subscription The subscription identifier.
+	 * @return A copy of the subscription parameters.
+	 * @see SubscriptionResource#getParametersNoCheck
+	 */
+	public Map<String, String> getParameters(final SubscriptionResource resource, final int subscription) {
+		return new HashMap<>(get(new ParametersKey(subscription),
+				() -> Collections.unmodifiableMap(new HashMap<>(resource.getParametersNoCheck(subscription)))));
+	}
+
+	/**
+	 * Return the schedules of the given subscription, from the cache when available.
+	 *
+	 * @param subscription The subscription identifier.
+	 * @param loader       The schedules of this subscription, used on cache miss. The returned schedules must not be
+	 *                     modified.
+	 * @return The schedules of this subscription. This list is immutable.
+	 */
+	public List<VmScheduleVo> getSchedules(final int subscription, final Supplier<List<VmScheduleVo>> loader) {
+		return get(new SchedulesKey(subscription), () -> List.copyOf(loader.get()));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T get(final Key key, final Supplier<T> loader) {
+		final var ttl = configuration.get(CONF_TTL, DEFAULT_TTL) * 1000L;
+		final var entry = entries.get(key);
+		if (entry != null && System.currentTimeMillis() - entry.loaded() < ttl) {
+			return (T) entry.value();
+		}
+		final var generation = generations.getOrDefault(key.subscription(), 0L);
+		final var value = loader.get();
+		if (ttl > 0 && generation == generations.getOrDefault(key.subscription(), 0L)) {
+			entries.put(key, new Entry(value, System.currentTimeMillis()));
+		}
+		return value;
+	}
+
+	/**
+	 * Invalidate the schedules of the given subscription, now and at the end of the current transaction.
+	 *
+	 * @param subscription The subscription identifier.
+	 */
+	public void invalidateSchedules(final int subscription) {
+		invalidate(subscription, k -> k instanceof SchedulesKey);
+	}
+
+	/**
+	 * Invalidate all data of the given subscription, now and at the end of the current transaction.
+	 *
+	 * @param subscription The subscription identifier.
+	 */
+	public void invalidate(final int subscription) {
+		invalidate(subscription, k -> true);
+	}
+
+	private void invalidate(final int subscription, final Predicate<Key> filter) {
+		final Runnable invalidation = () -> {
+			generations.merge(subscription, 1L, Long::sum);
+			entries.keySet().removeIf(k -> k.subscription() == subscription && filter.test(k));
+		};
+		invalidation.run();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			// A load between this change and its commit would cache the previous state
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(final int status) {
+					invalidation.run();
+				}
+			});
+		}
+	}
+}
@@ -3,10 +3,12 @@
  */
 package org.ligoj.app.plugin.vm.dao;
 
+import java.time.Instant;
 import java.util.List;
 
 import org.ligoj.app.plugin.vm.model.VmExecution;
 import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 
 /**
@@ -18,21 +20,47 @@ public interface VmExecutionRepository extends RestRepository<VmExecution, Integ
 	 * Return last executions related to the given node or sub-node. Security is not involved.
 	 *
 	 * @param node The node identifier to filter.
-	 * @return The schedules linked to the related node or sub-node.
+	 * @return The report columns of the last executions linked to the related node or sub-node.
 	 */
 	@Query("""
-			FROM VmExecution ve INNER JOIN FETCH ve.subscription AS s
+			SELECT new org.ligoj.app.plugin.vm.dao.VmExecutionRow(ve.id, s.id, ve.date, ve.previousState, ve.operation,
+				ve.vm, ve.trigger, ve.succeed, ve.statusText, ve.error)
+			FROM VmExecution ve INNER JOIN ve.subscription AS s
 				INNER JOIN s.node AS n WHERE (n.id = :node OR n.id LIKE CONCAT(:node, ':%'))
 				 AND ve.id = (SELECT MAX(CAST(v.id as Integer)) FROM VmExecution v WHERE v.subscription = s GROUP BY v.subscription)
 			""")
-	List<VmExecution> findAllByNodeLast(String node);
+	List<VmExecutionRow> findAllByNodeLast(String node);
 
 	/**
 	 * Return all executions related to given subscription and ordered from the most to the least recent date.
 	 *
 	 * @param subscription The related subscription.
-	 * @return All executions associated to given subscription.
+	 * @return The report columns of all executions associated to given subscription.
 	 */
-	@Query("FROM VmExecution WHERE subscription.id = :subscription ORDER BY id DESC")
-	List<VmExecution> findAllBySubscription(int subscription);
+	@Query("""
+			SELECT new org.ligoj.app.plugin.vm.dao.VmExecutionRow(ve.id, ve.subscription.id, ve.date,
+				ve.previousState, ve.operation, ve.vm, ve.trigger, ve.succeed, ve.statusText, ve.error)
+			FROM VmExecution ve WHERE ve.subscription.id = :subscription ORDER BY ve.id DESC
+			""")
+	List<VmExecutionRow> findAllBySubscription(int subscription);
+
+	/**
+	 * Return a page of the executions related to given subscription within the given period, and ordered from the
+	 * most to the least recent date. The page starts after the last execution of the previous page, so each page
+	 * costs the same whatever its position.
+	 *
+	 * @param subscription The related subscription.
+	 * @param from         The minimal execution date, inclusive.
+	 * @param to           The maximal execution date, inclusive.
+	 * @param before       The maximal execution identifier, exclusive: the last identifier of the previous page.
+	 * @param page         The page size. Only the first page is read.
+	 * @return The report columns of the executions associated to given subscription within the given period.
+	 */
+	@Query("""
+			SELECT new org.ligoj.app.plugin.vm.dao.VmExecutionRow(ve.id, ve.subscription.id, ve.date,
+				ve.previousState, ve.operation, ve.vm, ve.trigger, ve.succeed, ve.statusText, ve.error)
+			FROM VmExecution ve WHERE ve.subscription.id = :subscription AND ve.date BETWEEN :from AND :to
+				AND ve.id < :before ORDER BY ve.id DESC
+			""")
+	List<VmExecutionRow> findAllBySubscription(int subscription, Instant from, Instant to, int before, Pageable page);
 }
@@ -0,0 +1,28 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.time.Instant;
+
+import org.ligoj.app.plugin.vm.model.VmExecution;
+import org.ligoj.app.plugin.vm.model.VmOperation;
+import org.ligoj.app.plugin.vm.model.VmStatus;
+
+/**
+ * {@link VmExecution} columns of the reports.
+ *
+ * @param id            The execution identifier.
+ * @param subscription  The related subscription identifier.
+ * @param date          The execution date.
+ * @param previousState The VM state before the execution. May be <code>null</code>.
+ * @param operation     The executed operation.
+ * @param vm            The VM identifier. May be <code>null</code>.
+ * @param trigger       The user or the schedule triggering the execution.
+ * @param succeed       <code>true</code> when the execution succeed.
+ * @param statusText    The status text. May be <code>null</code>.
+ * @param error         The error text. May be <code>null</code>.
+ */
+public record VmExecutionRow(Integer id, Integer subscription, Instant date, VmStatus previousState,
+		VmOperation operation, String vm, String trigger, boolean succeed, String statusText, String error) {
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.time.Instant;
+import java.util.List;
+
+import jakarta.persistence.LockModeType;
+
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.model.VmInventory;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link VmInventory} repository.
+ */
+public interface VmInventoryRepository extends RestRepository<VmInventory, Integer> {
+
+	/**
+	 * Return the inventory of the given subscription.
+	 *
+	 * @param subscription The related subscription.
+	 * @return The inventory of the given subscription. May be <code>null</code>.
+	 */
+	@Query("FROM VmInventory WHERE subscription.id = :subscription")
+	VmInventory findBySubscription(int subscription);
+
+	/**
+	 * Lock the given subscription until the end of the current transaction, so the concurrent inventory updates and
+	 * execution starts of this subscription are serialized.
+	 *
+	 * @param subscription The related subscription.
+	 * @return The locked subscription.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("FROM Subscription WHERE id = :subscription")
+	Subscription lockSubscription(int subscription);
+
+	/**
+	 * Return the inventories related to the given node or sub-node. Security is not involved.
+	 *
+	 * @param node The node identifier to filter.
+	 * @return The inventories linked to the related node or sub-node, with their subscription, project and node.
+	 */
+	@Query("FROM VmInventory i INNER JOIN FETCH i.subscription AS s INNER JOIN FETCH s.project"
+			+ " INNER JOIN FETCH s.node AS n WHERE n.id = :node OR n.id LIKE CONCAT(:node, ':%')")
+	List<VmInventory> findAllByNode(String node);
+
+	/**
+	 * Return the subscriptions related to the given node or sub-node, without inventory or refreshed before the given
+	 * date. Result is ordered from the never refreshed to the most recently refreshed one. Security is not involved.
+	 *
+	 * @param node The node identifier to filter.
+	 * @param date The oldest accepted refresh date.
+	 * @return The subscriptions to refresh, with their node.
+	 */
+	@Query("SELECT s FROM Subscription s INNER JOIN FETCH s.node AS n LEFT JOIN VmInventory i ON i.subscription = s"
+			+ " WHERE (n.id = :node OR n.id LIKE CONCAT(:node, ':%')) AND (i.id IS NULL OR i.refreshed < :date)"
+			+ " ORDER BY i.refreshed NULLS FIRST")
+	List<Subscription> findAllStale(String node, Instant date);
+}
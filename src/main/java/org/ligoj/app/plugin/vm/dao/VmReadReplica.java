@@ -0,0 +1,116 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Optional read-only replica of the database, used by the long read-only queries of the reports and the listings, so
+ * they do not compete with the task updates on the primary database. The replica is a {@link DataSource} bean named
+ * {@value #REPLICA_BEAN}, declared by the application and not candidate to the autowiring. When declared, the primary
+ * {@value #PRIMARY_BEAN} connections are acquired lazily, on the first statement: a read-only transaction whose first
+ * statement is run by {@link #read(Supplier)} uses the replica, all the other transactions use the primary database.
+ * Without replica, the primary data source is left unchanged.
+ * <p>
+ * When the replica is declared, the wrapped {@value #PRIMARY_BEAN} bean is the application-wide data source: the
+ * application and all the plug-ins then use these lazy connections, not only the VM reports. A transaction running
+ * no statement no longer acquires a connection, and the read-only transactions run outside {@link #read(Supplier)}
+ * still use the primary database.
+ */
+@Slf4j
+@Component
+public class VmReadReplica implements BeanPostProcessor, BeanFactoryAware {
+
+	/**
+	 * Name of the optional replica {@link DataSource} bean.
+	 */
+	public static final String REPLICA_BEAN = "vmReplicaDataSource";
+
+	/**
+	 * Name of the primary {@link DataSource} bean.
+	 */
+	public static final String PRIMARY_BEAN = "dataSource";
+
+	private static final ThreadLocal<Boolean> REPLICA = new ThreadLocal<>();
+
+	private BeanFactory beanFactory;
+
+	/**
+	 * Run the given read-only queries on the replica when available. Only a read-only transaction not yet connected is
+	 * routed to the replica, so the data may be slightly late.
+	 *
+	 * @param queries The queries to run.
+	 * @param <T>     The result type.
+	 * @return The query result.
+	 */
+	public static <T> T read(final Supplier<T> queries) {
+		final var previous = REPLICA.get();
+		REPLICA.set(Boolean.TRUE);
+		try {
+			return queries.get();
+		} finally {
+			if (previous == null) {
+				REPLICA.remove();
+			}
+		}
+	}
+
+	@Override
+	public void setBeanFactory(final BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+		if (PRIMARY_BEAN.equals(beanName) && bean instanceof DataSource primary
+				&& beanFactory.containsBean(REPLICA_BEAN)) {
+			log.info("Read-only VM reports and listings use the replica data source {}", REPLICA_BEAN);
+			final var proxy = new LazyConnectionDataSourceProxy(primary);
+			proxy.setReadOnlyDataSource(new Routing(primary));
+			return proxy;
+		}
+		return bean;
+	}
+
+	/**
+	 * Source of the read-only connections: the replica within {@link #read(Supplier)}, the primary otherwise.
+	 */
+	private class Routing extends DelegatingDataSource {
+
+		private Routing(final DataSource primary) {
+			super(primary);
+		}
+
+		private DataSource getTarget() {
+			// Resolved on use, the replica may be initialized after the primary
+			if (REPLICA.get() == null) {
+				return obtainTargetDataSource();
+			}
+			return beanFactory.getBean(REPLICA_BEAN, DataSource.class);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return getTarget().getConnection();
+		}
+
+		@Override
+		public Connection getConnection(final String username, final String password) throws SQLException {
+			return getTarget().getConnection(username, password);
+		}
+	}
+}
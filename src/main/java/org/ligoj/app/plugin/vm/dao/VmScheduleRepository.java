@@ -34,16 +34,30 @@ public interface VmScheduleRepository extends RestRepository<VmSchedule, Integer
 	int countBySubscription(int subscription);
 
 	/**
-	 * Return schedules linked to the related node or sub-node. Result is ordered by project.
+	 * Return the visible schedules linked to the related node or sub-node. Result is ordered by project, then by
+	 * schedule.
 	 *
 	 * @param node The node identifier to filter.
 	 * @param user The principal username.
-	 * @return The schedules linked to the related node or sub-node.
+	 * @return The report columns of the schedules linked to the related node or sub-node.
 	 */
-	@Query("SELECT vs FROM VmSchedule vs INNER JOIN FETCH vs.subscription AS s INNER JOIN FETCH s.project AS p "
-			+ "INNER JOIN FETCH s.node AS n LEFT JOIN p.cacheGroups AS cpg LEFT JOIN cpg.group AS cg"
-			+ " WHERE n.id = :node OR n.id LIKE CONCAT(:node, ':%') AND " + ProjectRepository.VISIBLE_PROJECTS
-			+ " ORDER BY p.name")
-	List<VmSchedule> findAllByNode(String node, String user);
+	@Query("SELECT DISTINCT new org.ligoj.app.plugin.vm.dao.VmScheduleRow(vs.id, s.id, p.id, p.pkey, p.name, n.id,"
+			+ " vs.cron, vs.operation) FROM VmSchedule vs INNER JOIN vs.subscription AS s INNER JOIN s.project AS p"
+			+ " INNER JOIN s.node AS n LEFT JOIN p.cacheGroups AS cpg LEFT JOIN cpg.group AS cg"
+			+ " WHERE (n.id = :node OR n.id LIKE CONCAT(:node, ':%')) AND " + ProjectRepository.VISIBLE_PROJECTS
+			+ " ORDER BY p.name, vs.id")
+	List<VmScheduleRow> findAllByNode(String node, String user);
+
+	/**
+	 * Return all schedules linked to the related node or sub-node. Security is not involved. Result is ordered by
+	 * project, then by schedule.
+	 *
+	 * @param node The node identifier to filter.
+	 * @return The report columns of the schedules linked to the related node or sub-node.
+	 */
+	@Query("SELECT new org.ligoj.app.plugin.vm.dao.VmScheduleRow(vs.id, s.id, p.id, p.pkey, p.name, n.id, vs.cron,"
+			+ " vs.operation) FROM VmSchedule vs INNER JOIN vs.subscription AS s INNER JOIN s.project AS p"
+			+ " INNER JOIN s.node AS n WHERE n.id = :node OR n.id LIKE CONCAT(:node, ':%') ORDER BY p.name, vs.id")
+	List<VmScheduleRow> findAllByNodeNoCheck(String node);
 
 }
@@ -0,0 +1,23 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import org.ligoj.app.plugin.vm.model.VmOperation;
+import org.ligoj.app.plugin.vm.model.VmSchedule;
+
+/**
+ * {@link VmSchedule} columns of the reports, with the columns of its subscription.
+ *
+ * @param id           The schedule identifier.
+ * @param subscription The related subscription identifier.
+ * @param project      The related project identifier.
+ * @param projectKey   The related project key.
+ * @param projectName  The related project name.
+ * @param node         The related node identifier.
+ * @param cron         The CRON expression.
+ * @param operation    The scheduled operation.
+ */
+public record VmScheduleRow(Integer id, Integer subscription, Integer project, String projectKey, String projectName,
+		String node, String cron, VmOperation operation) {
+}
@@ -0,0 +1,25 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.util.List;
+
+import org.ligoj.app.plugin.vm.model.VmSnapshotDeletion;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link VmSnapshotDeletion} repository.
+ */
+public interface VmSnapshotDeletionRepository extends RestRepository<VmSnapshotDeletion, Integer> {
+
+	/**
+	 * Return all retention deletions related to given subscription and ordered from the most to the least recent date.
+	 *
+	 * @param subscription The related subscription.
+	 * @return All retention deletions associated to given subscription.
+	 */
+	@Query("FROM VmSnapshotDeletion WHERE subscription.id = :subscription ORDER BY id DESC")
+	List<VmSnapshotDeletion> findAllBySubscription(int subscription);
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.util.List;
+
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.model.VmSnapshotRetention;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link VmSnapshotRetention} repository.
+ */
+public interface VmSnapshotRetentionRepository extends RestRepository<VmSnapshotRetention, Integer> {
+
+	/**
+	 * Return the retention rule attached to the given subscription.
+	 *
+	 * @param subscription The related subscription.
+	 * @return The retention rule attached to the given subscription. May be <code>null</code>.
+	 */
+	@Query("FROM VmSnapshotRetention WHERE subscription.id = ?1")
+	VmSnapshotRetention findBySubscription(int subscription);
+
+	/**
+	 * Return the retention rule attached to the given node.
+	 *
+	 * @param node The related node.
+	 * @return The retention rule attached to the given node. May be <code>null</code>.
+	 */
+	@Query("FROM VmSnapshotRetention WHERE node = ?1")
+	VmSnapshotRetention findByNode(String node);
+
+	/**
+	 * Return all node rules, from the most generic to the most specific node.
+	 *
+	 * @return All node rules.
+	 */
+	@Query("FROM VmSnapshotRetention WHERE node IS NOT NULL ORDER BY LENGTH(node)")
+	List<VmSnapshotRetention> findAllNodeRules();
+
+	/**
+	 * Return all subscription rules.
+	 *
+	 * @return All subscription rules.
+	 */
+	@Query("FROM VmSnapshotRetention r INNER JOIN FETCH r.subscription s INNER JOIN FETCH s.node")
+	List<VmSnapshotRetention> findAllSubscriptionRules();
+
+	/**
+	 * Return all subscriptions related to the given node or sub-node. Security is not involved.
+	 *
+	 * @param node The node identifier to filter.
+	 * @return The subscriptions linked to the related node or sub-node.
+	 */
+	@Query("FROM Subscription s INNER JOIN FETCH s.node AS n WHERE n.id = :node OR n.id LIKE CONCAT(:node, ':%')")
+	List<Subscription> findAllSubscriptions(String node);
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.util.List;
+
+import org.ligoj.app.dao.ProjectRepository;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link Subscription} repository dedicated to the VM node level queries.
+ */
+public interface VmSubscriptionRepository extends RestRepository<Subscription, Integer> {
+
+	/**
+	 * Return all subscriptions related to the given node or sub-node. Security is not involved.
+	 *
+	 * @param node The node identifier to filter.
+	 * @return The subscriptions linked to the related node or sub-node, with their node.
+	 */
+	@Query("FROM Subscription s INNER JOIN FETCH s.node AS n WHERE n.id = :node OR n.id LIKE CONCAT(:node, ':%')")
+	List<Subscription> findAllByNode(String node);
+
+	/**
+	 * Return the identifiers of the visible subscriptions related to the given node or sub-node.
+	 *
+	 * @param node The node identifier to filter.
+	 * @param user The principal username.
+	 * @return The visible subscription identifiers linked to the related node or sub-node.
+	 */
+	@Query("SELECT DISTINCT s.id FROM Subscription s INNER JOIN s.project AS p INNER JOIN s.node AS n"
+			+ " LEFT JOIN p.cacheGroups AS cpg LEFT JOIN cpg.group AS cg"
+			+ " WHERE (n.id = :node OR n.id LIKE CONCAT(:node, ':%')) AND " + ProjectRepository.VISIBLE_PROJECTS)
+	List<Integer> findAllVisibleByNode(String node, String user);
+
+	/**
+	 * Return the visible subscriptions related to the given node or sub-node.
+	 *
+	 * @param node The node identifier to filter.
+	 * @param user The principal username.
+	 * @return The visible subscriptions linked to the related node or sub-node, with their node and project, ordered
+	 *         by identifier.
+	 */
+	@Query("SELECT DISTINCT s FROM Subscription s INNER JOIN FETCH s.project AS p INNER JOIN FETCH s.node AS n"
+			+ " LEFT JOIN p.cacheGroups AS cpg LEFT JOIN cpg.group AS cg"
+			+ " WHERE (n.id = :node OR n.id LIKE CONCAT(:node, ':%')) AND " + ProjectRepository.VISIBLE_PROJECTS
+			+ " ORDER BY s.id")
+	List<Subscription> findAllVisibleByNodeFetch(String node, String user);
+}
@@ -7,46 +7,126 @@ import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.FastDateFormat;
 import org.ligoj.app.dao.SubscriptionRepository;
 import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.PluginGuardException;
+import org.ligoj.app.plugin.vm.PluginResolver;
 import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.VmSubscriptionCache;
 import org.ligoj.app.plugin.vm.dao.VmExecutionRepository;
+import org.ligoj.app.plugin.vm.dao.VmExecutionRow;
 import org.ligoj.app.plugin.vm.dao.VmExecutionStatusRepository;
+import org.ligoj.app.plugin.vm.dao.VmInventoryRepository;
+import org.ligoj.app.plugin.vm.dao.VmReadReplica;
 import org.ligoj.app.plugin.vm.dao.VmScheduleRepository;
+import org.ligoj.app.plugin.vm.dao.VmScheduleRow;
+import org.ligoj.app.plugin.vm.dao.VmSubscriptionRepository;
+import org.ligoj.app.plugin.vm.inventory.VmInventoryResource;
 import org.ligoj.app.plugin.vm.model.*;
 import org.ligoj.app.resource.ServicePluginLocator;
 import org.ligoj.app.resource.plugin.AbstractToolPluginResource;
 import org.ligoj.app.resource.subscription.LongTaskRunnerSubscription;
 import org.ligoj.app.resource.subscription.SubscriptionResource;
 import org.ligoj.bootstrap.core.DateUtils;
+import org.ligoj.bootstrap.core.resource.BusinessException;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
 import org.quartz.CronExpression;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * VM Execution task runner.
+ * VM Execution task runner. The provider calls are made outside the transactions: the database is read and written in
+ * short transactions before and after these calls.
  */
 @Slf4j
 @Service
 @Path(VmResource.SERVICE_URL + "/{subscription:\\d+}/execution")
 @Produces(MediaType.APPLICATION_JSON)
 @Transactional
-public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecutionStatus, VmExecutionStatusRepository> {
+public class VmExecutionResource
+		implements LongTaskRunnerSubscription<VmExecutionStatus, VmExecutionStatusRepository>, DisposableBean {
 
 	private static final String COMMON_CSV_HEADER = "subscription;project;projectKey;projectName;node";
 
+	private static final String HISTORY_CSV_HEADER = COMMON_CSV_HEADER
+			+ ";dateHMS;timestamp;previousState;operation;vm;trigger;succeed;statusText;errorText";
+
+	/**
+	 * Configuration key enabling the skip of the operations when the VM is already in the target state.
+	 */
+	public static final String CONF_SKIP = VmResource.SERVICE_KEY + ":execution-skip";
+
+	/**
+	 * Configuration key of the maximal age, in milliseconds, of a VM state used to skip an operation.
+	 */
+	public static final String CONF_SKIP_AGE = VmResource.SERVICE_KEY + ":execution-skip-age";
+
+	private static final int DEFAULT_SKIP_AGE = 300000;
+
+	/**
+	 * Status text of an operation skipped since the VM is already in the target state.
+	 */
+	public static final String STATUS_SKIPPED = "skipped";
+
+	/**
+	 * Configuration key of the maximal amount of pages read in parallel by a node executions report, and also of pages
+	 * kept in memory. All these reports share the same {@value #EXPORT_THREADS} threads, bounding the concurrent
+	 * database reads of all reports.
+	 */
+	public static final String CONF_EXPORT_CONCURRENCY = VmResource.SERVICE_KEY + ":export-concurrency";
+
+	private static final int DEFAULT_EXPORT_CONCURRENCY = 4;
+
+	/**
+	 * Configuration key of the amount of executions read per query by the node executions report.
+	 */
+	public static final String CONF_EXPORT_PAGE = VmResource.SERVICE_KEY + ":export-page";
+
+	private static final int DEFAULT_EXPORT_PAGE = 1000;
+
+	private static final int EXPORT_THREADS = 8;
+
+	/**
+	 * A page of the executions of a subscription.
+	 *
+	 * @param subscription The related subscription.
+	 * @param lines        The CSV lines of these executions.
+	 * @param last         The identifier of the last execution of this page. <code>null</code> for the last page.
+	 */
+	private record ExecutionsPage(Subscription subscription, byte[] lines, Integer last) {
+	}
+
+	/**
+	 * Executor of the node executions reports, shared by all the requests. Each thread holds a connection while it
+	 * reads a page.
+	 */
+	private final ExecutorService exportExecutor = newExportExecutor();
+
 	@Autowired
 	protected VmExecutionResource self = this;
 
@@ -74,6 +154,30 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 	@Autowired
 	protected ServicePluginLocator locator;
 
+	@Autowired
+	protected PluginResolver resolver;
+
+	@Autowired
+	protected VmInventoryResource inventoryResource;
+
+	@Autowired
+	private VmInventoryRepository inventoryRepository;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	protected VmExecutionWriter writer;
+
+	@Autowired
+	protected VmSubscriptionCache cache;
+
+	@Autowired
+	protected VmReportCache reportCache;
+
+	@Autowired
+	protected VmSubscriptionRepository vmSubscriptionRepository;
+
 	/**
 	 * Execute a {@link VmOperation} to the associated VM and checks its visibility against the current principal user.
 	 * This a synchronous call, but the effective execution is delayed.
@@ -85,6 +189,7 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 	@POST
 	@Path("{operation}")
 	@Consumes(MediaType.APPLICATION_JSON)
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public VmExecutionStatus execute(@PathParam("subscription") final int subscription,
 			@PathParam("operation") final VmOperation operation) {
 		return execute(subscriptionResource.checkVisible(subscription), operation);
@@ -98,11 +203,13 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 	 * @param operation    the operation to execute.
 	 * @return The execution task information.
 	 */
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public VmExecutionStatus execute(final Subscription subscription, final VmOperation operation) {
 		final var node = subscription.getNode().getId();
 		final var trigger = securityHelper.getLogin();
 		log.info("Operation {} on subscription {}, node {} is requested by {}", operation, subscription.getId(), node,
 				trigger);
+		checkNotRunning(subscription.getId());
 		final var execution = new VmExecution();
 		var failed = true;
 		execution.setOperation(operation);
@@ -115,9 +222,13 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 			// Share the current execution, this relationship is not persisted
 			t.setExecution(execution);
 		});
+		var skipped = false;
 		try {
-			// Execute the operation if plug-in still available
-			getTool(node).execute(execution);
+			// Execute the operation if plug-in still available, and when the VM is not yet in the target state
+			skipped = skip(execution);
+			if (!skipped) {
+				getTool(node).execute(execution);
+			}
 			log.info("Operation {} (->{}) on subscription {}, node {} : succeed", operation, execution.getOperation(),
 					subscription.getId(), node);
 			execution.setSucceed(true);
@@ -125,48 +236,148 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 		} catch (final Exception e) {
 			// Something goes wrong for this execution, this log would be considered for reporting
 			execution.setError(e.getMessage());
+			if (e instanceof PluginGuardException) {
+				// The node is not reached, expose the guard state
+				execution.setStatusText(e.getMessage());
+			}
 			log.error("Operation {} on subscription {}, node {} : failed", operation, subscription.getId(), node, e);
 		} finally {
 			// Save the history as needed
-			self.endTask(subscription.getId(), failed);
+			if (skipped) {
+				// Nothing to wait for
+				self.endTask(subscription.getId(), false, t -> t.setFinishedRemote(true));
+			} else {
+				inventoryResource.markBusy(subscription.getId());
+				self.endTask(subscription.getId(), failed);
+			}
 			saveAndFlush(execution, operation);
 		}
 		return task;
 	}
 
+	/**
+	 * Check the given operation can be skipped: the skip is enabled and a fresh enough VM state shows the VM is
+	 * already in the target state. When skipped, the execution is completed with this state. A previous operation
+	 * marks the state busy after the provider call, and a background refresh whose fetch started before this mark
+	 * is discarded, so an overlapping refresh cannot expose the state preceding this operation as fresh.
+	 *
+	 * @param execution The current execution.
+	 * @return <code>true</code> when the operation is skipped.
+	 */
+	private boolean skip(final VmExecution execution) {
+		if (!Boolean.parseBoolean(configuration.get(CONF_SKIP))) {
+			return false;
+		}
+		final var inventory = inventoryRepository.findBySubscription(execution.getSubscription().getId());
+		if (inventory == null || inventory.isBusy() || !isNoOp(execution.getOperation(), inventory.getStatus())
+				|| inventory.getRefreshed()
+						.isBefore(Instant.now().minusMillis(configuration.get(CONF_SKIP_AGE, DEFAULT_SKIP_AGE)))) {
+			return false;
+		}
+		log.info("Operation {} on subscription {} is skipped, the VM is already {}", execution.getOperation(),
+				execution.getSubscription().getId(), inventory.getStatus());
+		execution.setPreviousState(inventory.getStatus());
+		execution.setVm(inventory.getVm());
+		execution.setStatusText(STATUS_SKIPPED);
+		return true;
+	}
+
+	/**
+	 * Indicate the given operation has no effect on a VM in the given state.
+	 *
+	 * @param operation The operation to execute.
+	 * @param status    The current VM status. May be <code>null</code>.
+	 * @return <code>true</code> when the given operation has no effect.
+	 */
+	public static boolean isNoOp(final VmOperation operation, final VmStatus status) {
+		return switch (operation) {
+			case OFF, SHUTDOWN -> status == VmStatus.POWERED_OFF;
+			case ON -> status == VmStatus.POWERED_ON;
+			case SUSPEND -> status == VmStatus.SUSPENDED;
+			default -> false;
+		};
+	}
+
 	@Override
 	public Supplier<VmExecutionStatus> newTask() {
 		return VmExecutionStatus::new;
 	}
 
+	/**
+	 * Check the previous task of the given subscription is finished, including the remote operation. The remote state
+	 * is fetched here, before the transaction starting the new task. This early check is repeated by
+	 * {@link #startTask(Integer, Consumer)} under the subscription lock.
+	 *
+	 * @param subscription The related subscription identifier.
+	 */
+	private void checkNotRunning(final int subscription) {
+		// The remote state is already refreshed by this call
+		final var task = getTask(subscription);
+		if (task != null && !task.isFinishedRemote() && !task.isFailed()) {
+			throw new BusinessException("concurrent-task", task.getAuthor(), task.getStart(), subscription);
+		}
+	}
+
+	/**
+	 * Start a new task once the previous one is finished. The subscription is locked first, so the concurrent starts of
+	 * the same subscription are serialized until the end of this transaction: the next start checks the task saved by
+	 * the previous one.
+	 */
+	@Override
+	public VmExecutionStatus startTask(final Integer subscription, final Consumer<VmExecutionStatus> initializer) {
+		inventoryRepository.lockSubscription(subscription);
+		return LongTaskRunnerSubscription.super.startTask(subscription, initializer);
+	}
+
 	@Override
 	@GET
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public VmExecutionStatus getTask(@PathParam("subscription") final int subscription) {
 		final var task = LongTaskRunnerSubscription.super.getTask(subscription);
 		if (task != null && completeStatus(task)) {
-			// Save the new state
-			taskRepository.saveAndFlush(task);
+			// Save the new state after the remote call
+			self.finishRemote(task.getId());
 		}
 		return task;
 	}
 
+	/**
+	 * Mark as remotely finished the given task. Only this column is written.
+	 *
+	 * @param task The task identifier.
+	 */
+	public void finishRemote(final int task) {
+		taskRepository.findOneExpected(task).setFinishedRemote(true);
+	}
+
 	private VmExecutionServicePlugin getTool(final String node) {
-		return locator.getResourceExpected(node, VmExecutionServicePlugin.class);
+		return resolver.getResourceExpected(locator, node, VmExecutionServicePlugin.class);
 	}
 
+	/**
+	 * Complete the remote status of the given task. The VM details are attached to the task, but are not persisted.
+	 *
+	 * @param task The task to complete.
+	 * @return <code>true</code> when the task is now remotely finished, and needs to be saved.
+	 */
 	private boolean completeStatus(final VmExecutionStatus task) {
+		if (task.isFinishedRemote()) {
+			return false;
+		}
 		if (task.isFailed()) {
 			task.setFinishedRemote(true);
+			return true;
 		}
-		if (!task.isFinishedRemote() && task.isFinished()) {
+		if (task.isFinished()) {
 			// Complete the status for the uncompleted tasks
 			final int subscription = task.getLocked().getId();
 			final var node = task.getLocked().getNode().getId();
 			try {
-				final var vm = getTool(node).getVmDetails(subscriptionResource.getParametersNoCheck(subscription));
+				final var vm = getTool(node).getVmDetails(cache.getParameters(subscriptionResource, subscription));
 				task.setVm(vm);
+				inventoryResource.updateChanged(task.getLocked(), vm);
 				task.setFinishedRemote(!vm.isBusy());
-				return true;
+				return task.isFinishedRemote();
 			} catch (final Exception e) {
 				// Unable to get the VM details
 				log.info("Unable to retrieve VM information of subscription {}, node {}", subscription, node);
@@ -175,10 +386,17 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 		return false;
 	}
 
+	/**
+	 * Indicate the given task is finished, including the remote operation. The remote state is fetched when not yet
+	 * known. Before a new task, this state is fetched by {@link #getTask(int)} outside the transaction, so the check
+	 * made within the transaction starting this task calls the provider only when the VM is still busy.
+	 */
 	@Override
 	public boolean isFinished(final VmExecutionStatus task) {
-		completeStatus(task);
-		return task.isFinishedRemote();
+		if (completeStatus(task)) {
+			self.finishRemote(task.getId());
+		}
+		return task.isFinishedRemote() || task.isFailed();
 	}
 
 	/**
@@ -191,16 +409,70 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 	@GET
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
 	@Path("{file:executions-.*.csv}")
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
 	public Response downloadHistoryReport(@PathParam("subscription") final int subscription,
 			@PathParam("file") final String file) {
-		subscriptionResource.checkVisible(subscription);
-		return AbstractToolPluginResource
-				.download(o -> writeHistory(o, vmExecutionRepository.findAllBySubscription(subscription)), file)
-				.build();
+		return VmReadReplica.read(() -> {
+			final var entity = cache.checkVisible(subscriptionResource, subscription);
+			final var executions = vmExecutionRepository.findAllBySubscription(subscription);
+			return AbstractToolPluginResource.download(o -> writeHistory(o, entity, executions), file).build();
+		});
+	}
+
+	/**
+	 * Return the execution report of all VM related to a visible subscription related to the given node. The executions
+	 * are grouped by subscription, then ordered from the newest to the oldest.
+	 *
+	 * @param node The related node.
+	 * @param file The requested file name. When ending with <code>.gz</code>, the report is compressed.
+	 * @param from The optional minimal execution timestamp, inclusive.
+	 * @param to   The optional maximal execution timestamp, inclusive.
+	 * @return The download stream.
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	@Path(VmResource.SERVICE_URL + "/{node:service:.+}/{file:executions-.*\\.csv(?:\\.gz)?}")
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public Response downloadNodeHistoryReport(@PathParam("node") final String node,
+			@PathParam("file") final String file, @QueryParam("from") final Long from,
+			@QueryParam("to") final Long to) {
+		final var subscriptions = VmReadReplica
+				.read(() -> vmSubscriptionRepository.findAllVisibleByNodeFetch(node, securityHelper.getLogin()));
+		final var start = from == null ? Instant.EPOCH : Instant.ofEpochMilli(from);
+		final var end = to == null ? Instant.now() : Instant.ofEpochMilli(to);
+		return AbstractToolPluginResource.download(o -> {
+			if (file.endsWith(".gz")) {
+				final var gzip = new GZIPOutputStream(o, 65536);
+				writeNodeHistory(gzip, subscriptions, start, end);
+				gzip.finish();
+			} else {
+				writeNodeHistory(o, subscriptions, start, end);
+			}
+		}, file).build();
+	}
+
+	/**
+	 * Return a page of the executions of the given subscription within the given period, from the newest to the
+	 * oldest. Visibility is not checked.
+	 *
+	 * @param subscription The related subscription.
+	 * @param from         The minimal execution date, inclusive.
+	 * @param to           The maximal execution date, inclusive.
+	 * @param before       The maximal execution identifier, exclusive.
+	 * @param size         The maximal amount of executions.
+	 * @return The report columns of the executions.
+	 */
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public List<VmExecutionRow> findAllExecutions(final int subscription, final Instant from, final Instant to,
+			final int before, final int size) {
+		return VmReadReplica.read(() -> vmExecutionRepository.findAllBySubscription(subscription, from, to, before,
+				PageRequest.of(0, size)));
 	}
 
 	/**
 	 * Return all configured schedules report of all VM related to a visible subscription related to the given node.
+	 * When enabled, the report is served from {@link VmReportCache}. The queries are run in their own transactions, so
+	 * a request waiting for the running build of its report holds no connection.
 	 *
 	 * @param node The related node.
 	 * @param file The requested file name.
@@ -209,54 +481,213 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 	@GET
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
 	@Path(VmResource.SERVICE_URL + "/{node:service:.+}/{file:schedules-.*.csv}")
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public Response downloadNodeSchedulesReport(@PathParam("node") final String node,
 			@PathParam("file") final String file) {
-		// Get all visible schedules linked to this node
-		final var schedules = vmScheduleRepository.findAllByNode(node, securityHelper.getLogin());
+		final StreamingOutput output;
+		if (reportCache.isEnabled()) {
+			// The report is shared by the users seeing the same subscriptions
+			output = reportCache.get(node, self.findAllVisibleByNode(node), self::newNodeSchedulesReport);
+		} else {
+			output = self.newVisibleSchedulesReport(node);
+		}
+		return AbstractToolPluginResource.download(output, file).build();
+	}
+
+	/**
+	 * Return the identifiers of the subscriptions related to the given node and visible by the current user.
+	 *
+	 * @param node The related node.
+	 * @return The visible subscription identifiers.
+	 */
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public List<Integer> findAllVisibleByNode(final String node) {
+		return VmReadReplica.read(() -> vmSubscriptionRepository.findAllVisibleByNode(node, securityHelper.getLogin()));
+	}
+
+	/**
+	 * Return the schedules report of the subscriptions related to the given node and visible by the current user.
+	 *
+	 * @param node The related node.
+	 * @return The report output, without pending query.
+	 */
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public StreamingOutput newVisibleSchedulesReport(final String node) {
+		return VmReadReplica.read(() -> newSchedulesReport(node,
+				vmScheduleRepository.findAllByNode(node, securityHelper.getLogin())));
+	}
+
+	/**
+	 * Return the schedules report of the given node and subscriptions. Visibility is not checked.
+	 *
+	 * @param key The node and the subscriptions of the report.
+	 * @return The report output, without pending query.
+	 */
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public StreamingOutput newNodeSchedulesReport(final VmReportCache.Key key) {
+		return VmReadReplica.read(() -> newSchedulesReport(key.node(),
+				vmScheduleRepository.findAllByNodeNoCheck(key.node()).stream()
+						.filter(s -> key.subscriptions().contains(s.subscription())).toList()));
+	}
 
+	/**
+	 * Refresh the cached schedules reports and delete the ones no more downloaded.
+	 *
+	 * @return The amount of refreshed reports.
+	 */
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
+	public int refreshReports() {
+		return reportCache.refresh(self::newNodeSchedulesReport);
+	}
+
+	/**
+	 * Return the report of the given schedules.
+	 */
+	private StreamingOutput newSchedulesReport(final String node, final Collection<VmScheduleRow> schedules) {
 		// Get all last execution related to given node, Key is the subscription identifier
 		final var lastExecutions = vmExecutionRepository.findAllByNodeLast(node).stream()
-				.collect(Collectors.toMap(e -> e.getSubscription().getId(), Function.identity()));
+				.collect(Collectors.toMap(VmExecutionRow::subscription, Function.identity()));
+
+		// Get all last known VM states related to given node, Key is the subscription identifier
+		final var inventories = inventoryRepository.findAllByNode(node).stream()
+				.collect(Collectors.toMap(i -> i.getSubscription().getId(), Function.identity()));
 
 		// Get all last executions of all schedules
-		return AbstractToolPluginResource.download(o -> writeSchedules(o, schedules, lastExecutions), file).build();
+		return o -> writeSchedules(o, schedules, lastExecutions, inventories);
 	}
 
 	/**
-	 * Write all executions related to given subscription, from the oldest to the newest.
+	 * Write all executions related to given subscription, from the newest to the oldest.
 	 */
-	private void writeHistory(final OutputStream output, Collection<VmExecution> executions) throws IOException {
+	private void writeHistory(final OutputStream output, final Subscription subscription,
+			final Collection<VmExecutionRow> executions) throws IOException {
 		final var writer = new BufferedWriter(new OutputStreamWriter(output, "cp1252"));
+		writer.write(HISTORY_CSV_HEADER);
+		writeExecutions(writer, subscription, executions);
+
+		// Ensure buffer is flushed
+		writer.flush();
+	}
+
+	/**
+	 * Write the executions of the given subscription, without header.
+	 */
+	private void writeExecutions(final Writer writer, final Subscription subscription,
+			final Collection<VmExecutionRow> executions) throws IOException {
 		final var df = FastDateFormat.getInstance("yyyy/MM/dd HH:mm:ss");
-		writer.write(COMMON_CSV_HEADER
-				+ ";dateHMS;timestamp;previousState;operation;vm;trigger;succeed;statusText;errorText");
+		final var project = subscription.getProject();
 		for (final var execution : executions) {
-			writeCommon(writer, execution.getSubscription());
+			writeCommon(writer, subscription.getId(), project.getId(), project.getPkey(), project.getName(),
+					subscription.getNode().getId());
 			writeExecutionStatus(writer, execution, df);
 		}
+	}
 
-		// Ensure buffer is flushed
+	private static ExecutorService newExportExecutor() {
+		final var executor = new ThreadPoolExecutor(EXPORT_THREADS, EXPORT_THREADS, 1, TimeUnit.MINUTES,
+				new LinkedBlockingQueue<>());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Write the executions of all given subscriptions, in the order of these subscriptions. The executions are read by
+	 * pages, and the subscriptions are read in parallel: at most the allowed concurrency of pages are read at the same
+	 * time, and kept in memory with the page being written. The next page of a subscription is read while its current
+	 * page is written.
+	 */
+	private void writeNodeHistory(final OutputStream output, final List<Subscription> subscriptions,
+			final Instant from, final Instant to) throws IOException {
+		output.write(HISTORY_CSV_HEADER.getBytes("cp1252"));
+		final var concurrency = Math.max(1, Math.min(subscriptions.size(),
+				configuration.get(CONF_EXPORT_CONCURRENCY, DEFAULT_EXPORT_CONCURRENCY)));
+		final var size = configuration.get(CONF_EXPORT_PAGE, DEFAULT_EXPORT_PAGE);
+		final var pages = new ArrayDeque<Future<ExecutionsPage>>();
+		final var pending = subscriptions.iterator();
+		try {
+			while (pending.hasNext() || !pages.isEmpty()) {
+				while (pending.hasNext() && pages.size() < concurrency) {
+					final var subscription = pending.next();
+					pages.add(readPage(concurrency,
+							() -> newExecutionsPage(subscription, from, to, Integer.MAX_VALUE, size)));
+				}
+
+				// Written in order, the next pages are read meanwhile
+				final var page = join(pages.removeFirst());
+				if (page.last() != null) {
+					pages.addFirst(readPage(concurrency,
+							() -> newExecutionsPage(page.subscription(), from, to, page.last(), size)));
+				}
+				output.write(page.lines());
+			}
+		} finally {
+			pages.forEach(p -> p.cancel(true));
+		}
+	}
+
+	/**
+	 * Read the given page with the shared executor, or in the current thread without concurrency.
+	 */
+	private Future<ExecutionsPage> readPage(final int concurrency, final Callable<ExecutionsPage> page) {
+		if (concurrency > 1) {
+			return exportExecutor.submit(page);
+		}
+		final var task = new FutureTask<>(page);
+		task.run();
+		return task;
+	}
+
+	/**
+	 * Return the CSV lines of a page of the executions of the given subscription.
+	 */
+	private ExecutionsPage newExecutionsPage(final Subscription subscription, final Instant from, final Instant to,
+			final int before, final int size) throws IOException {
+		final var executions = self.findAllExecutions(subscription.getId(), from, to, before, size);
+		final var output = new ByteArrayOutputStream();
+		final var writer = new BufferedWriter(new OutputStreamWriter(output, "cp1252"));
+		writeExecutions(writer, subscription, executions);
 		writer.flush();
+		return new ExecutionsPage(subscription, output.toByteArray(),
+				executions.size() < size ? null : executions.getLast().id());
+	}
+
+	private ExecutionsPage join(final Future<ExecutionsPage> page) throws IOException {
+		try {
+			return page.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Executions report has been interrupted");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException ioe) {
+				throw ioe;
+			}
+			if (e.getCause() instanceof Error error) {
+				throw error;
+			}
+			throw (RuntimeException) e.getCause();
+		}
 	}
 
 	/**
 	 * Write all schedules.
 	 */
-	private void writeSchedules(final OutputStream output, Collection<VmSchedule> schedules,
-			final Map<Integer, VmExecution> lastExecutions) throws IOException {
+	private void writeSchedules(final OutputStream output, Collection<VmScheduleRow> schedules,
+			final Map<Integer, VmExecutionRow> lastExecutions, final Map<Integer, VmInventory> inventories)
+			throws IOException {
 		final var writer = new BufferedWriter(new OutputStreamWriter(output, "cp1252"));
 		final var df = FastDateFormat.getInstance("yyyy/MM/dd HH:mm:ss");
 		final var now = DateUtils.newCalendar().getTime();
 		writer.write(COMMON_CSV_HEADER
-				+ ";cron;operation;lastDateHMS;lastTimestamp;previousState;lastOperation;vm;lastTrigger;lastSucceed;lastStatusText;lastErrorText;nextDateHMS;nextTimestamp");
-		for (final VmSchedule schedule : schedules) {
+				+ ";cron;operation;lastDateHMS;lastTimestamp;previousState;lastOperation;vm;lastTrigger;lastSucceed;lastStatusText;lastErrorText;nextDateHMS;nextTimestamp;status;statusDateHMS;statusTimestamp");
+		for (final var schedule : schedules) {
 			// The last execution of the related schedule
-			final var execution = lastExecutions.get(schedule.getSubscription().getId());
-			writeCommon(writer, schedule.getSubscription());
+			final var execution = lastExecutions.get(schedule.subscription());
+			writeCommon(writer, schedule.subscription(), schedule.project(), schedule.projectKey(),
+					schedule.projectName(), schedule.node());
 			writer.write(';');
-			writer.write(schedule.getCron());
+			writer.write(schedule.cron());
 			writer.write(';');
-			writer.write(schedule.getOperation().name());
+			writer.write(schedule.operation().name());
 			if (execution == null) {
 				writer.write(";;;;;;;;;");
 			} else {
@@ -266,16 +697,19 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 
 			// Next execution
 			try {
-				final var next = new CronExpression(schedule.getCron()).getNextValidTimeAfter(now);
+				final var next = new CronExpression(schedule.cron()).getNextValidTimeAfter(now);
 				writer.write(';');
 				writer.write(df.format(next));
 				writer.write(';');
 				writer.write(String.valueOf(next.getTime()));
 			} catch (final ParseException pe) {
 				// Non blocking error
-				log.error("Invalid CRON expression {} : {}", schedule.getCron(), pe.getMessage());
+				log.error("Invalid CRON expression {} : {}", schedule.cron(), pe.getMessage());
 				writer.write(";ERROR;ERROR");
 			}
+
+			// Last known VM state
+			writeInventory(writer, inventories.get(schedule.subscription()), df);
 		}
 
 		// Ensure buffer is flushed
@@ -290,46 +724,71 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 	 * @param execution Execution to write.
 	 * @param df        Date format for date to write.
 	 */
-	private void writeExecutionStatus(final Writer writer, final VmExecution execution, final FastDateFormat df)
+	private void writeExecutionStatus(final Writer writer, final VmExecutionRow execution, final FastDateFormat df)
 			throws IOException {
 		writer.write(';');
-		writer.write(df.format(execution.getDate()));
+		writer.write(df.format(execution.date()));
 		writer.write(';');
-		writer.write(String.valueOf(execution.getDate().toEpochMilli()));
+		writer.write(String.valueOf(execution.date().toEpochMilli()));
 		writer.write(';');
-		writer.write(Optional.ofNullable(execution.getPreviousState()).map(VmStatus::name).orElse(""));
+		writer.write(Optional.ofNullable(execution.previousState()).map(VmStatus::name).orElse(""));
 		writer.write(';');
-		writer.write(execution.getOperation().name());
+		writer.write(execution.operation().name());
 		writer.write(';');
-		writer.write(Objects.toString(execution.getVm(), ""));
+		writer.write(Objects.toString(execution.vm(), ""));
 		writer.write(';');
-		writer.write(execution.getTrigger());
+		writer.write(execution.trigger());
 		writer.write(';');
-		writer.write(String.valueOf(execution.isSucceed()));
+		writer.write(String.valueOf(execution.succeed()));
 		writer.write(';');
-		writer.write(Objects.toString(execution.getStatusText(), ""));
+		writer.write(Objects.toString(execution.statusText(), ""));
 		writer.write(';');
-		writer.write(Objects.toString(execution.getError(), ""));
+		writer.write(Objects.toString(execution.error(), ""));
+	}
+
+	/**
+	 * Write <code>status;statusDateHMS;statusTimestamp</code> VM state values.
+	 *
+	 * @param writer    Target output.
+	 * @param inventory Last known VM state to write. May be <code>null</code>.
+	 * @param df        Date format for date to write.
+	 */
+	private void writeInventory(final Writer writer, final VmInventory inventory, final FastDateFormat df)
+			throws IOException {
+		if (inventory == null) {
+			writer.write(";;;");
+			return;
+		}
+		writer.write(';');
+		writer.write(Optional.ofNullable(inventory.getStatus()).map(VmStatus::name).orElse(""));
+		writer.write(';');
+		writer.write(df.format(inventory.getRefreshed().toEpochMilli()));
+		writer.write(';');
+		writer.write(String.valueOf(inventory.getRefreshed().toEpochMilli()));
 	}
 
 	/**
 	 * Write <code>subscription;project;projectKey;projectName;node</code>.
 	 *
 	 * @param writer       Target output.
-	 * @param subscription Related subscription.
+	 * @param subscription Related subscription identifier.
+	 * @param project      Related project identifier.
+	 * @param projectKey   Related project key.
+	 * @param projectName  Related project name.
+	 * @param node         Related node identifier.
 	 */
-	private void writeCommon(final Writer writer, final Subscription subscription) throws IOException {
-		final var project = subscription.getProject();
+	private void writeCommon(final Writer writer, final int subscription, final int project, final String projectKey,
+			final String projectName, final String node) throws IOException {
 		writer.write('\n');
-		writer.write(String.valueOf(subscription.getId()));
+		writer.write(String.valueOf(subscription));
 		writer.write(';');
-		writer.write(String.valueOf(project.getId()));
+		writer.write(String.valueOf(project));
 		writer.write(';');
-		writer.write(project.getPkey());
+		writer.write(projectKey);
 		writer.write(';');
-		writer.write(project.getName().replace('\"', '\''));
+		writer.write(projectName.replace('\"', '\''));
 		writer.write(';');
-		writer.write(subscription.getNode().getId());
+		writer.write(node);
 	}
 
 	/**
@@ -343,8 +802,13 @@ public class VmExecutionResource implements LongTaskRunnerSubscription<VmExecuti
 		if (execution.getOperation() == null) {
 			log.info("Operation {} on subscription {} : skipped", operation, execution.getSubscription().getId());
 		} else {
-			// Persist the execution result
-			vmExecutionRepository.saveAndFlush(execution);
+			// Persist the execution result, may be delayed
+			writer.save(execution);
 		}
 	}
+
+	@Override
+	public void destroy() {
+		exportExecutor.shutdownNow();
+	}
 }
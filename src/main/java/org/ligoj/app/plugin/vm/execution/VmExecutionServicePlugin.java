@@ -22,6 +22,21 @@ public interface VmExecutionServicePlugin extends ServicePlugin {
 	 */
 	Vm getVmDetails(final Map<String, String> parameters) throws Exception; // NOSONAR
 
+	/**
+	 * Get the VM configurations of several subscriptions in one call.
+	 *
+	 * @param parameters the subscription parameters. Key is the subscription identifier.
+	 * @return Virtual Machine details with status, CPU, and RAM. Key is the subscription identifier. A missing entry
+	 *         means the VM details are unavailable. <code>null</code> when the batch lookup is not supported, and then
+	 *         {@link #getVmDetails(Map)} is used for each subscription.
+	 * @throws Exception When details failed.
+	 * @since 3.0.0
+	 */
+	default Map<Integer, Vm> getAllVmDetails(final Map<Integer, Map<String, String>> parameters)
+			throws Exception { // NOSONAR
+		return null;
+	}
+
 	/**
 	 * Execute the given execution. The current execution context can be completed : VM identifier or "statusText".
 	 *
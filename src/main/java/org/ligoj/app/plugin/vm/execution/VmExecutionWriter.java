@@ -0,0 +1,211 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.execution;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.dao.VmExecutionRepository;
+import org.ligoj.app.plugin.vm.model.VmExecution;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writer of the execution history. By default, each execution is inserted and flushed right away. When a batch size
+ * is configured, the executions are queued and inserted with JDBC batches, when the batch is full or when the oldest
+ * queued execution reaches the configured delay. The queue is flushed on shutdown, so a crash loses at most the
+ * executions of this delay.
+ */
+@Slf4j
+@Component
+public class VmExecutionWriter implements InitializingBean, DisposableBean {
+
+	/**
+	 * Configuration key of the amount of executions inserted in one batch. <code>0</code> disables the write-behind.
+	 */
+	public static final String CONF_BATCH = VmResource.SERVICE_KEY + ":execution-batch";
+
+	/**
+	 * Configuration key of the maximal duration, in milliseconds, an execution stays in the queue.
+	 */
+	public static final String CONF_DELAY = VmResource.SERVICE_KEY + ":execution-batch-delay";
+
+	private static final int DEFAULT_DELAY = 1000;
+
+	/**
+	 * Delay, in milliseconds, between two checks of the oldest queued execution.
+	 */
+	private static final int TICK = 100;
+
+	/**
+	 * A queued execution.
+	 *
+	 * @param execution The execution to insert.
+	 * @param queued    The queue timestamp.
+	 */
+	private record Pending(VmExecution execution, long queued) {
+	}
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	protected VmExecutionRepository repository;
+
+	@Autowired
+	protected VmExecutionWriter self = this;
+
+	@PersistenceContext(unitName = "pu")
+	protected EntityManager em;
+
+	private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+	@Override
+	public void afterPropertiesSet() {
+		executor.scheduleWithFixedDelay(this::flushIfDue, TICK, TICK, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Save the given execution, right away or through the queue.
+	 *
+	 * @param execution The execution to save.
+	 */
+	public void save(final VmExecution execution) {
+		final var batch = configuration.get(CONF_BATCH, 0);
+		if (batch <= 0) {
+			repository.saveAndFlush(execution);
+			return;
+		}
+		queue.add(new Pending(execution, System.currentTimeMillis()));
+		if (size.incrementAndGet() >= batch) {
+			executor.execute(this::flush);
+		}
+	}
+
+	/**
+	 * Return the amount of queued executions.
+	 *
+	 * @return The amount of queued executions.
+	 */
+	public int getQueued() {
+		return size.get();
+	}
+
+	private void flushIfDue() {
+		final var oldest = queue.peek();
+		if (oldest != null
+				&& oldest.queued() + configuration.get(CONF_DELAY, DEFAULT_DELAY) <= System.currentTimeMillis()) {
+			flush();
+		}
+	}
+
+	/**
+	 * Insert all queued executions.
+	 */
+	public synchronized void flush() {
+		final var batch = Math.max(1, configuration.get(CONF_BATCH, 0));
+		var rows = drain(batch);
+		while (!rows.isEmpty()) {
+			try {
+				self.insert(rows);
+			} catch (final RuntimeException e) {
+				// Isolate the failing executions
+				log.error("Batch insert of {} executions failed, retry one by one", rows.size(), e);
+				rows.forEach(this::insertSingle);
+			}
+			rows = drain(batch);
+		}
+	}
+
+	private void insertSingle(final VmExecution execution) {
+		try {
+			repository.saveAndFlush(execution);
+		} catch (final RuntimeException e) {
+			log.error("Execution of subscription {} is lost", execution.getSubscription().getId(), e);
+		}
+	}
+
+	private List<VmExecution> drain(final int batch) {
+		final var rows = new ArrayList<VmExecution>(batch);
+		Pending pending;
+		while (rows.size() < batch && (pending = queue.poll()) != null) {
+			size.decrementAndGet();
+			rows.add(pending.execution());
+		}
+		return rows;
+	}
+
+	/**
+	 * Insert the given executions with one JDBC batch. The statement is built from the entity mapping, and the
+	 * identifiers are generated by the database, and are not read back.
+	 *
+	 * @param executions The executions to insert.
+	 */
+	@Transactional
+	public void insert(final List<VmExecution> executions) {
+		final var session = em.unwrap(Session.class);
+		final var persister = (AbstractEntityPersister) session.getSessionFactory()
+				.unwrap(SessionFactoryImplementor.class).getMappingMetamodel().getEntityDescriptor(VmExecution.class);
+		final var names = persister.getPropertyNames();
+		final var columns = new ArrayList<String>();
+		for (var i = 0; i < names.length; i++) {
+			columns.addAll(List.of(persister.getPropertyColumnNames(i)));
+		}
+		final var sql = "INSERT INTO " + persister.getTableName() + " (" + String.join(", ", columns) + ") VALUES ("
+				+ String.join(", ", columns.stream().map(c -> "?").toList()) + ")";
+		final var implementor = session.unwrap(SharedSessionContractImplementor.class);
+		session.doWork(connection -> {
+			try (var statement = connection.prepareStatement(sql)) {
+				for (final var execution : executions) {
+					bind(statement, persister, execution, implementor);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		});
+		log.info("{} executions inserted", executions.size());
+	}
+
+	private void bind(final PreparedStatement statement, final AbstractEntityPersister persister,
+			final VmExecution execution, final SharedSessionContractImplementor session) throws SQLException {
+		final var types = persister.getPropertyTypes();
+		final var values = persister.getValues(execution);
+		var index = 1;
+		for (var i = 0; i < types.length; i++) {
+			types[i].nullSafeSet(statement, values[i], index, session);
+			index += persister.getPropertyColumnNames(i).length;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+		flush();
+	}
+}
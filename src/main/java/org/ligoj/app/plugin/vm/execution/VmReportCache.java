@@ -0,0 +1,261 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.execution;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import jakarta.ws.rs.core.StreamingOutput;
+
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * On-disk cache of the node schedules reports. A report is built per node and set of visible subscriptions, so the
+ * users sharing the same visibility share the same file. The concurrent requests of a report being built wait for this
+ * single build. The reports still downloaded are rebuilt in the background once half of their lifetime is elapsed,
+ * and the files are streamed with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ */
+@Slf4j
+@Component
+public class VmReportCache implements DisposableBean {
+
+	/**
+	 * Configuration key of the duration, in seconds, a report is served from the cache. <code>0</code>, the default,
+	 * disables the cache.
+	 */
+	public static final String CONF_TTL = VmResource.SERVICE_KEY + ":report-cache-ttl";
+
+	/**
+	 * Configuration key of the duration, in seconds, a report not downloaded is kept.
+	 */
+	public static final String CONF_IDLE = VmResource.SERVICE_KEY + ":report-cache-idle";
+
+	private static final int DEFAULT_IDLE = 86400;
+
+	/**
+	 * Configuration key of the directory of the cached reports. Default is a sub-directory of the temporary directory.
+	 */
+	public static final String CONF_DIRECTORY = VmResource.SERVICE_KEY + ":report-cache-directory";
+
+	/**
+	 * A cached report.
+	 *
+	 * @param node          The node identifier.
+	 * @param subscriptions The visible subscription identifiers of this node.
+	 */
+	public record Key(String node, Set<Integer> subscriptions) {
+	}
+
+	/**
+	 * A report file and its build state.
+	 */
+	private static class Report {
+		private final Path file;
+		private volatile long built;
+		private volatile long accessed;
+		private CompletableFuture<Path> building;
+
+		private Report(final Path file) {
+			this.file = file;
+		}
+	}
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	private final Map<Key, Report> reports = new ConcurrentHashMap<>();
+
+	/**
+	 * Indicate the reports are cached.
+	 *
+	 * @return <code>true</code> when the reports are cached.
+	 */
+	public boolean isEnabled() {
+		return getTtl() > 0;
+	}
+
+	private long getTtl() {
+		return configuration.get(CONF_TTL, 0) * 1000L;
+	}
+
+	private Path getDirectory() throws IOException {
+		return Files.createDirectories(Path.of(Objects.requireNonNullElseGet(configuration.get(CONF_DIRECTORY),
+				() -> Path.of(System.getProperty("java.io.tmpdir"), "ligoj-vm-reports").toString())));
+	}
+
+	/**
+	 * Return the report of the given node and subscriptions, built when missing or expired.
+	 *
+	 * @param node          The node identifier.
+	 * @param subscriptions The visible subscription identifiers of this node.
+	 * @param builder       The report builder. The queries are run by this function, the returned output only writes
+	 *                      the report.
+	 * @return The cached report output.
+	 */
+	public StreamingOutput get(final String node, final Collection<Integer> subscriptions,
+			final Function<Key, StreamingOutput> builder) {
+		final var key = new Key(node, Set.copyOf(subscriptions));
+		while (true) {
+			final var report = reports.computeIfAbsent(key, k -> {
+				try {
+					return new Report(Files.createTempFile(getDirectory(), "schedules-", ".csv"));
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			report.accessed = System.currentTimeMillis();
+			final var file = build(key, report, builder, getTtl());
+			if (reports.get(key) == report) {
+				return o -> transfer(file, o);
+			}
+
+			// Deleted by a concurrent refresh during this build, the rebuilt file is no more managed
+			deleteFile(file);
+		}
+	}
+
+	/**
+	 * Build the given report when older than the given age, or wait for the running build of this report.
+	 */
+	private Path build(final Key key, final Report report, final Function<Key, StreamingOutput> builder,
+			final long maxAge) {
+		final CompletableFuture<Path> future;
+		final boolean owner;
+		synchronized (report) {
+			if (report.building == null && System.currentTimeMillis() - report.built < maxAge) {
+				// Built meanwhile
+				return report.file;
+			}
+			owner = report.building == null;
+			if (owner) {
+				report.building = new CompletableFuture<>();
+			}
+			future = report.building;
+		}
+		if (owner) {
+			try {
+				write(report.file, builder.apply(key));
+				report.built = System.currentTimeMillis();
+				future.complete(report.file);
+			} catch (final Exception e) {
+				future.completeExceptionally(e);
+			} finally {
+				// Release the waiting requests, even on error
+				future.completeExceptionally(new IllegalStateException("Aborted report build"));
+				synchronized (report) {
+					report.building = null;
+				}
+			}
+		}
+		try {
+			return future.join();
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	/**
+	 * Write the report in a temporary file, then replace the previous one. The running downloads keep reading the
+	 * previous file.
+	 */
+	private void write(final Path file, final StreamingOutput output) throws IOException {
+		final var temp = Files.createTempFile(file.getParent(), "schedules-", ".tmp");
+		try {
+			try (var stream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				output.write(stream);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void transfer(final Path file, final OutputStream output) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final var target = Channels.newChannel(output);
+			final var size = channel.size();
+			for (var position = 0L; position < size;) {
+				position += channel.transferTo(position, size - position, target);
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the reports once half of their lifetime is elapsed, and delete the reports no more downloaded.
+	 *
+	 * @param builder The report builder.
+	 * @return The amount of rebuilt reports.
+	 */
+	public int refresh(final Function<Key, StreamingOutput> builder) {
+		final var ttl = getTtl();
+		final var idle = configuration.get(CONF_IDLE, DEFAULT_IDLE) * 1000L;
+		final var now = System.currentTimeMillis();
+		var refreshed = 0;
+		for (final var entry : reports.entrySet()) {
+			final var report = entry.getValue();
+			if (ttl <= 0 || now - report.accessed > idle) {
+				delete(entry.getKey(), report);
+			} else if (now - report.built >= ttl / 2) {
+				try {
+					build(entry.getKey(), report, builder, ttl / 2);
+					refreshed++;
+				} catch (final RuntimeException e) {
+					// The next download or refresh retries this build
+					log.warn("Unable to refresh the schedules report of node {}", entry.getKey().node(), e);
+				}
+			}
+		}
+		return refreshed;
+	}
+
+	private void delete(final Key key, final Report report) {
+		reports.remove(key, report);
+		deleteFile(report.file);
+	}
+
+	private static void deleteFile(final Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (final IOException e) {
+			log.warn("Unable to delete the cached report {}", file, e);
+		}
+	}
+
+	/**
+	 * Delete all reports.
+	 */
+	public void clear() {
+		reports.forEach(this::delete);
+	}
+
+	@Override
+	public void destroy() {
+		clear();
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.execution;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * VM Service job refreshing the cached schedules reports.
+ */
+@Slf4j
+@DisallowConcurrentExecution
+public class VmReportJob extends QuartzJobBean {
+
+	@Override
+	protected void executeInternal(final JobExecutionContext arg0) {
+		final var context = ObjectUtils.getIfNull((ApplicationContext) arg0.getMergedJobDataMap().get("context"),
+				SpringUtils.getApplicationContext());
+
+		// Set the user
+		context.getBean(SecurityHelper.class).setUserName(SecurityHelper.SYSTEM_USERNAME);
+
+		// Refresh the cached reports
+		final var refreshed = context.getBean(VmExecutionResource.class).refreshReports();
+		log.debug("Succeed VM report refresh, {} refreshed reports", refreshed);
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.inventory;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * VM Service job refreshing the stale VM states of the inventory.
+ */
+@Slf4j
+@DisallowConcurrentExecution
+public class VmInventoryJob extends QuartzJobBean {
+
+	@Override
+	protected void executeInternal(final JobExecutionContext arg0) {
+		final var context = ObjectUtils.getIfNull((ApplicationContext) arg0.getMergedJobDataMap().get("context"),
+				SpringUtils.getApplicationContext());
+
+		// Set the user
+		context.getBean(SecurityHelper.class).setUserName(SecurityHelper.SYSTEM_USERNAME);
+
+		// Refresh the stale VM states
+		final var refreshed = context.getBean(VmInventoryResource.class).refreshStale();
+		log.info("Succeed VM inventory refresh, {} refreshed VM states", refreshed);
+	}
+}
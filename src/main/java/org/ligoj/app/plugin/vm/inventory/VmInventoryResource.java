@@ -0,0 +1,321 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.inventory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.PluginResolver;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.VmSubscriptionCache;
+import org.ligoj.app.plugin.vm.dao.VmInventoryRepository;
+import org.ligoj.app.plugin.vm.execution.Vm;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.model.VmInventory;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.app.resource.subscription.SubscriptionResource;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Inventory of the last known VM states. The stale states are refreshed in the background, with a bounded
+ * concurrency and a batch call when the plug-in supports it, so the reports and the fleet views do not call the
+ * providers. The live calls are kept for the explicit refreshes and the completion of the VM operations.
+ */
+@Slf4j
+@Service
+@Path(VmResource.SERVICE_URL + "/inventory")
+@Produces(MediaType.APPLICATION_JSON)
+@Transactional
+public class VmInventoryResource {
+
+	/**
+	 * Configuration key of the amount of concurrent provider calls of a refresh.
+	 */
+	public static final String CONF_CONCURRENCY = VmResource.SERVICE_KEY + ":inventory-concurrency";
+
+	private static final int DEFAULT_CONCURRENCY = 8;
+
+	/**
+	 * Configuration key of the age, in milliseconds, from which a VM state is refreshed.
+	 */
+	public static final String CONF_STALENESS = VmResource.SERVICE_KEY + ":inventory-staleness";
+
+	private static final int DEFAULT_STALENESS = 300000;
+
+	/**
+	 * Configuration key of the maximal duration, in milliseconds, to wait for the VM states of a refresh.
+	 */
+	public static final String CONF_TIMEOUT = VmResource.SERVICE_KEY + ":inventory-timeout";
+
+	private static final int DEFAULT_TIMEOUT = 60000;
+
+	@Autowired
+	protected VmInventoryResource self = this;
+
+	@Autowired
+	protected VmInventoryRepository repository;
+
+	@Autowired
+	protected SubscriptionResource subscriptionResource;
+
+	@Autowired
+	protected ServicePluginLocator locator;
+
+	@Autowired
+	protected PluginResolver resolver;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	protected VmSubscriptionCache cache;
+
+	/**
+	 * Return the last known VM state of the given subscription.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @return The last known VM state. May be <code>null</code>.
+	 */
+	@GET
+	@Path("{subscription:\\d+}")
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public VmInventory findBySubscription(@PathParam("subscription") final int subscription) {
+		cache.checkVisible(subscriptionResource, subscription);
+		return repository.findBySubscription(subscription);
+	}
+
+	/**
+	 * Refresh now the VM state of the given subscription.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @return The refreshed VM state.
+	 * @throws Exception When the VM details cannot be retrieved.
+	 */
+	@POST
+	@Path("{subscription:\\d+}")
+	public VmInventory refresh(@PathParam("subscription") final int subscription) throws Exception {
+		final var entity = subscriptionResource.checkVisible(subscription);
+		final var vm = resolver.getResourceExpected(locator, entity.getNode().getId(), VmExecutionServicePlugin.class)
+				.getVmDetails(cache.getParameters(subscriptionResource, subscription));
+		return update(entity, vm);
+	}
+
+	/**
+	 * Insert or update the given VM state of a subscription. The subscription is locked first, so a concurrent update
+	 * of the same subscription waits for this one, then updates the inserted state.
+	 *
+	 * @param subscription The related subscription.
+	 * @param vm           The VM details.
+	 * @return The saved VM state.
+	 */
+	public VmInventory update(final Subscription subscription, final Vm vm) {
+		repository.lockSubscription(subscription.getId());
+		final var inventory = Optional.ofNullable(repository.findBySubscription(subscription.getId()))
+				.orElseGet(VmInventory::new);
+		inventory.setSubscription(subscription);
+		copy(inventory, vm, Instant.now());
+		repository.saveAndFlush(inventory);
+		return inventory;
+	}
+
+	/**
+	 * Save the given VM state of a subscription only when its status or its busy flag has changed, so the polled states
+	 * are not written on each call. The refresh date of an unchanged state is left to the next refresh.
+	 *
+	 * @param subscription The related subscription.
+	 * @param vm           The VM details.
+	 * @return The current VM state.
+	 */
+	public VmInventory updateChanged(final Subscription subscription, final Vm vm) {
+		final var inventory = repository.findBySubscription(subscription.getId());
+		if (inventory != null && inventory.getStatus() == vm.getStatus() && inventory.isBusy() == vm.isBusy()) {
+			return inventory;
+		}
+		return update(subscription, vm);
+	}
+
+	private void copy(final VmInventory inventory, final Vm vm, final Instant date) {
+		inventory.setVm(vm.getId());
+		inventory.setStatus(vm.getStatus());
+		inventory.setCpu(vm.getCpu());
+		inventory.setRam(vm.getRam());
+		inventory.setBusy(vm.isBusy());
+		inventory.setRefreshed(date);
+	}
+
+	/**
+	 * Update the given VM state fetched by a background refresh. The subscription is locked first, as for
+	 * {@link #update(Subscription, Vm)}, and the state is skipped when it has changed since the fetch started: it has
+	 * been refreshed or marked busy by an operation meanwhile, so the fetched state may be older than the saved one.
+	 *
+	 * @param subscription The related subscription.
+	 * @param vm           The VM details.
+	 * @param since        The start of the fetch.
+	 * @return <code>true</code> when the VM state has been saved.
+	 */
+	public boolean updateStale(final Subscription subscription, final Vm vm, final Instant since) {
+		repository.lockSubscription(subscription.getId());
+		final var inventory = repository.findBySubscription(subscription.getId());
+		if (inventory != null && inventory.getRefreshed().isAfter(since)) {
+			log.info("VM state of subscription {} has changed during the refresh, skipped", subscription.getId());
+			return false;
+		}
+		update(subscription, vm);
+		return true;
+	}
+
+	/**
+	 * Mark as busy the VM state of the given subscription, since an operation may have changed it. The next refresh
+	 * gets the effective state. The refresh date is also updated, so a background refresh started before this mark
+	 * does not overwrite it, while a mark never completed becomes stale and is refreshed.
+	 *
+	 * @param subscription The related subscription identifier.
+	 */
+	public void markBusy(final int subscription) {
+		repository.lockSubscription(subscription);
+		Optional.ofNullable(repository.findBySubscription(subscription)).ifPresent(i -> {
+			i.setBusy(true);
+			i.setRefreshed(Instant.now());
+		});
+	}
+
+	/**
+	 * Delete the VM state of the given subscription.
+	 *
+	 * @param subscription The related subscription identifier.
+	 */
+	public void delete(final int subscription) {
+		repository.deleteAllBy("subscription.id", subscription);
+	}
+
+	/**
+	 * Refresh the VM states older than the staleness target, or never refreshed. The unavailable VM states are kept
+	 * unchanged and are retried by the next refresh. Each state is written by its own locked update, and the states
+	 * changed during the fetch are kept.
+	 *
+	 * @return The amount of refreshed VM states.
+	 */
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
+	public int refreshStale() {
+		final var now = Instant.now();
+		final var stale = repository.findAllStale(VmResource.SERVICE_KEY,
+				now.minusMillis(configuration.get(CONF_STALENESS, DEFAULT_STALENESS)));
+		log.info("VM inventory refresh of {} subscriptions", stale.size());
+		final var vms = fetch(stale);
+		return (int) stale.stream().filter(s -> vms.containsKey(s.getId()))
+				.filter(s -> self.updateStale(s, vms.get(s.getId()), now)).count();
+	}
+
+	/**
+	 * Fetch the VM details of the given subscriptions. The subscriptions are grouped by plug-in, and each group is
+	 * fetched with one batch call, or else with one call per subscription. The details not available in time are
+	 * missing.
+	 *
+	 * @param subscriptions The subscriptions to fetch, with their node.
+	 * @return The VM details. Key is the subscription identifier.
+	 */
+	protected Map<Integer, Vm> fetch(final Collection<Subscription> subscriptions) {
+		final var deadline = System.currentTimeMillis() + configuration.get(CONF_TIMEOUT, DEFAULT_TIMEOUT);
+		final var parameters = new HashMap<VmExecutionServicePlugin, Map<Integer, Map<String, String>>>();
+		subscriptions.forEach(s -> {
+			final var tool = resolver.getResource(locator, s.getNode().getId(), VmExecutionServicePlugin.class);
+			if (tool != null) {
+				parameters.computeIfAbsent(tool, t -> new HashMap<>()).put(s.getId(),
+						cache.getParameters(subscriptionResource, s.getId()));
+			}
+		});
+
+		final var vms = new ConcurrentHashMap<Integer, Vm>();
+		final var executor = Executors
+				.newFixedThreadPool(Math.max(1, configuration.get(CONF_CONCURRENCY, DEFAULT_CONCURRENCY)));
+		try {
+			// Start the batch calls of all plug-ins
+			final var batches = new HashMap<VmExecutionServicePlugin, CompletableFuture<Map<Integer, Vm>>>();
+			parameters.forEach((tool, p) -> batches.put(tool, supply(executor, () -> tool.getAllVmDetails(p))));
+
+			// Collect the batch results, and fall back to one call per subscription
+			final var singles = new ArrayList<CompletableFuture<Void>>();
+			batches.forEach((tool, batch) -> {
+				final var all = join(batch, deadline);
+				if (all != null) {
+					all.forEach((s, vm) -> {
+						if (vm != null) {
+							vms.put(s, vm);
+						}
+					});
+				} else if (batch.isDone() && !batch.isCompletedExceptionally()) {
+					// Batch is not supported by this plug-in
+					parameters.get(tool).forEach((s, p) -> singles.add(single(executor, tool, s, p, vms)));
+				}
+			});
+			join(CompletableFuture.allOf(singles.toArray(CompletableFuture[]::new)), deadline);
+		} finally {
+			executor.shutdownNow();
+		}
+		return Map.copyOf(vms);
+	}
+
+	private CompletableFuture<Void> single(final ExecutorService executor, final VmExecutionServicePlugin tool,
+			final int subscription, final Map<String, String> parameters, final Map<Integer, Vm> vms) {
+		return supply(executor, () -> tool.getVmDetails(parameters)).handle((vm, e) -> {
+			if (vm == null) {
+				log.info("VM details of subscription {} are not available", subscription);
+			} else {
+				vms.put(subscription, vm);
+			}
+			return null;
+		});
+	}
+
+	private <T> CompletableFuture<T> supply(final ExecutorService executor, final Callable<T> call) {
+		final var future = new CompletableFuture<T>();
+		executor.execute(() -> {
+			try {
+				future.complete(call.call());
+			} catch (final Exception e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	private <T> T join(final CompletableFuture<T> future, final long deadline) {
+		try {
+			return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (final TimeoutException e) {
+			log.info("VM inventory refresh is not completed in time");
+			future.cancel(true);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			log.info("VM inventory refresh failed: {}", e.getCause().getMessage());
+		}
+		return null;
+	}
+}
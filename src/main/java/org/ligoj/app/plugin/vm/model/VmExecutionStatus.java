@@ -9,6 +9,7 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 
+import org.hibernate.annotations.DynamicUpdate;
 import org.ligoj.app.model.AbstractLongTaskSubscription;
 import org.ligoj.app.plugin.vm.execution.Vm;
 
@@ -18,11 +19,13 @@ import lombok.Getter;
 import lombok.Setter;
 
 /**
- * A VM operation execution.
+ * A VM operation execution. Only the changed columns are updated, so the concurrent changes of the other columns are
+ * kept.
  */
 @Getter
 @Setter
 @Entity
+@DynamicUpdate
 @Table(name = "LIGOJ_VM_EXECUTION_STATUS")
 public class VmExecutionStatus extends AbstractLongTaskSubscription {
 
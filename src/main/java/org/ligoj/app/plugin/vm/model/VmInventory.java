@@ -0,0 +1,72 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.OneToOne;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * The last known state of the VM of a subscription.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_VM_INVENTORY")
+public class VmInventory extends AbstractPersistable<Integer> {
+
+	/**
+	 * The associated subscription. There is at most one state per subscription.
+	 */
+	@NotNull
+	@OneToOne
+	@JoinColumn(unique = true)
+	@JsonIgnore
+	private Subscription subscription;
+
+	/**
+	 * The related VM identifier.
+	 */
+	private String vm;
+
+	/**
+	 * The VM status. May be <code>null</code> when unknown.
+	 */
+	@Enumerated(EnumType.STRING)
+	private VmStatus status;
+
+	/**
+	 * Amount of CPUs.
+	 */
+	private int cpu;
+
+	/**
+	 * Memory, MB.
+	 */
+	private int ram;
+
+	/**
+	 * When <code>true</code>, the VM is busy by an operation.
+	 */
+	private boolean busy;
+
+	/**
+	 * The date of the last successful refresh.
+	 */
+	@NotNull
+	private Instant refreshed;
+
+}
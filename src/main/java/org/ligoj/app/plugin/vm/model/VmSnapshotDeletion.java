@@ -0,0 +1,69 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.model;
+
+import java.time.Instant;
+import java.util.Date;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * A snapshot deleted (succeed or failed) by the retention policy.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_VM_SNAPSHOT_DELETION")
+public class VmSnapshotDeletion extends AbstractPersistable<Integer> {
+
+	/**
+	 * Deletion date
+	 */
+	@NotNull
+	private Instant date;
+
+	/**
+	 * The associated subscription
+	 */
+	@NotNull
+	@ManyToOne
+	@JsonIgnore
+	private Subscription subscription;
+
+	/**
+	 * The provider snapshot identifier.
+	 */
+	@NotNull
+	private String snapshot;
+
+	/**
+	 * The snapshot name.
+	 */
+	private String name;
+
+	/**
+	 * The snapshot creation date.
+	 */
+	private Date snapshotDate;
+
+	/**
+	 * The deletion result
+	 */
+	private boolean succeed;
+
+	/**
+	 * The error message. <code>null</code> when succeeded.
+	 */
+	private String error;
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+/**
+ * A snapshot retention rule, attached either to a subscription, either to a node and then applied to all
+ * subscriptions of this node or sub-node without their own rule.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_VM_SNAPSHOT_RETENTION")
+public class VmSnapshotRetention extends AbstractPersistable<Integer> {
+
+	/**
+	 * The associated subscription. <code>null</code> for a node rule.
+	 */
+	@ManyToOne
+	private Subscription subscription;
+
+	/**
+	 * The associated node identifier. <code>null</code> for a subscription rule.
+	 */
+	private String node;
+
+	/**
+	 * When not <code>null</code>, the amount of most recent snapshots to keep.
+	 */
+	private Integer keepLast;
+
+	/**
+	 * When not <code>null</code>, the snapshots younger than this amount of days are kept.
+	 */
+	private Integer keepDays;
+
+	/**
+	 * When <code>true</code>, the most recent available snapshot is always kept.
+	 */
+	private boolean keepAvailable = true;
+
+}
@@ -3,21 +3,28 @@
  */
 package org.ligoj.app.plugin.vm.model;
 
+import java.util.Date;
 
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
 import org.ligoj.app.model.AbstractLongTaskSubscription;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
- * A snapshot VM operation.
+ * A snapshot VM operation. Only the changed columns are updated, so the concurrent changes of the other columns are
+ * kept.
  */
 @Getter
 @Setter
 @Entity
+@DynamicUpdate
 @Table(name = "LIGOJ_VM_SNAPSHOT_STATUS")
 public class VmSnapshotStatus extends AbstractLongTaskSubscription {
 
@@ -54,4 +61,34 @@ public class VmSnapshotStatus extends AbstractLongTaskSubscription {
 	@Enumerated(EnumType.STRING)
 	private SnapshotOperation operation = SnapshotOperation.CREATE;
 
+	/**
+	 * Date of the last remote status check. <code>null</code> when not yet checked.
+	 */
+	private Date lastCheck;
+
+	/**
+	 * Date before which the remote status is not checked again. <code>null</code> when not yet checked.
+	 */
+	private Date nextCheck;
+
+	/**
+	 * The phase at the last remote status check. Used to reset the check interval on phase change.
+	 */
+	@JsonIgnore
+	private String checkedPhase;
+
+	/**
+	 * Position of this operation in the snapshot queue of the node: <code>0</code> when running, <code>null</code> when
+	 * not tracked by this server.
+	 */
+	@Transient
+	private Integer queuePosition;
+
+	/**
+	 * Estimated end date of this operation, based on the recent snapshot durations of the node. May be
+	 * <code>null</code> when unknown.
+	 */
+	@Transient
+	private Date eta;
+
 }
@@ -19,8 +19,10 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 
 import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.VmSubscriptionCache;
 import org.ligoj.app.plugin.vm.dao.VmExecutionRepository;
 import org.ligoj.app.plugin.vm.dao.VmScheduleRepository;
+import org.ligoj.app.plugin.vm.execution.VmExecutionWriter;
 import org.ligoj.app.plugin.vm.model.VmSchedule;
 import org.ligoj.app.resource.ServicePluginLocator;
 import org.ligoj.app.resource.node.NodeResource;
@@ -82,6 +84,12 @@ public class VmScheduleResource implements InitializingBean {
 	@Autowired
 	private VmExecutionRepository vmExecutionRepository;
 
+	@Autowired
+	private VmExecutionWriter writer;
+
+	@Autowired
+	protected VmSubscriptionCache cache;
+
 	/**
 	 * Remove all schedules from memory, Quartz and database.
 	 *
@@ -92,7 +100,8 @@ public class VmScheduleResource implements InitializingBean {
 	public void delete(final int subscription) throws SchedulerException {
 		unscheduleAll(subscription);
 
-		// Also remove execution history
+		// Also remove execution history, including the queued one
+		writer.flush();
 		vmExecutionRepository.deleteAllBy("subscription.id", subscription);
 	}
 
@@ -116,6 +125,7 @@ public class VmScheduleResource implements InitializingBean {
 
 		// Clear the specific schedule
 		unschedule(schedule);
+		cache.invalidateSchedules(subscription);
 	}
 
 	/**
@@ -148,6 +158,7 @@ public class VmScheduleResource implements InitializingBean {
 
 		// Remove all schedules associated to this subscription
 		repository.deleteAllBy("subscription.id", subscription);
+		cache.invalidateSchedules(subscription);
 	}
 
 	/**
@@ -197,7 +208,8 @@ public class VmScheduleResource implements InitializingBean {
 	}
 
 	/**
-	 * Return all schedules related to given subscription.
+	 * Return all schedules related to given subscription. The schedules are cached until they change. They are read
+	 * from the primary database, since a late replica would cache the schedules preceding a change.
 	 *
 	 * @param subscription The subscription identifier.
 	 * @return All schedules related to given subscription.
@@ -207,7 +219,7 @@ public class VmScheduleResource implements InitializingBean {
 	public List<VmScheduleVo> findAll(final int subscription) throws ParseException {
 		final List<VmScheduleVo> schedules = new ArrayList<>();
 		final var now = DateUtils.newCalendar().getTime();
-		for (final VmSchedule schedule : repository.findBySubscription(subscription)) {
+		for (final var schedule : cache.getSchedules(subscription, () -> findAllNoCache(subscription))) {
 			// Copy basic attributes
 			final var vo = new VmScheduleVo();
 			vo.setCron(schedule.getCron());
@@ -219,6 +231,19 @@ public class VmScheduleResource implements InitializingBean {
 		return schedules;
 	}
 
+	/**
+	 * Return all schedules related to given subscription, without the next execution date.
+	 */
+	private List<VmScheduleVo> findAllNoCache(final int subscription) {
+		return repository.findBySubscription(subscription).stream().map(s -> {
+			final var vo = new VmScheduleVo();
+			vo.setCron(s.getCron());
+			vo.setOperation(s.getOperation());
+			vo.setId(s.getId());
+			return vo;
+		}).toList();
+	}
+
 	/**
 	 * Create a new schedule.
 	 *
@@ -285,6 +310,7 @@ public class VmScheduleResource implements InitializingBean {
 
 		// Persist the new schedules for each provided CRON
 		repository.saveAndFlush(entity);
+		cache.invalidateSchedules(subscription);
 		return entity;
 	}
 
@@ -0,0 +1,371 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshot admission control. The amount of concurrent snapshot operations sent to the provider is bounded per node,
+ * the exceeding requests are queued in a FIFO, and are rejected only when this queue is full. On shutdown, the waiting
+ * operations are aborted.
+ */
+@Slf4j
+@Component
+public class SnapshotAdmission implements DisposableBean, ApplicationListener<ContextClosedEvent> {
+
+	/**
+	 * Configuration key of the maximal amount of concurrent snapshot operations per node.
+	 */
+	public static final String CONF_CONCURRENCY = VmResource.SERVICE_KEY + ":snapshot-concurrency";
+
+	/**
+	 * Configuration key of the maximal amount of queued snapshot operations per node.
+	 */
+	public static final String CONF_QUEUE = VmResource.SERVICE_KEY + ":snapshot-queue";
+
+	/**
+	 * Default maximal amount of concurrent snapshot operations per node.
+	 */
+	private static final int DEFAULT_CONCURRENCY = 5;
+
+	/**
+	 * Default maximal amount of queued snapshot operations per node.
+	 */
+	private static final int DEFAULT_QUEUE = 500;
+
+	/**
+	 * Amount of recent durations kept to estimate the next ones.
+	 */
+	private static final int HISTORY = 20;
+
+	/**
+	 * Retry delay, in seconds, sent to the rejected clients when there is no known duration for the node.
+	 */
+	private static final int DEFAULT_RETRY_AFTER = 60;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	private final Map<String, NodeQueue> nodes = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Admission state of a node.
+	 */
+	private static class NodeQueue {
+
+		/**
+		 * Start timestamp of running operations. Key is the subscription identifier.
+		 */
+		private final Map<Integer, Long> running = new HashMap<>();
+
+		/**
+		 * Waiting operations, in the submission order.
+		 */
+		private final Deque<Pending> queue = new ArrayDeque<>();
+
+		/**
+		 * Most recent durations, in milliseconds.
+		 */
+		private final Deque<Long> durations = new ArrayDeque<>();
+
+		private Long getAverage() {
+			return durations.isEmpty() ? null
+					: (long) durations.stream().mapToLong(Long::longValue).average().orElse(0);
+		}
+	}
+
+	/**
+	 * A waiting operation.
+	 *
+	 * @param subscription The related subscription.
+	 * @param job          The operation to execute.
+	 * @param abort        The action ending this operation when it is never started.
+	 */
+	private record Pending(int subscription, Callable<?> job, Runnable abort) {
+	}
+
+	/**
+	 * Return the maximal amount of concurrent snapshot operations per node.
+	 *
+	 * @return The maximal amount of concurrent snapshot operations per node.
+	 */
+	protected int getConcurrency() {
+		return Math.max(1, configuration.get(CONF_CONCURRENCY, DEFAULT_CONCURRENCY));
+	}
+
+	/**
+	 * Return the maximal amount of queued snapshot operations per node.
+	 *
+	 * @return The maximal amount of queued snapshot operations per node.
+	 */
+	protected int getQueueSize() {
+		return Math.max(0, configuration.get(CONF_QUEUE, DEFAULT_QUEUE));
+	}
+
+	private NodeQueue getNode(final String node) {
+		return nodes.computeIfAbsent(node, n -> new NodeQueue());
+	}
+
+	/**
+	 * Check a new operation can be either started, either queued for the given node. When the queue is full, a
+	 * <code>429</code> response is sent with a <code>Retry-After</code> header based on the recent durations. This
+	 * early check avoids starting a task that would be rejected, the slot is only reserved by
+	 * {@link #submit(String, int, Callable, Runnable)}.
+	 *
+	 * @param node The node identifier the operation will be sent to.
+	 */
+	public void checkCapacity(final String node) {
+		final var queue = getNode(node);
+		synchronized (queue) {
+			checkCapacity(node, queue);
+		}
+	}
+
+	/**
+	 * Check the capacity of the given node. The caller holds the lock of the node.
+	 */
+	private void checkCapacity(final String node, final NodeQueue queue) {
+		if (queue.running.size() >= getConcurrency() && queue.queue.size() >= getQueueSize()) {
+			log.info("Snapshot queue of node {} is full ({} running, {} waiting)", node, queue.running.size(),
+					queue.queue.size());
+			throw new WebApplicationException(Response.status(Response.Status.TOO_MANY_REQUESTS)
+					.header(HttpHeaders.RETRY_AFTER, getRetryAfter(queue)).build());
+		}
+	}
+
+	/**
+	 * Return the retry delay, in seconds, sent to the rejected clients. The caller holds the lock of the node.
+	 */
+	private long getRetryAfter(final NodeQueue queue) {
+		final var average = queue.getAverage();
+		return average == null ? DEFAULT_RETRY_AFTER : Math.max(1, average / 1000);
+	}
+
+	/**
+	 * Submit an operation without abort action.
+	 *
+	 * @param node         The node identifier the operation will be sent to.
+	 * @param subscription The related subscription.
+	 * @param job          The operation to execute.
+	 * @return <code>true</code> when the operation has been queued.
+	 * @see #submit(String, int, Callable, Runnable)
+	 */
+	public boolean submit(final String node, final int subscription, final Callable<?> job) {
+		return submit(node, subscription, job, () -> {
+			// Nothing to end
+		});
+	}
+
+	/**
+	 * Submit an operation. It is started immediately when the concurrency of the node allows it, otherwise it is
+	 * queued and started as soon as a running operation of this node ends. The capacity is checked and the slot is
+	 * reserved atomically: when the queue is full, a <code>429</code> response is sent and nothing is submitted.
+	 *
+	 * @param node         The node identifier the operation will be sent to.
+	 * @param subscription The related subscription.
+	 * @param job          The operation to execute.
+	 * @param abort        The action ending this operation when it is dropped from the queue on shutdown.
+	 * @return <code>true</code> when the operation has been queued.
+	 */
+	public boolean submit(final String node, final int subscription, final Callable<?> job, final Runnable abort) {
+		final var queue = getNode(node);
+		synchronized (queue) {
+			checkCapacity(node, queue);
+			if (queue.running.size() < getConcurrency()) {
+				start(node, queue, new Pending(subscription, job, abort));
+				return false;
+			}
+			log.info("Snapshot operation of subscription {} is queued at position {} for node {}", subscription,
+					queue.queue.size() + 1, node);
+			queue.queue.add(new Pending(subscription, job, abort));
+			return true;
+		}
+	}
+
+	/**
+	 * Reserve a running slot for each of the given subscriptions, all or none. The operations are then executed by the
+	 * caller without queue, and each slot is released with {@link #release(String, int, boolean)}. When a node has not
+	 * enough free slots, a <code>429</code> response is sent and nothing is reserved.
+	 *
+	 * @param subscriptions The subscriptions to reserve. Key is the node identifier.
+	 */
+	public void reserve(final Map<String, List<Integer>> subscriptions) {
+		final var reserved = new HashMap<String, List<Integer>>();
+		try {
+			// One node at a time, the reserved slots of the previous nodes are released on failure
+			new TreeMap<>(subscriptions).forEach((node, nodeSubscriptions) -> {
+				final var queue = getNode(node);
+				synchronized (queue) {
+					if (getConcurrency() - queue.running.size() < nodeSubscriptions.size()
+							|| nodeSubscriptions.stream().anyMatch(queue.running::containsKey)) {
+						log.info("Not enough snapshot slots on node {} for {} operations ({} running)", node,
+								nodeSubscriptions.size(), queue.running.size());
+						throw new WebApplicationException(Response.status(Response.Status.TOO_MANY_REQUESTS)
+								.header(HttpHeaders.RETRY_AFTER, getRetryAfter(queue)).build());
+					}
+					final var start = System.currentTimeMillis();
+					nodeSubscriptions.forEach(s -> queue.running.put(s, start));
+					reserved.put(node, nodeSubscriptions);
+				}
+			});
+		} catch (final WebApplicationException e) {
+			reserved.forEach((node, nodeSubscriptions) -> nodeSubscriptions.forEach(s -> release(node, s, false)));
+			throw e;
+		}
+	}
+
+	/**
+	 * Release a slot reserved by {@link #reserve(Map)} and start the next waiting operation of this node.
+	 *
+	 * @param node         The node identifier.
+	 * @param subscription The related subscription.
+	 * @param executed     When <code>true</code>, the duration of this operation is used to estimate the next ones.
+	 */
+	public void release(final String node, final int subscription, final boolean executed) {
+		final var queue = getNode(node);
+		synchronized (queue) {
+			final var start = queue.running.get(subscription);
+			if (start != null) {
+				release(node, queue, subscription, executed ? start : null);
+			}
+		}
+	}
+
+	/**
+	 * Start the given operation. The caller holds the lock of the node.
+	 */
+	private void start(final String node, final NodeQueue queue, final Pending pending) {
+		final var start = System.currentTimeMillis();
+		queue.running.put(pending.subscription(), start);
+		executor.submit(() -> {
+			try {
+				pending.job().call();
+			} catch (final Exception e) {
+				log.error("Snapshot operation of subscription {} failed", pending.subscription(), e);
+			} finally {
+				release(node, queue, pending.subscription(), start);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Release the slot of an ended operation and start the next waiting one. The duration is not recorded when the
+	 * start is <code>null</code>.
+	 */
+	private void release(final String node, final NodeQueue queue, final int subscription, final Long start) {
+		synchronized (queue) {
+			queue.running.remove(subscription);
+			if (start != null) {
+				queue.durations.addLast(System.currentTimeMillis() - start);
+				if (queue.durations.size() > HISTORY) {
+					queue.durations.removeFirst();
+				}
+			}
+			final var next = queue.queue.pollFirst();
+			if (next != null) {
+				start(node, queue, next);
+			}
+		}
+	}
+
+	/**
+	 * Complete the queue position and the estimated end date of the given task.
+	 *
+	 * @param task The task to complete. Its subscription is used to find the operation.
+	 */
+	public void completeQueue(final VmSnapshotStatus task) {
+		final var subscription = task.getLocked().getId();
+		final var queue = nodes.get(task.getLocked().getNode().getId());
+		task.setQueuePosition(null);
+		task.setEta(null);
+		if (queue == null) {
+			// No operation for this node since the last start
+			return;
+		}
+		synchronized (queue) {
+			final var average = queue.getAverage();
+			final var start = queue.running.get(subscription);
+			if (start != null) {
+				// Running operation
+				task.setQueuePosition(0);
+				task.setEta(average == null ? null : new Date(start + average));
+				return;
+			}
+			var position = 0;
+			for (final var pending : queue.queue) {
+				position++;
+				if (pending.subscription() == subscription) {
+					// Waiting operation: one duration per full round of running operations before this one
+					task.setQueuePosition(position);
+					final var rounds = (position - 1) / getConcurrency() + 1L;
+					task.setEta(average == null ? null : new Date(System.currentTimeMillis() + rounds * average));
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Abort the waiting operations, so their tasks do not stay unfinished. The running operations still run to
+	 * completion.
+	 */
+	private void abortQueued() {
+		final var dropped = new ArrayList<Pending>();
+		nodes.values().forEach(queue -> {
+			synchronized (queue) {
+				dropped.addAll(queue.queue);
+				queue.queue.clear();
+			}
+		});
+		dropped.forEach(pending -> {
+			log.info("Snapshot operation of subscription {} is aborted by the shutdown", pending.subscription());
+			try {
+				pending.abort().run();
+			} catch (final RuntimeException e) {
+				log.warn("Unable to abort the snapshot operation of subscription {}", pending.subscription(), e);
+			}
+		});
+	}
+
+	@Override
+	public void onApplicationEvent(final ContextClosedEvent event) {
+		// Before the destruction of the beans, while the tasks can still be ended
+		abortQueued();
+	}
+
+	@Override
+	public void destroy() {
+		abortQueued();
+		executor.shutdown();
+	}
+}
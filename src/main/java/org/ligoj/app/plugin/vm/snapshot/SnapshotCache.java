@@ -0,0 +1,342 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.model.SnapshotOperation;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Per subscription cache of the snapshots returned by {@link Snapshotting#findAllSnapshots(int, String)}. A fresh
+ * entry is served as is, a stale one is served while it is reloaded in the background, and an expired one is reloaded
+ * synchronously. Concurrent loads of the same subscription share the same provider call. The expired entries are
+ * periodically evicted, so the subscriptions no more listed do not stay in memory.
+ */
+@Slf4j
+@Component
+public class SnapshotCache implements DisposableBean {
+
+	/**
+	 * Configuration key of the duration, in seconds, a listing is considered as fresh.
+	 */
+	public static final String CONF_TTL = VmResource.SERVICE_KEY + ":snapshot-cache-ttl";
+
+	/**
+	 * Configuration key of the duration, in seconds, a stale listing can still be served while it is reloaded.
+	 */
+	public static final String CONF_MAX_STALE = VmResource.SERVICE_KEY + ":snapshot-cache-max-stale";
+
+	private static final int DEFAULT_TTL = 60;
+
+	private static final int DEFAULT_MAX_STALE = 3600;
+
+	/**
+	 * Amount of threads reloading the stale listings.
+	 */
+	private static final int REFRESH_THREADS = 4;
+
+	/**
+	 * Amount of recent listings per subscription kept to compute the changes.
+	 */
+	private static final int HISTORY = 10;
+
+	/**
+	 * Prefix of the change tokens, distinguishing them from the timestamps.
+	 */
+	private static final String TOKEN_PREFIX = "v";
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	/**
+	 * A cached listing.
+	 *
+	 * @param snapshots The immutable listing.
+	 * @param loaded    The load timestamp.
+	 * @param stale     When <code>true</code>, this listing is known as outdated.
+	 * @param version   The unique version of this listing content.
+	 */
+	private record Entry(List<Snapshot> snapshots, long loaded, boolean stale, long version) {
+	}
+
+	private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Loads in progress. Key is the subscription identifier.
+	 */
+	private final Map<Integer, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+	/**
+	 * Invalidation counters, so a load started before an invalidation does not overwrite the newer state.
+	 */
+	private final Map<Integer, Long> generations = new ConcurrentHashMap<>();
+
+	/**
+	 * Fingerprints of the recent listings. Key is the subscription identifier, then the listing version.
+	 */
+	private final Map<Integer, Map<Long, Map<String, Integer>>> fingerprints = new ConcurrentHashMap<>();
+
+	/**
+	 * Listing versions. Starting from the current time keeps the tokens unique across restarts.
+	 */
+	private final AtomicLong versions = new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * Timestamp of the last eviction of the expired entries.
+	 */
+	private final AtomicLong evicted = new AtomicLong(System.currentTimeMillis());
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(REFRESH_THREADS);
+
+	/**
+	 * Return the snapshots of the given subscription, from the cache when available.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param loader       The provider listing of all snapshots of this subscription, used on cache miss.
+	 * @return All snapshots ordered by descending creation date. This list is immutable.
+	 * @throws Exception Any error while finding the snapshots.
+	 */
+	public List<Snapshot> get(final int subscription, final Callable<List<Snapshot>> loader) throws Exception {
+		return getEntry(subscription, loader).snapshots();
+	}
+
+	private Entry getEntry(final int subscription, final Callable<List<Snapshot>> loader) throws Exception {
+		final var maxStale = configuration.get(CONF_MAX_STALE, DEFAULT_MAX_STALE) * 1000L;
+		final var now = System.currentTimeMillis();
+		final var last = evicted.get();
+		if (now - last > maxStale && evicted.compareAndSet(last, now)) {
+			// At most one eviction per staleness period
+			evict();
+		}
+		final var entry = entries.get(subscription);
+		final var age = entry == null ? Long.MAX_VALUE : now - entry.loaded();
+		if (age > maxStale) {
+			// Missing or too old listing
+			return load(subscription, loader);
+		}
+		if (entry.stale() || age > configuration.get(CONF_TTL, DEFAULT_TTL) * 1000L) {
+			// Serve the stale listing while it is reloaded
+			refresh(subscription, loader);
+		}
+		return entry;
+	}
+
+	/**
+	 * Return the snapshots of the given subscription matching to the given criteria. The filter is applied in memory
+	 * on the cached listing.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param criteria     The optional search criteria. Case is insensitive. Might be the name or the identifier for
+	 *                     this snapshot.
+	 * @param loader       The provider listing of all snapshots of this subscription, used on cache miss.
+	 * @return Matching snapshots ordered by descending creation date.
+	 * @throws Exception Any error while finding the snapshots.
+	 */
+	public List<Snapshot> find(final int subscription, final String criteria, final Callable<List<Snapshot>> loader)
+			throws Exception {
+		final var snapshots = get(subscription, loader);
+		if (StringUtils.isBlank(criteria)) {
+			return snapshots;
+		}
+		return snapshots.stream().filter(new SnapshotQuery(criteria)).toList();
+	}
+
+	/**
+	 * Return the snapshots created, changed or deleted since the given token. The token identifies a recent listing
+	 * of this subscription. A timestamp is also accepted: the snapshots created since this date are returned, but the
+	 * deletions are unknown. Otherwise, all snapshots are returned.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param since        The token of a previous delta, or a timestamp. May be <code>null</code>.
+	 * @param loader       The provider listing of all snapshots of this subscription, used on cache miss.
+	 * @return The changes since the given token.
+	 * @throws Exception Any error while finding the snapshots.
+	 */
+	public SnapshotDelta changes(final int subscription, final String since, final Callable<List<Snapshot>> loader)
+			throws Exception {
+		final var entry = getEntry(subscription, loader);
+		final var current = new HashMap<String, Integer>();
+		entry.snapshots().forEach(s -> current.put(s.getId(), fingerprint(s)));
+		final var history = fingerprints.computeIfAbsent(subscription,
+				k -> Collections.synchronizedMap(new LinkedHashMap<Long, Map<String, Integer>>(HISTORY, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(final Map.Entry<Long, Map<String, Integer>> eldest) {
+						return size() > HISTORY;
+					}
+				}));
+		history.put(entry.version(), current);
+
+		final var delta = new SnapshotDelta();
+		delta.setToken(TOKEN_PREFIX + Long.toString(entry.version(), Character.MAX_RADIX));
+		delta.setDeleted(List.of());
+		final var previous = history.get(toVersion(since));
+		if (previous != null) {
+			// Diff against the previous listing
+			delta.setChanged(entry.snapshots().stream()
+					.filter(s -> !Objects.equals(previous.get(s.getId()), current.get(s.getId()))).toList());
+			delta.setDeleted(previous.keySet().stream().filter(id -> !current.containsKey(id)).sorted().toList());
+		} else if (NumberUtils.isDigits(since)) {
+			// Only the creations are known from a timestamp
+			final var date = NumberUtils.toLong(since);
+			delta.setChanged(entry.snapshots().stream()
+					.filter(s -> s.getDate() != null && s.getDate().getTime() >= date).toList());
+		} else {
+			delta.setFull(true);
+			delta.setChanged(entry.snapshots());
+		}
+		return delta;
+	}
+
+	/**
+	 * Return the listing version of a token. <code>null</code> when the given value is not a token.
+	 */
+	private Long toVersion(final String token) {
+		if (StringUtils.startsWith(token, TOKEN_PREFIX)) {
+			try {
+				return Long.parseLong(token.substring(TOKEN_PREFIX.length()), Character.MAX_RADIX);
+			} catch (final NumberFormatException e) {
+				// Not a valid token
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the fingerprint of the mutable state of a snapshot.
+	 */
+	private int fingerprint(final Snapshot snapshot) {
+		return Objects.hash(snapshot.getName(), snapshot.getDescription(), snapshot.getDate(), snapshot.isAvailable(),
+				snapshot.isPending(), snapshot.getOperation(), snapshot.getStatusText(), snapshot.getStopRequested(),
+				Optional.ofNullable(snapshot.getVolumes()).orElse(List.of()).stream().map(VolumeSnapshot::getId)
+						.toList());
+	}
+
+	/**
+	 * Load the listing from the provider, sharing the call already in progress for this subscription.
+	 */
+	private Entry load(final int subscription, final Callable<List<Snapshot>> loader) throws Exception {
+		final var future = new CompletableFuture<Entry>();
+		final var current = loading.putIfAbsent(subscription, future);
+		if (current != null) {
+			// Share the load in progress
+			return join(current);
+		}
+		final var generation = generations.getOrDefault(subscription, 0L);
+		try {
+			final var snapshots = List.copyOf(Optional.ofNullable(loader.call()).orElse(List.of()));
+			final var entry = new Entry(snapshots, System.currentTimeMillis(), false, versions.incrementAndGet());
+			if (generation == generations.getOrDefault(subscription, 0L)) {
+				entries.put(subscription, entry);
+			}
+			future.complete(entry);
+			return entry;
+		} catch (final Exception e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(subscription, future);
+		}
+	}
+
+	private Entry join(final CompletableFuture<Entry> future) throws Exception {
+		try {
+			return future.get();
+		} catch (final ExecutionException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+
+	/**
+	 * Reload in the background the listing of the given subscription, unless a load is already in progress.
+	 */
+	private void refresh(final int subscription, final Callable<List<Snapshot>> loader) {
+		if (!loading.containsKey(subscription)) {
+			executor.execute(() -> {
+				try {
+					load(subscription, loader);
+				} catch (final Exception e) {
+					// The stale listing is kept
+					log.info("Unable to refresh the snapshots of subscription {}: {}", subscription, e.getMessage());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Invalidate the listing of the given subscription. The next access will reload it synchronously.
+	 *
+	 * @param subscription The related subscription identifier.
+	 */
+	public void invalidate(final int subscription) {
+		generations.merge(subscription, 1L, Long::sum);
+		entries.remove(subscription);
+	}
+
+	/**
+	 * Update the cache on a finished snapshot task. A deleted snapshot is removed from the cached listing, which is
+	 * then reloaded in the background on next access. Any other operation invalidates the listing.
+	 *
+	 * @param task The finished task.
+	 */
+	public void finished(final VmSnapshotStatus task) {
+		final int subscription = task.getLocked().getId();
+		if (task.getOperation() == SnapshotOperation.DELETE && task.getSnapshotInternalId() != null) {
+			generations.merge(subscription, 1L, Long::sum);
+			entries.computeIfPresent(subscription, (k, e) -> new Entry(e.snapshots().stream()
+					.filter(s -> !Objects.equals(s.getId(), task.getSnapshotInternalId())).toList(), e.loaded(), true,
+					versions.incrementAndGet()));
+		} else {
+			invalidate(subscription);
+		}
+	}
+
+	/**
+	 * Evict the listings too old to be served, and the state of the subscriptions without listing nor load in
+	 * progress. An evicted listing is reloaded synchronously on next access, and its next changes are complete.
+	 *
+	 * @return The amount of evicted listings.
+	 */
+	public int evict() {
+		final var maxStale = configuration.get(CONF_MAX_STALE, DEFAULT_MAX_STALE) * 1000L;
+		final var now = System.currentTimeMillis();
+		var count = 0;
+		for (final var entry : entries.entrySet()) {
+			if (now - entry.getValue().loaded() > maxStale && entries.remove(entry.getKey(), entry.getValue())) {
+				count++;
+			}
+		}
+		fingerprints.keySet().removeIf(s -> !entries.containsKey(s) && !loading.containsKey(s));
+		generations.keySet().removeIf(s -> !entries.containsKey(s) && !loading.containsKey(s));
+		log.info("{} expired snapshot listings are evicted, {} are kept", count, entries.size());
+		return count;
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
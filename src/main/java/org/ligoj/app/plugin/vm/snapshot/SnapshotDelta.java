@@ -0,0 +1,38 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The snapshots changed since a previous listing.
+ */
+@Getter
+@Setter
+public class SnapshotDelta {
+
+	/**
+	 * The opaque token of this listing, to send as the <code>since</code> parameter of the next request.
+	 */
+	private String token;
+
+	/**
+	 * When <code>true</code>, the given token was unknown and {@link #changed} contains all snapshots.
+	 */
+	private boolean full;
+
+	/**
+	 * The snapshots created or changed since the given token, ordered by descending creation date.
+	 */
+	private List<Snapshot> changed;
+
+	/**
+	 * The identifiers of the snapshots deleted since the given token.
+	 */
+	private List<String> deleted;
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.Date;
+import java.util.List;
+
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A group of snapshots started together. The progress is aggregated from the task of each subscription: each task
+ * counts for <code>100</code> in the workload.
+ */
+@Getter
+@Setter
+public class SnapshotGroup {
+
+	/**
+	 * The group identifier.
+	 */
+	private String id;
+
+	/**
+	 * The user who has started this group.
+	 */
+	private String author;
+
+	/**
+	 * The start date.
+	 */
+	private Date start;
+
+	/**
+	 * The grouped subscriptions.
+	 */
+	private List<Integer> subscriptions;
+
+	/**
+	 * The current task of each subscription, in the same order.
+	 */
+	private List<VmSnapshotStatus> tasks;
+
+	/**
+	 * The total workload: <code>100</code> per subscription.
+	 */
+	private int workload;
+
+	/**
+	 * The done workload: the sum of the task percentages.
+	 */
+	private int done;
+
+	/**
+	 * When <code>true</code>, all snapshots are finished, including their remote operation.
+	 */
+	private boolean finished;
+
+	/**
+	 * When <code>true</code>, at least one snapshot has failed.
+	 */
+	private boolean failed;
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.List;
+
+import jakarta.validation.constraints.NotEmpty;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A snapshot group request.
+ */
+@Getter
+@Setter
+public class SnapshotGroupVo {
+
+	/**
+	 * The subscriptions to snapshot together.
+	 */
+	@NotEmpty
+	private List<Integer> subscriptions;
+
+	/**
+	 * When <code>true</code>, the VMs are stopped before the snapshot.
+	 */
+	private boolean stop;
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.List;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A page of snapshots.
+ */
+@Getter
+@Setter
+public class SnapshotPage {
+
+	/**
+	 * The snapshots of this page, ordered by descending creation date.
+	 */
+	private List<Snapshot> data;
+
+	/**
+	 * The opaque cursor of the next page. <code>null</code> for the last page.
+	 */
+	private String next;
+
+	/**
+	 * The total amount of snapshots matching to the query. May be <code>null</code> when unknown.
+	 */
+	private Integer total;
+
+	/**
+	 * Build a page from the full listing. The cursor is the offset of the page inside the filtered listing.
+	 *
+	 * @param snapshots All snapshots ordered by descending creation date.
+	 * @param query     The filters and the page window.
+	 * @return The requested page.
+	 */
+	public static SnapshotPage of(final List<Snapshot> snapshots, final SnapshotQuery query) {
+		final var matching = snapshots.stream().filter(query).toList();
+		final var offset = Math.min(matching.size(), Math.max(0, NumberUtils.toInt(query.getCursor(), 0)));
+		final var end = Math.min(matching.size(), offset + Math.max(1, query.getLimit()));
+		final var page = new SnapshotPage();
+		page.setData(matching.subList(offset, end).stream().map(s -> query.isVolumes() ? s : withoutVolumes(s))
+				.toList());
+		page.setNext(end < matching.size() ? String.valueOf(end) : null);
+		page.setTotal(matching.size());
+		return page;
+	}
+
+	/**
+	 * Return a copy of the given snapshot without its volumes.
+	 *
+	 * @param snapshot The snapshot to copy. Not modified.
+	 * @return A new snapshot instance without volumes.
+	 */
+	public static Snapshot withoutVolumes(final Snapshot snapshot) {
+		final var copy = new Snapshot();
+		copy.setId(snapshot.getId());
+		copy.setName(snapshot.getName());
+		copy.setDescription(snapshot.getDescription());
+		copy.setAuthor(snapshot.getAuthor());
+		copy.setDate(snapshot.getDate());
+		copy.setAvailable(snapshot.isAvailable());
+		copy.setPending(snapshot.isPending());
+		copy.setOperation(snapshot.getOperation());
+		copy.setStopRequested(snapshot.getStopRequested());
+		copy.setStatusText(snapshot.getStatusText());
+		return copy;
+	}
+}
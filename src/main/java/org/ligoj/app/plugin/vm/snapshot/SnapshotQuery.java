@@ -0,0 +1,91 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Snapshot listing query: filters and page window.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class SnapshotQuery implements Predicate<Snapshot> {
+
+	/**
+	 * Default page size.
+	 */
+	public static final int DEFAULT_LIMIT = 50;
+
+	/**
+	 * The optional search criteria. Case is insensitive. Might be the name or the identifier for the snapshot.
+	 */
+	private String criteria;
+
+	/**
+	 * Maximal amount of returned snapshots.
+	 */
+	private int limit = DEFAULT_LIMIT;
+
+	/**
+	 * Optional opaque cursor returned by the previous page. When <code>null</code>, the first page is returned.
+	 */
+	private String cursor;
+
+	/**
+	 * Optional inclusive lower bound of the creation date.
+	 */
+	private Date from;
+
+	/**
+	 * Optional exclusive upper bound of the creation date.
+	 */
+	private Date to;
+
+	/**
+	 * When not <code>null</code>, only the snapshots having this availability are returned.
+	 */
+	private Boolean available;
+
+	/**
+	 * When <code>false</code>, the volumes are not returned.
+	 */
+	private boolean volumes = true;
+
+	/**
+	 * Query with a criteria only.
+	 *
+	 * @param criteria The optional search criteria.
+	 */
+	public SnapshotQuery(final String criteria) {
+		this.criteria = criteria;
+	}
+
+	@Override
+	public boolean test(final Snapshot snapshot) {
+		return matchesCriteria(snapshot) && (available == null || available == snapshot.isAvailable())
+				&& (from == null || snapshot.getDate() != null && !snapshot.getDate().before(from))
+				&& (to == null || snapshot.getDate() != null && snapshot.getDate().before(to));
+	}
+
+	private boolean matchesCriteria(final Snapshot snapshot) {
+		if (StringUtils.isBlank(criteria)) {
+			return true;
+		}
+		final var lower = criteria.trim().toLowerCase(Locale.ENGLISH);
+		return contains(snapshot.getId(), lower) || contains(snapshot.getName(), lower);
+	}
+
+	private boolean contains(final String value, final String lower) {
+		return value != null && value.toLowerCase(Locale.ENGLISH).contains(lower);
+	}
+}
@@ -41,6 +41,37 @@ public interface Snapshotting {
 	 */
 	List<Snapshot> findAllSnapshots(int subscription, String criteria) throws Exception; // NOSONAR
 
+	/**
+	 * Return a page of the snapshots matching to the given query and also associated to the given subscription.
+	 * Providers able to filter and page natively should override this method. The default implementation pages over
+	 * {@link #findAllSnapshots(int, String)}, and the cursor is the offset inside the filtered listing.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param query        The filters and the page window.
+	 * @return The requested page of snapshots ordered by descending creation date.
+	 * @throws Exception Any error while finding the snapshots.
+	 * @since 3.0.0
+	 */
+	default SnapshotPage findSnapshots(final int subscription, final SnapshotQuery query) throws Exception { // NOSONAR
+		return SnapshotPage.of(findAllSnapshots(subscription, ""), query);
+	}
+
+	/**
+	 * Return the snapshots created, changed or deleted since the given token and also associated to the given
+	 * subscription. Providers able to track the changes natively should override this method. The default
+	 * implementation returns <code>null</code>, and the changes are then computed against the previous listing.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param since        The token of a previous delta returned by this provider. May be <code>null</code> for a full
+	 *                     listing.
+	 * @return The changes since the given token. <code>null</code> when not supported or when the token is unknown.
+	 * @throws Exception Any error while finding the snapshots.
+	 * @since 3.0.0
+	 */
+	default SnapshotDelta findChangedSnapshots(final int subscription, final String since) throws Exception { // NOSONAR
+		return null;
+	}
+
 	/**
 	 * Complete the task details from the remote state of this task.
 	 *
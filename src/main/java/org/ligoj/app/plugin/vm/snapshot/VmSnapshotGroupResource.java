@@ -0,0 +1,228 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.resource.subscription.SubscriptionResource;
+import org.ligoj.bootstrap.core.resource.BusinessException;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshot groups: the VMs of several subscriptions are snapshot together. All tasks are started, or none, then the
+ * provider calls are released at the same time by a shared barrier. The group snapshots are not queued by the node
+ * admission, otherwise they would not start together: the admission slots of all subscriptions are reserved at once,
+ * or the group is rejected.
+ */
+@Slf4j
+@Service
+@Path(VmResource.SERVICE_URL + "/snapshot-group")
+@Produces(MediaType.APPLICATION_JSON)
+public class VmSnapshotGroupResource {
+
+	/**
+	 * Maximal amount of subscriptions in a group.
+	 */
+	public static final int MAX_SIZE = 20;
+
+	/**
+	 * Maximal duration, in seconds, to wait for all snapshots to be ready to start.
+	 */
+	private static final long START_TIMEOUT = 60;
+
+	/**
+	 * Duration, in milliseconds, a group is kept after its start.
+	 */
+	private static final long RETENTION = DateUtils.MILLIS_PER_DAY;
+
+	@Autowired
+	protected VmSnapshotResource snapshotResource;
+
+	@Autowired
+	protected SubscriptionResource subscriptionResource;
+
+	@Autowired
+	protected SnapshotAdmission admission;
+
+	@Autowired
+	private SecurityHelper securityHelper;
+
+	/**
+	 * The recent groups. Key is the group identifier.
+	 */
+	private final Map<String, SnapshotGroup> groups = new ConcurrentHashMap<>();
+
+	/**
+	 * Snapshot the VMs of the given subscriptions together.
+	 *
+	 * @param vo The subscriptions to snapshot.
+	 * @return The started group.
+	 */
+	@POST
+	public SnapshotGroup create(final SnapshotGroupVo vo) {
+		final var subscriptions = vo.getSubscriptions().stream().filter(Objects::nonNull).distinct().toList();
+		if (subscriptions.isEmpty() || subscriptions.size() > MAX_SIZE) {
+			throw new BusinessException("vm-snapshot-group-size", MAX_SIZE);
+		}
+
+		// Check the visibility and get the contract implementations before starting anything
+		final var snaps = new ArrayList<Snapshotting>();
+		final var nodes = new ArrayList<String>();
+		final var slots = new HashMap<String, List<Integer>>();
+		for (final var subscription : subscriptions) {
+			final var node = subscriptionResource.checkVisible(subscription).getNode();
+			snaps.add(snapshotResource.getSnapshot(node));
+			nodes.add(node.getId());
+			slots.computeIfAbsent(node.getId(), n -> new ArrayList<>()).add(subscription);
+		}
+
+		// Reserve the admission slots, then start all tasks, or none
+		admission.reserve(slots);
+		final var tasks = new ArrayList<VmSnapshotStatus>();
+		try {
+			subscriptions.forEach(s -> tasks.add(snapshotResource.startSnapshot(s, vo.isStop())));
+		} catch (final RuntimeException e) {
+			tasks.forEach(t -> snapshotResource.endTask(t.getLocked().getId(), true));
+			for (var i = 0; i < subscriptions.size(); i++) {
+				admission.release(nodes.get(i), subscriptions.get(i), false);
+			}
+			throw e;
+		}
+
+		final var group = new SnapshotGroup();
+		group.setId(UUID.randomUUID().toString());
+		group.setAuthor(securityHelper.getLogin());
+		group.setStart(new Date());
+		group.setSubscriptions(subscriptions);
+		group.setTasks(tasks);
+		groups.values().removeIf(g -> g.getStart().getTime() < System.currentTimeMillis() - RETENTION);
+		groups.put(group.getId(), group);
+		log.info("Snapshot group {} requested for subscriptions {}", group.getId(), subscriptions);
+
+		// The snapshots are released together by the barrier
+		final var barrier = new CyclicBarrier(tasks.size());
+		final var executor = Executors.newFixedThreadPool(tasks.size());
+		for (var i = 0; i < tasks.size(); i++) {
+			final var snap = snaps.get(i);
+			final var node = nodes.get(i);
+			final var task = tasks.get(i);
+			executor.execute(() -> snapshot(group, barrier, snap, node, task));
+		}
+		executor.shutdown();
+		return aggregate(group, tasks);
+	}
+
+	/**
+	 * Execute a snapshot of the group once all snapshots of this group are ready, then release its admission slot.
+	 */
+	private void snapshot(final SnapshotGroup group, final CyclicBarrier barrier, final Snapshotting snap,
+			final String node, final VmSnapshotStatus task) {
+		final int subscription = task.getLocked().getId();
+		securityHelper.setUserName(group.getAuthor());
+		try {
+			barrier.await(START_TIMEOUT, TimeUnit.SECONDS);
+			snapshotResource.snapshot(snap, task);
+			log.info("Snapshot of group {} for subscription {} finished", group.getId(), subscription);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			endRunning(subscription);
+		} catch (final BrokenBarrierException | TimeoutException e) {
+			log.warn("Snapshot of group {} for subscription {} has not started", group.getId(), subscription);
+			endRunning(subscription);
+		} catch (final Exception e) {
+			log.error("Snapshot of group {} for subscription {} failed", group.getId(), subscription, e);
+			endRunning(subscription);
+		} finally {
+			SecurityContextHolder.clearContext();
+			admission.release(node, subscription, true);
+		}
+	}
+
+	/**
+	 * End as failed the task of the given subscription when the provider has not ended it.
+	 */
+	private void endRunning(final int subscription) {
+		final var task = snapshotResource.getTaskRepository().findBy("locked.id", subscription);
+		if (task != null && task.getEnd() == null) {
+			snapshotResource.endTask(subscription, true);
+		}
+	}
+
+	/**
+	 * Return the group with its tasks and its aggregated progress. The tasks are read as the single snapshot tasks,
+	 * without transaction held during the provider calls.
+	 *
+	 * @param id The group identifier.
+	 * @return The group.
+	 */
+	@GET
+	@Path("{id}")
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
+	public SnapshotGroup findById(@PathParam("id") final String id) {
+		final var group = groups.get(id);
+		if (group == null) {
+			throw new EntityNotFoundException(id);
+		}
+		group.getSubscriptions().forEach(subscriptionResource::checkVisible);
+		final var tasks = group.getSubscriptions().stream().map(snapshotResource::getTask).filter(Objects::nonNull)
+				.toList();
+		return aggregate(group, tasks);
+	}
+
+	/**
+	 * Aggregate the progress of the given tasks into the group.
+	 */
+	private SnapshotGroup aggregate(final SnapshotGroup group, final List<VmSnapshotStatus> tasks) {
+		final var result = new SnapshotGroup();
+		result.setId(group.getId());
+		result.setAuthor(group.getAuthor());
+		result.setStart(group.getStart());
+		result.setSubscriptions(group.getSubscriptions());
+		result.setTasks(tasks);
+		result.setWorkload(tasks.size() * 100);
+		result.setDone(tasks.stream().mapToInt(this::getProgress).sum());
+		result.setFailed(tasks.stream().anyMatch(VmSnapshotStatus::isFailed));
+		result.setFinished(tasks.stream().allMatch(t -> t.getEnd() != null && t.isFinishedRemote()));
+		return result;
+	}
+
+	/**
+	 * Return the progress percentage of a task.
+	 */
+	private int getProgress(final VmSnapshotStatus task) {
+		if (task.getEnd() != null) {
+			return 100;
+		}
+		return task.getWorkload() == 0 ? 0 : Math.min(100, task.getDone() * 100 / task.getWorkload());
+	}
+}
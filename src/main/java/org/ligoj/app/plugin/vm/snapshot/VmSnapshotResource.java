@@ -3,9 +3,11 @@
  */
 package org.ligoj.app.plugin.vm.snapshot;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
 import java.util.function.Supplier;
 
 
@@ -14,7 +16,11 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import org.ligoj.app.dao.SubscriptionRepository;
 import org.ligoj.app.model.Node;
+import org.ligoj.app.plugin.vm.PluginGuard;
+import org.ligoj.app.plugin.vm.PluginGuardException;
+import org.ligoj.app.plugin.vm.PluginResolver;
 import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.VmSubscriptionCache;
 import org.ligoj.app.plugin.vm.dao.VmSnapshotStatusRepository;
 import org.ligoj.app.plugin.vm.model.SnapshotOperation;
 import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
@@ -23,14 +29,17 @@ import org.ligoj.app.resource.subscription.LongTaskRunnerSubscription;
 import org.ligoj.app.resource.subscription.SubscriptionResource;
 import org.ligoj.bootstrap.core.resource.BusinessException;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Snapshot task runner.
+ * Snapshot task runner. The provider calls are made outside the transactions: the database is read and written in
+ * short transactions before and after these calls.
  */
 @Slf4j
 @Service
@@ -39,6 +48,24 @@ import lombok.extern.slf4j.Slf4j;
 @Transactional
 public class VmSnapshotResource implements LongTaskRunnerSubscription<VmSnapshotStatus, VmSnapshotStatusRepository> {
 
+	/**
+	 * Maximal page size of the snapshot listing.
+	 */
+	private static final int MAX_LIMIT = 500;
+
+	/**
+	 * Initial delay, in milliseconds, between two remote status checks of the same phase.
+	 */
+	private static final long CHECK_MIN_INTERVAL = 2000;
+
+	/**
+	 * Maximal delay, in milliseconds, between two remote status checks of the same phase.
+	 */
+	private static final long CHECK_MAX_INTERVAL = 60000;
+
+	@Autowired
+	protected VmSnapshotResource self = this;
+
 	@Autowired
 	@Getter
 	protected VmSnapshotStatusRepository taskRepository;
@@ -57,25 +84,76 @@ public class VmSnapshotResource implements LongTaskRunnerSubscription<VmSnapshot
 	@Autowired
 	protected ServicePluginLocator locator;
 
-	private Snapshotting getSnapshot(final Node node) {
-		return Optional.ofNullable(locator.getResource(node.getId(), Snapshotting.class))
+	@Autowired
+	protected PluginResolver resolver;
+
+	@Autowired
+	protected SnapshotAdmission admission;
+
+	@Autowired
+	protected SnapshotCache cache;
+
+	@Autowired
+	protected VmSubscriptionCache subscriptionCache;
+
+	@Autowired
+	protected VolumeSnapshotRunner volumeRunner;
+
+	/**
+	 * Return the snapshot contract implementation of the given node.
+	 *
+	 * @param node The subscribed node.
+	 * @return The snapshot contract implementation.
+	 */
+	public Snapshotting getSnapshot(final Node node) {
+		return Optional.ofNullable(resolver.getResource(locator, node.getId(), Snapshotting.class))
 				.orElseThrow(() -> new BusinessException("snapshot-no-supported", node.getRefined().getId()));
 	}
 
 	/**
-	 * Create a snapshot.
+	 * Create a snapshot. When the snapshot concurrency of the node is reached, the snapshot is queued and the returned
+	 * task exposes its queue position. When the queue is full, a <code>429</code> response is sent.
 	 *
 	 * @param subscription The related subscription.
 	 * @param stop         When <code>true</code> the relate is stopped before the snapshot.
 	 * @return The snapshot task information.
 	 */
 	@POST
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public VmSnapshotStatus create(@PathParam("subscription") final int subscription,
 			@QueryParam("stop") @DefaultValue("false") final boolean stop) {
 		// Check the visibility and get the contract implementation
-		final var snap = getSnapshot(subscriptionResource.checkVisible(subscription).getNode());
+		final var node = subscriptionResource.checkVisible(subscription).getNode();
+		final var snap = getSnapshot(node);
+		admission.checkCapacity(node.getId());
 		log.info("New snapshot requested for subscription {}", subscription);
-		final var task = startTask(subscription, t -> {
+		final var task = startSnapshot(subscription, stop);
+		final var user = securityHelper.getLogin();
+		// The snapshot execution will be done into another thread, as soon as the node accepts it.
+		submit(node, subscription, () -> {
+			Thread.sleep(50);
+			securityHelper.setUserName(user);
+			try {
+				snapshot(snap, task);
+			} finally {
+				SecurityContextHolder.clearContext();
+			}
+			log.info("Snapshot requested for subscription {} finished", subscription);
+			return null;
+		});
+		admission.completeQueue(task);
+		return task;
+	}
+
+	/**
+	 * Start a snapshot creation task. Visibility is not checked.
+	 *
+	 * @param subscription The related subscription.
+	 * @param stop         When <code>true</code> the relate is stopped before the snapshot.
+	 * @return The started task.
+	 */
+	public VmSnapshotStatus startSnapshot(final int subscription, final boolean stop) {
+		return startTask(subscription, t -> {
 			t.setWorkload(1);
 			t.setDone(0);
 			t.setSnapshotInternalId(null);
@@ -83,26 +161,37 @@ public class VmSnapshotResource implements LongTaskRunnerSubscription<VmSnapshot
 			t.setPhase(null);
 			t.setFinishedRemote(false);
 			t.setOperation(SnapshotOperation.CREATE);
+			t.setLastCheck(null);
+			t.setNextCheck(null);
+			t.setCheckedPhase(null);
 			t.setStop(stop);
 		});
-		final var user = securityHelper.getLogin();
-		// The snapshot execution will be done into another thread.
-		// NOT try-with-resources: ExecutorService#close() (Java 19+) awaits task termination, which would hold this
-		// request open for the whole snapshot duration (504 upstream) instead of answering with the just-started task.
-		final var executor = Executors.newSingleThreadExecutor();
+	}
+
+	/**
+	 * Execute the snapshot of a started task in the current thread. The volumes of a {@link VolumeSnapshotting}
+	 * provider are snapshot in parallel.
+	 *
+	 * @param snap The snapshot contract implementation.
+	 * @param task The started task.
+	 * @throws Exception Any error while creating the snapshot.
+	 */
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
+	public void snapshot(final Snapshotting snap, final VmSnapshotStatus task) throws Exception {
 		try {
-			executor.submit(() -> {
-				Thread.sleep(50);
-				securityHelper.setUserName(user);
+			if (snap instanceof VolumeSnapshotting volumes) {
+				// The volumes are driven by this plugin
+				volumeRunner.snapshot(this, task, volumes);
+			} else {
 				snap.snapshot(task);
-				log.info("Snapshot requested for subscription {} finished", subscription);
-				return null;
-			});
+			}
+		} catch (final PluginGuardException e) {
+			// The provider has not been reached and cannot end this task
+			endTask(task.getLocked().getId(), true, t -> t.setStatusText(e.getMessage()));
+			throw e;
 		} finally {
-			// Orderly shutdown: the submitted snapshot still runs to completion, no new task is accepted.
-			executor.shutdown();
+			cache.finished(task);
 		}
-		return task;
 	}
 
 	/**
@@ -114,10 +203,13 @@ public class VmSnapshotResource implements LongTaskRunnerSubscription<VmSnapshot
 	 */
 	@DELETE
 	@Path("{snapshot}")
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public VmSnapshotStatus delete(@PathParam("subscription") final int subscription,
 			@PathParam("snapshot") final String snapshot) {
 		// Check the visibility and get the contract implementation
-		final var snap = getSnapshot(subscriptionResource.checkVisible(subscription).getNode());
+		final var node = subscriptionResource.checkVisible(subscription).getNode();
+		final var snap = getSnapshot(node);
+		admission.checkCapacity(node.getId());
 		log.info("Snapshot deletion requested for subscription {}, snapshot {}", subscription, snapshot);
 		final var task = startTask(subscription, t -> {
 			t.setWorkload(1);
@@ -127,29 +219,51 @@ public class VmSnapshotResource implements LongTaskRunnerSubscription<VmSnapshot
 			t.setPhase(null);
 			t.setFinishedRemote(false);
 			t.setOperation(SnapshotOperation.DELETE);
+			t.setLastCheck(null);
+			t.setNextCheck(null);
+			t.setCheckedPhase(null);
 			t.setStop(false);
 		});
 		final var user = securityHelper.getLogin();
-		// The snapshot execution will be done into another thread.
-		// NOT try-with-resources: ExecutorService#close() (Java 19+) awaits task termination — see #create.
-		final var executor = Executors.newSingleThreadExecutor();
-		try {
-			executor.submit(() -> {
-				Thread.sleep(50);
-				securityHelper.setUserName(user);
+		// The snapshot deletion will be done into another thread, sharing the snapshot admission of the node.
+		submit(node, subscription, () -> {
+			Thread.sleep(50);
+			securityHelper.setUserName(user);
+			try {
 				snap.delete(task);
-				log.info("Snapshot deletion requested for subscription {}, snapshot {} finished", subscription, snapshot);
-				return null;
-			});
-		} finally {
-			// Orderly shutdown: the submitted deletion still runs to completion, no new task is accepted.
-			executor.shutdown();
-		}
+			} catch (final PluginGuardException e) {
+				// The provider has not been reached and cannot end this task
+				endTask(subscription, true, t -> t.setStatusText(e.getMessage()));
+				throw e;
+			} finally {
+				SecurityContextHolder.clearContext();
+				cache.finished(task);
+			}
+			log.info("Snapshot deletion requested for subscription {}, snapshot {} finished", subscription, snapshot);
+			return null;
+		});
+		admission.completeQueue(task);
 		return task;
 	}
 
 	/**
-	 * Return all snapshots matching to the given criteria and also associated to the given subscription.
+	 * Submit the operation of a started task to the admission of its node. The task is ended as failed when the
+	 * operation is rejected, or is dropped from the queue on shutdown.
+	 */
+	private void submit(final Node node, final int subscription, final Callable<?> job) {
+		try {
+			admission.submit(node.getId(), subscription, job,
+					() -> endTask(subscription, true, t -> t.setStatusText("aborted")));
+		} catch (final WebApplicationException e) {
+			// The queue has been filled since the early check
+			endTask(subscription, true, t -> t.setStatusText("rejected"));
+			throw e;
+		}
+	}
+
+	/**
+	 * Return all snapshots matching to the given criteria and also associated to the given subscription. The provider
+	 * listing is cached, and the criteria is applied in memory.
 	 *
 	 * @param subscription The related subscription identifier.
 	 * @param criteria     The optional search criteria. Case is insensitive. Might be the name or the identifier for this
@@ -158,11 +272,86 @@ public class VmSnapshotResource implements LongTaskRunnerSubscription<VmSnapshot
 	 * @throws Exception Any error while finding the snapshots.
 	 */
 	@GET
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public List<Snapshot> findAll(@PathParam("subscription") final int subscription,
-			@PathParam("q") @DefaultValue("") final String criteria) throws Exception {
+			@QueryParam("q") @DefaultValue("") final String criteria) throws Exception {
+		// Check the visibility and get the contract implementation
+		final var snap = getSnapshot(subscriptionCache.checkVisible(subscriptionResource, subscription).getNode());
+		return cache.find(subscription, criteria, () -> snap.findAllSnapshots(subscription, ""));
+	}
+
+	/**
+	 * Return the snapshots created, changed or deleted since the given token and also associated to the given
+	 * subscription. The provider tracks the changes when it supports it, otherwise the cached listing is compared to
+	 * the listing of the given token.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param since        The token of the previous delta. A timestamp is also accepted, then only the snapshots created
+	 *                     since this date are returned. When <code>null</code> or unknown, all snapshots are returned.
+	 * @return The changes since the given token, with the token of the next request.
+	 * @throws Exception Any error while finding the snapshots.
+	 */
+	@GET
+	@Path("changes")
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
+	public SnapshotDelta findChanges(@PathParam("subscription") final int subscription,
+			@QueryParam("since") final String since) throws Exception {
+		// Check the visibility and get the contract implementation
+		final var snap = getSnapshot(subscriptionCache.checkVisible(subscriptionResource, subscription).getNode());
+		final var delta = snap.findChangedSnapshots(subscription, since);
+		if (delta == null) {
+			return cache.changes(subscription, since, () -> snap.findAllSnapshots(subscription, ""));
+		}
+		return delta;
+	}
+
+	/**
+	 * Return a page of the snapshots matching to the given filters and also associated to the given subscription. When
+	 * the provider pages natively, the query is delegated to it, otherwise the cached listing is paged in memory.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param criteria     The optional search criteria. Case is insensitive. Might be the name or the identifier for this
+	 *                     snapshot.
+	 * @param limit        The maximal amount of returned snapshots, up to 500.
+	 * @param cursor       The optional cursor returned by the previous page.
+	 * @param from         The optional inclusive lower bound of the creation date, as a timestamp.
+	 * @param to           The optional exclusive upper bound of the creation date, as a timestamp.
+	 * @param available    When not <code>null</code>, only the snapshots having this availability are returned.
+	 * @param volumes      When <code>false</code>, the volumes are not returned.
+	 * @return The requested page of snapshots ordered by descending creation date.
+	 * @throws Exception Any error while finding the snapshots.
+	 */
+	@GET
+	@Path("page")
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
+	public SnapshotPage findPage(@PathParam("subscription") final int subscription,
+			@QueryParam("q") @DefaultValue("") final String criteria,
+			@QueryParam("limit") @DefaultValue("50") final int limit, @QueryParam("cursor") final String cursor,
+			@QueryParam("from") final Long from, @QueryParam("to") final Long to,
+			@QueryParam("available") final Boolean available,
+			@QueryParam("volumes") @DefaultValue("true") final boolean volumes) throws Exception {
 		// Check the visibility and get the contract implementation
-		return getSnapshot(subscriptionResource.checkVisible(subscription).getNode()).findAllSnapshots(subscription,
-				criteria);
+		final var snap = getSnapshot(subscriptionCache.checkVisible(subscriptionResource, subscription).getNode());
+		final var query = new SnapshotQuery(criteria);
+		query.setLimit(Math.min(MAX_LIMIT, Math.max(1, limit)));
+		query.setCursor(cursor);
+		query.setFrom(from == null ? null : new Date(from));
+		query.setTo(to == null ? null : new Date(to));
+		query.setAvailable(available);
+		query.setVolumes(volumes);
+		if (isNativePaging(snap)) {
+			return Optional.ofNullable(snap.findSnapshots(subscription, query)).orElseGet(SnapshotPage::new);
+		}
+		return SnapshotPage.of(cache.get(subscription, () -> snap.findAllSnapshots(subscription, "")), query);
+	}
+
+	/**
+	 * Indicate the given provider overrides the default paging.
+	 */
+	private boolean isNativePaging(final Snapshotting snap) throws NoSuchMethodException {
+		return AopUtils.getTargetClass(PluginGuard.getTarget(snap))
+				.getMethod("findSnapshots", int.class, SnapshotQuery.class)
+				.getDeclaringClass() != Snapshotting.class;
 	}
 
 	@Override
@@ -173,21 +362,75 @@ public class VmSnapshotResource implements LongTaskRunnerSubscription<VmSnapshot
 	@Override
 	@GET
 	@Path("task")
+	@Transactional(Transactional.TxType.NOT_SUPPORTED)
 	public VmSnapshotStatus getTask(@PathParam("subscription") final int subscription) {
 		final var task = LongTaskRunnerSubscription.super.getTask(subscription);
 		if (task != null) {
-			getSnapshot(task.getLocked().getNode()).completeStatus(task);
+			if (completeStatus(getSnapshot(task.getLocked().getNode()), task)) {
+				// Save the checked state after the remote call
+				self.saveCheck(task);
+			}
+			admission.completeQueue(task);
 		}
 		return task;
 	}
 
+	/**
+	 * Save the remote check state of the given task. Only the check columns are written, so the concurrent progress
+	 * of the runner is kept.
+	 *
+	 * @param checked The checked task.
+	 */
+	public void saveCheck(final VmSnapshotStatus checked) {
+		final var task = taskRepository.findOneExpected(checked.getId());
+		task.setLastCheck(checked.getLastCheck());
+		task.setNextCheck(checked.getNextCheck());
+		task.setCheckedPhase(checked.getCheckedPhase());
+		if (checked.isFinishedRemote()) {
+			// Never reset a completion saved meanwhile by the runner
+			task.setFinishedRemote(true);
+		}
+	}
+
+	/**
+	 * Complete the task details from the remote state, and update the snapshot cache when the remote operation is
+	 * finished. The remote check is skipped until the next check date. This delay doubles at each check of the same
+	 * phase, from 2 seconds up to 1 minute, and is reset when the phase changes.
+	 *
+	 * @return <code>true</code> when the remote state has been checked, and needs to be saved.
+	 */
+	private boolean completeStatus(final Snapshotting snap, final VmSnapshotStatus task) {
+		final var now = System.currentTimeMillis();
+		final var samePhase = Objects.equals(task.getCheckedPhase(), task.getPhase());
+		if (samePhase && task.getNextCheck() != null && task.getNextCheck().getTime() > now) {
+			// Throttled remote check
+			return false;
+		}
+		final var finished = task.isFinishedRemote();
+		snap.completeStatus(task);
+		var interval = CHECK_MIN_INTERVAL;
+		if (samePhase && task.getLastCheck() != null && task.getNextCheck() != null
+				&& Objects.equals(task.getCheckedPhase(), task.getPhase())) {
+			// Same phase, the delay grows with the age of this phase
+			interval = Math.min(CHECK_MAX_INTERVAL, 2 * (task.getNextCheck().getTime() - task.getLastCheck().getTime()));
+		}
+		task.setLastCheck(new Date(now));
+		task.setNextCheck(new Date(now + interval));
+		task.setCheckedPhase(task.getPhase());
+		if (!finished && task.isFinishedRemote()) {
+			cache.finished(task);
+		}
+		return true;
+	}
+
 	@Override
 	public boolean isFinished(final VmSnapshotStatus task) {
 		// Complete the status for the not completed tasks
 		if (task.isFailed()) {
 			task.setFinishedRemote(true);
 		} else if (!task.isFinishedRemote()) {
-			getSnapshot(subscriptionResource.checkVisible(task.getLocked().getId()).getNode()).completeStatus(task);
+			final var node = subscriptionCache.checkVisible(subscriptionResource, task.getLocked().getId()).getNode();
+			completeStatus(getSnapshot(node), task);
 		}
 		return task.isFinishedRemote();
 	}
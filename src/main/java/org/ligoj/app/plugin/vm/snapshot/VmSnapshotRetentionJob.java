@@ -0,0 +1,36 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * VM Service job applying the snapshot retention rules.
+ */
+@Slf4j
+@DisallowConcurrentExecution
+public class VmSnapshotRetentionJob extends QuartzJobBean {
+
+	@Override
+	protected void executeInternal(final JobExecutionContext arg0) {
+		final var context = ObjectUtils.getIfNull((ApplicationContext) arg0.getMergedJobDataMap().get("context"),
+				SpringUtils.getApplicationContext());
+
+		// Set the user
+		context.getBean(SecurityHelper.class).setUserName(SecurityHelper.SYSTEM_USERNAME);
+
+		// Apply the retention rules
+		log.info("Executing snapshot retention");
+		final var deleted = context.getBean(VmSnapshotRetentionResource.class).execute();
+		log.info("Succeed snapshot retention, {} deleted snapshots", deleted);
+	}
+}
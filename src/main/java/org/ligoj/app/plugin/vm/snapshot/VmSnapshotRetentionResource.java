@@ -0,0 +1,509 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.PluginResolver;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.dao.VmSnapshotDeletionRepository;
+import org.ligoj.app.plugin.vm.dao.VmSnapshotRetentionRepository;
+import org.ligoj.app.plugin.vm.model.SnapshotOperation;
+import org.ligoj.app.plugin.vm.model.VmSnapshotDeletion;
+import org.ligoj.app.plugin.vm.model.VmSnapshotRetention;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.app.resource.node.NodeResource;
+import org.ligoj.app.resource.subscription.SubscriptionResource;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshot retention rules and their execution. A rule is attached to a subscription, or to a node and then applies
+ * to all subscriptions of this node without their own rule. The expired snapshots are deleted by batches, with a
+ * bounded amount of subscriptions processed at the same time. Each batch is a task of the subscription submitted to
+ * the snapshot admission of its node, and the snapshots of a batch are deleted in parallel.
+ */
+@Slf4j
+@Service
+@Path(VmResource.SERVICE_URL + "/retention")
+@Produces(MediaType.APPLICATION_JSON)
+public class VmSnapshotRetentionResource {
+
+	/**
+	 * Configuration key of the maximal amount of subscriptions processed at the same time.
+	 */
+	public static final String CONF_CONCURRENCY = VmResource.SERVICE_KEY + ":snapshot-retention-concurrency";
+
+	/**
+	 * Configuration key of the amount of deletions per batch. The execution of a subscription stops at the first
+	 * batch containing a failure, the remaining snapshots are deleted at the next execution.
+	 */
+	public static final String CONF_BATCH = VmResource.SERVICE_KEY + ":snapshot-retention-batch";
+
+	private static final int DEFAULT_CONCURRENCY = 2;
+
+	private static final int DEFAULT_BATCH = 10;
+
+	/**
+	 * Maximal duration, in milliseconds, to wait for the end of the previous task of a subscription.
+	 */
+	private static final long IDLE_TIMEOUT = 10 * DateUtils.MILLIS_PER_MINUTE;
+
+	/**
+	 * Delay, in milliseconds, between two checks of the previous task of a subscription.
+	 */
+	private static final long IDLE_POLL = 5 * DateUtils.MILLIS_PER_SECOND;
+
+	@Autowired
+	protected VmSnapshotRetentionRepository repository;
+
+	@Autowired
+	protected VmSnapshotDeletionRepository deletionRepository;
+
+	@Autowired
+	protected SubscriptionResource subscriptionResource;
+
+	@Autowired
+	protected NodeResource nodeResource;
+
+	@Autowired
+	protected ServicePluginLocator locator;
+
+	@Autowired
+	protected PluginResolver resolver;
+
+	@Autowired
+	protected VmSnapshotResource snapshotResource;
+
+	@Autowired
+	protected SnapshotCache cache;
+
+	@Autowired
+	protected SnapshotAdmission admission;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	private SecurityHelper securityHelper;
+
+	/**
+	 * A subscription and its effective rule.
+	 *
+	 * @param subscription The subscription.
+	 * @param rule         The effective rule.
+	 */
+	protected record Target(Subscription subscription, VmSnapshotRetention rule) {
+	}
+
+	/**
+	 * Return the effective retention rule of the given subscription.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @return The rule attached to the subscription, or else the one inherited from the most specific node. May be
+	 *         <code>null</code>.
+	 */
+	@GET
+	@Path("{subscription:\\d+}")
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public VmSnapshotRetentionVo findBySubscription(@PathParam("subscription") final int subscription) {
+		final var entity = subscriptionResource.checkVisible(subscription);
+		final var rule = repository.findBySubscription(subscription);
+		return toVo(rule == null ? findInherited(entity.getNode()) : rule);
+	}
+
+	/**
+	 * Return the most specific node rule applying to the given node.
+	 */
+	private VmSnapshotRetention findInherited(final Node node) {
+		return repository.findAllNodeRules().stream().filter(r -> isParent(r.getNode(), node.getId()))
+				.reduce((a, b) -> b).orElse(null);
+	}
+
+	private boolean isParent(final String parent, final String node) {
+		return node.equals(parent) || node.startsWith(parent + ":");
+	}
+
+	/**
+	 * Create or update the rule attached to the given subscription.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @param vo           The rule to save.
+	 */
+	@PUT
+	@Path("{subscription:\\d+}")
+	@Transactional
+	public void saveOrUpdate(@PathParam("subscription") final int subscription, final VmSnapshotRetentionVo vo) {
+		final var entity = subscriptionResource.checkVisible(subscription);
+		final var rule = Optional.ofNullable(repository.findBySubscription(subscription))
+				.orElseGet(VmSnapshotRetention::new);
+		rule.setSubscription(entity);
+		save(rule, vo);
+	}
+
+	/**
+	 * Delete the rule attached to the given subscription. The node rules still apply.
+	 *
+	 * @param subscription The related subscription identifier.
+	 */
+	@DELETE
+	@Path("{subscription:\\d+}")
+	@Transactional
+	public void delete(@PathParam("subscription") final int subscription) {
+		subscriptionResource.checkVisible(subscription);
+		repository.deleteAllBy("subscription.id", subscription);
+	}
+
+	/**
+	 * Return the retention deletions of the given subscription.
+	 *
+	 * @param subscription The related subscription identifier.
+	 * @return The retention deletions, from the most to the least recent one.
+	 */
+	@GET
+	@Path("{subscription:\\d+}/report")
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public List<VmSnapshotDeletion> findAllDeletions(@PathParam("subscription") final int subscription) {
+		subscriptionResource.checkVisible(subscription);
+		return deletionRepository.findAllBySubscription(subscription);
+	}
+
+	/**
+	 * Return the rule attached to the given node.
+	 *
+	 * @param node The related node identifier.
+	 * @return The rule attached to the given node. May be <code>null</code>.
+	 */
+	@GET
+	@Path("{node:service:.+}")
+	@org.springframework.transaction.annotation.Transactional(readOnly = true)
+	public VmSnapshotRetentionVo findByNode(@PathParam("node") final String node) {
+		return toVo(repository.findByNode(nodeResource.checkWritableNode(node).getId()));
+	}
+
+	/**
+	 * Create or update the rule attached to the given node.
+	 *
+	 * @param node The related node identifier.
+	 * @param vo   The rule to save.
+	 */
+	@PUT
+	@Path("{node:service:.+}")
+	@Transactional
+	public void saveOrUpdate(@PathParam("node") final String node, final VmSnapshotRetentionVo vo) {
+		final var id = nodeResource.checkWritableNode(node).getId();
+		final var rule = Optional.ofNullable(repository.findByNode(id)).orElseGet(VmSnapshotRetention::new);
+		rule.setNode(id);
+		save(rule, vo);
+	}
+
+	/**
+	 * Delete the rule attached to the given node.
+	 *
+	 * @param node The related node identifier.
+	 */
+	@DELETE
+	@Path("{node:service:.+}")
+	@Transactional
+	public void delete(@PathParam("node") final String node) {
+		repository.deleteAllBy("node", nodeResource.checkWritableNode(node).getId());
+	}
+
+	/**
+	 * Delete the rule and the retention report of the given subscription. Visibility is not checked.
+	 *
+	 * @param subscription The deleted subscription identifier.
+	 */
+	@Transactional
+	public void deleteAll(final int subscription) {
+		repository.deleteAllBy("subscription.id", subscription);
+		deletionRepository.deleteAllBy("subscription.id", subscription);
+	}
+
+	private void save(final VmSnapshotRetention rule, final VmSnapshotRetentionVo vo) {
+		if (vo.getKeepLast() == null && vo.getKeepDays() == null) {
+			throw new ValidationJsonException("keepLast", "vm-retention-empty");
+		}
+		rule.setKeepLast(vo.getKeepLast());
+		rule.setKeepDays(vo.getKeepDays());
+		rule.setKeepAvailable(vo.isKeepAvailable());
+		repository.saveAndFlush(rule);
+	}
+
+	private VmSnapshotRetentionVo toVo(final VmSnapshotRetention rule) {
+		if (rule == null) {
+			return null;
+		}
+		final var vo = new VmSnapshotRetentionVo();
+		vo.setKeepLast(rule.getKeepLast());
+		vo.setKeepDays(rule.getKeepDays());
+		vo.setKeepAvailable(rule.isKeepAvailable());
+		vo.setNode(rule.getNode());
+		return vo;
+	}
+
+	/**
+	 * Return the snapshots to delete according to the given rule. The pending snapshots are neither deleted nor
+	 * counted. A snapshot is kept when it is one of the most recent ones, or when it is younger than the amount of
+	 * days. When required, the most recent available snapshot is also kept.
+	 *
+	 * @param snapshots The snapshots of a subscription.
+	 * @param rule      The effective rule.
+	 * @param now       The reference date.
+	 * @return The expired snapshots, from the most to the least recent one.
+	 */
+	public static List<Snapshot> getExpired(final List<Snapshot> snapshots, final VmSnapshotRetention rule,
+			final Date now) {
+		if (rule.getKeepLast() == null && rule.getKeepDays() == null) {
+			// Nothing can expire
+			return List.of();
+		}
+		final var limit = rule.getKeepDays() == null ? null : DateUtils.addDays(now, -rule.getKeepDays());
+		final var candidates = snapshots.stream().filter(s -> !s.isPending() && s.getDate() != null)
+				.sorted(Comparator.comparing(Snapshot::getDate).reversed()).toList();
+		final var expired = new ArrayList<Snapshot>();
+		var keptAvailable = false;
+		for (var i = 0; i < candidates.size(); i++) {
+			final var snapshot = candidates.get(i);
+			if (rule.getKeepLast() != null && i < rule.getKeepLast()
+					|| limit != null && snapshot.getDate().after(limit)) {
+				keptAvailable |= snapshot.isAvailable();
+			} else if (rule.isKeepAvailable() && !keptAvailable && snapshot.isAvailable()) {
+				// Last chance to keep an available snapshot
+				keptAvailable = true;
+			} else {
+				expired.add(snapshot);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Return the subscriptions having a rule, with their effective rule. The rule of a subscription wins over the node
+	 * ones, and the most specific node rule wins over the other node rules.
+	 *
+	 * @return The subscriptions having a rule. Key is the subscription identifier.
+	 */
+	protected Map<Integer, Target> resolve() {
+		final var targets = new LinkedHashMap<Integer, Target>();
+		repository.findAllNodeRules().forEach(r -> repository.findAllSubscriptions(r.getNode())
+				.forEach(s -> targets.put(s.getId(), new Target(s, r))));
+		repository.findAllSubscriptionRules()
+				.forEach(r -> targets.put(r.getSubscription().getId(), new Target(r.getSubscription(), r)));
+		return targets;
+	}
+
+	/**
+	 * Apply all retention rules.
+	 *
+	 * @return The amount of deleted snapshots.
+	 */
+	public int execute() {
+		final var targets = resolve().values();
+		log.info("Snapshot retention of {} subscriptions", targets.size());
+		final var user = securityHelper.getLogin();
+		final var executor = Executors
+				.newFixedThreadPool(Math.max(1, configuration.get(CONF_CONCURRENCY, DEFAULT_CONCURRENCY)));
+		var deleted = 0;
+		try {
+			final var jobs = targets.stream().map(t -> (Callable<List<VmSnapshotDeletion>>) () -> {
+				securityHelper.setUserName(user);
+				try {
+					return purge(t.subscription(), t.rule());
+				} finally {
+					SecurityContextHolder.clearContext();
+				}
+			}).toList();
+			for (final var future : executor.invokeAll(jobs)) {
+				try {
+					deleted += (int) future.get().stream().filter(VmSnapshotDeletion::isSucceed).count();
+				} catch (final ExecutionException e) {
+					log.warn("Snapshot retention of a subscription failed", e.getCause());
+				}
+			}
+		} catch (final InterruptedException e) {
+			log.warn("Snapshot retention has been interrupted");
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+		return deleted;
+	}
+
+	/**
+	 * Delete the expired snapshots of the given subscription, by batches.
+	 *
+	 * @param subscription The subscription to purge.
+	 * @param rule         The effective rule.
+	 * @return The deletions, succeed or not.
+	 * @throws Exception Any error while finding the snapshots.
+	 */
+	protected List<VmSnapshotDeletion> purge(final Subscription subscription, final VmSnapshotRetention rule)
+			throws Exception {
+		final int id = subscription.getId();
+		final var snap = resolver.getResource(locator, subscription.getNode().getId(), Snapshotting.class);
+		if (snap == null) {
+			// Snapshot is not supported by this node
+			return List.of();
+		}
+		final var expired = getExpired(snap.findAllSnapshots(id, ""), rule, new Date());
+		log.info("Snapshot retention of subscription {}: {} expired snapshots", id, expired.size());
+		final var deletions = new ArrayList<VmSnapshotDeletion>();
+		for (final var batch : ListUtils.partition(expired,
+				Math.max(1, configuration.get(CONF_BATCH, DEFAULT_BATCH)))) {
+			final var report = new ArrayList<VmSnapshotDeletion>();
+			for (final var snapshot : batch) {
+				report.add(delete(snap, subscription, snapshot));
+			}
+			deletionRepository.saveAll(report);
+			deletions.addAll(report);
+			if (!report.stream().allMatch(VmSnapshotDeletion::isSucceed)) {
+				log.info("Snapshot retention of subscription {} is stopped after a failed deletion", id);
+				break;
+			}
+		}
+		return deletions;
+	}
+
+	/**
+	 * Delete a snapshot through a new task of the subscription, once the previous task is finished. The task is
+	 * submitted to the snapshot admission of the node, and waits for its turn. The deletion succeeds only once the
+	 * task is remotely finished.
+	 */
+	private VmSnapshotDeletion delete(final Snapshotting snap, final Subscription subscription,
+			final Snapshot snapshot) {
+		final int id = subscription.getId();
+		final var deletion = newDeletion(subscription, snapshot);
+		try {
+			awaitFinished(id);
+			final var task = snapshotResource.startTask(id, t -> {
+				t.setWorkload(1);
+				t.setDone(0);
+				t.setSnapshotInternalId(snapshot.getId());
+				t.setStatusText("retention");
+				t.setPhase(null);
+				t.setFinishedRemote(false);
+				t.setOperation(SnapshotOperation.DELETE);
+				t.setLastCheck(null);
+				t.setNextCheck(null);
+				t.setCheckedPhase(null);
+				t.setStop(false);
+			});
+			final var user = securityHelper.getLogin();
+			final var done = new CompletableFuture<Void>();
+			var failed = true;
+			try {
+				admission.submit(subscription.getNode().getId(), id, () -> {
+					try {
+						securityHelper.setUserName(user);
+						snap.delete(task);
+						done.complete(null);
+					} catch (final Exception e) {
+						done.completeExceptionally(e);
+					} finally {
+						SecurityContextHolder.clearContext();
+						done.completeExceptionally(new IllegalStateException("aborted"));
+					}
+					return null;
+				}, () -> done.completeExceptionally(new IllegalStateException("aborted")));
+				done.get();
+				failed = false;
+			} finally {
+				endRunning(id, failed);
+			}
+
+			// The provider may delete asynchronously, the remote completion is checked by the snapshot resource
+			final var finished = awaitFinished(id);
+			if (finished.isFailed()) {
+				throw new IllegalStateException(finished.getStatusText());
+			}
+			if (finished.getEnd() == null || !finished.isFinishedRemote()) {
+				throw new IllegalStateException("not-finished");
+			}
+			deletion.setSucceed(true);
+			cache.finished(finished);
+		} catch (final Exception e) {
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			final var cause = e instanceof ExecutionException ? e.getCause() : e;
+			log.warn("Snapshot retention of subscription {} failed to delete snapshot {}", id, snapshot.getId(),
+					cause);
+			deletion.setError(StringUtils.abbreviate(cause.getMessage(), 250));
+			cache.invalidate(id);
+		}
+		return deletion;
+	}
+
+	private VmSnapshotDeletion newDeletion(final Subscription subscription, final Snapshot snapshot) {
+		final var deletion = new VmSnapshotDeletion();
+		deletion.setDate(Instant.now());
+		deletion.setSubscription(subscription);
+		deletion.setSnapshot(snapshot.getId());
+		deletion.setName(snapshot.getName());
+		deletion.setSnapshotDate(snapshot.getDate());
+		return deletion;
+	}
+
+	/**
+	 * Wait for the end of the task of the given subscription, including the remote operation. On timeout, the next
+	 * task start will fail.
+	 *
+	 * @return The last state of this task. May be <code>null</code>.
+	 */
+	private VmSnapshotStatus awaitFinished(final int subscription) throws InterruptedException {
+		final var timeout = System.currentTimeMillis() + IDLE_TIMEOUT;
+		while (true) {
+			final var task = snapshotResource.getTaskRepository().findBy("locked.id", subscription);
+			if (task == null || task.getEnd() != null && snapshotResource.isFinished(task)
+					|| System.currentTimeMillis() >= timeout) {
+				return task;
+			}
+			Thread.sleep(IDLE_POLL);
+		}
+	}
+
+	/**
+	 * End the task of the given subscription when the provider has not ended it. The remote completion is left to the
+	 * remote status check.
+	 */
+	private void endRunning(final int subscription, final boolean failed) {
+		final var task = snapshotResource.getTaskRepository().findBy("locked.id", subscription);
+		if (task != null && task.getEnd() == null) {
+			snapshotResource.endTask(subscription, failed);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import jakarta.validation.constraints.Positive;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A snapshot retention rule. At least one of the amount of snapshots or the amount of days to keep is required.
+ */
+@Getter
+@Setter
+public class VmSnapshotRetentionVo {
+
+	/**
+	 * When not <code>null</code>, the amount of most recent snapshots to keep.
+	 */
+	@Positive
+	private Integer keepLast;
+
+	/**
+	 * When not <code>null</code>, the snapshots younger than this amount of days are kept.
+	 */
+	@Positive
+	private Integer keepDays;
+
+	/**
+	 * When <code>true</code>, the most recent available snapshot is always kept.
+	 */
+	private boolean keepAvailable = true;
+
+	/**
+	 * The node this rule is inherited from. <code>null</code> when the rule is attached to the subscription.
+	 */
+	private String node;
+
+}
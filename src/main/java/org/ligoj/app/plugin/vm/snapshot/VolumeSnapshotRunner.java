@@ -0,0 +1,186 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Drive the snapshot of a {@link VolumeSnapshotting} provider: the volumes are snapshot in parallel with a bounded
+ * concurrency, and their progress is aggregated into the task. Each volume counts for <code>100</code> in the
+ * workload, so <code>done</code> is the sum of the volume percentages. The task is finished remotely as soon as
+ * completed only when the provider reports a synchronous completion, otherwise the remote state is checked later. On
+ * failure, the volume snapshots already started are deleted, and the ones that cannot be deleted are kept in the status
+ * text for a later cleanup.
+ */
+@Slf4j
+@Component
+public class VolumeSnapshotRunner {
+
+	/**
+	 * Configuration key of the maximal amount of volumes snapshot at the same time for a VM.
+	 */
+	public static final String CONF_CONCURRENCY = VmResource.SERVICE_KEY + ":snapshot-volume-concurrency";
+
+	private static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * Phase of the task while the volumes are snapshot.
+	 */
+	public static final String PHASE_VOLUMES = "snapshot-volumes";
+
+	/**
+	 * Phase of the task while the snapshot is completed.
+	 */
+	public static final String PHASE_COMPLETING = "completing";
+
+	/**
+	 * Delay, in milliseconds, between two polls of a volume, and between two progress updates of the task.
+	 */
+	protected long pollInterval = 2000;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	/**
+	 * Create a snapshot and end the task. The provider must not end the task itself.
+	 *
+	 * @param resource The task runner.
+	 * @param task     The running task.
+	 * @param snap     The provider.
+	 * @throws Exception Any error while creating the snapshot. The task is ended as failed.
+	 */
+	public void snapshot(final VmSnapshotResource resource, final VmSnapshotStatus task, final VolumeSnapshotting snap)
+			throws Exception {
+		final int subscription = task.getLocked().getId();
+		List<VolumeSnapshot> volumes = List.of();
+		final boolean finished;
+		try {
+			volumes = snap.prepareSnapshot(task);
+			log.info("Snapshot of {} volumes for subscription {}", volumes.size(), subscription);
+			final var count = volumes.size();
+			resource.nextStep(subscription, t -> {
+				t.setWorkload(Math.max(1, count) * 100);
+				t.setDone(0);
+				t.setPhase(PHASE_VOLUMES);
+				t.setStatusText("0/" + count);
+			});
+			snapshotVolumes(resource, task, snap, volumes);
+			resource.nextStep(subscription, t -> t.setPhase(PHASE_COMPLETING));
+			finished = snap.completeSnapshot(task, volumes);
+		} catch (final Exception e) {
+			final var remaining = deleteVolumes(task, snap, volumes);
+			final var message = remaining.isEmpty() ? e.getMessage()
+					: e.getMessage() + ", remaining volumes: " + String.join(",", remaining);
+			resource.endTask(subscription, true, t -> t.setStatusText(StringUtils.abbreviate(message, 250)));
+			throw e;
+		}
+		// An asynchronous remote completion is checked later by the status polling
+		resource.endTask(subscription, false, t -> t.setFinishedRemote(finished));
+	}
+
+	/**
+	 * Delete the started volume snapshots of a failed snapshot.
+	 *
+	 * @return The identifiers of the volume snapshots that could not be deleted.
+	 */
+	private List<String> deleteVolumes(final VmSnapshotStatus task, final VolumeSnapshotting snap,
+			final List<VolumeSnapshot> volumes) {
+		final var remaining = new ArrayList<String>();
+		volumes.stream().filter(v -> v.getId() != null).forEach(volume -> {
+			try {
+				snap.deleteVolume(task, volume);
+			} catch (final Exception e) {
+				log.warn("Unable to delete the volume snapshot {} of subscription {}", volume.getId(),
+						task.getLocked().getId(), e);
+				remaining.add(volume.getId());
+			}
+		});
+		return remaining;
+	}
+
+	/**
+	 * Snapshot the volumes in parallel. The current thread reports the aggregated progress until all volumes are
+	 * completed, or one of them has failed.
+	 */
+	private void snapshotVolumes(final VmSnapshotResource resource, final VmSnapshotStatus task,
+			final VolumeSnapshotting snap, final List<VolumeSnapshot> volumes) throws Exception {
+		final int subscription = task.getLocked().getId();
+		final var progress = new AtomicIntegerArray(volumes.size());
+		final var concurrency = Math.max(1, configuration.get(CONF_CONCURRENCY, DEFAULT_CONCURRENCY));
+		final var executor = Executors.newFixedThreadPool(Math.max(1, Math.min(volumes.size(), concurrency)));
+		try {
+			final var futures = new ArrayList<Future<?>>();
+			for (var i = 0; i < volumes.size(); i++) {
+				final var index = i;
+				final var volume = volumes.get(i);
+				futures.add(executor.submit(() -> {
+					volume.setId(snap.startVolume(task, volume));
+					var percent = 0;
+					while ((percent = Math.max(0, Math.min(100, snap.pollVolume(task, volume)))) < 100) {
+						progress.set(index, percent);
+						Thread.sleep(pollInterval);
+					}
+					progress.set(index, 100);
+					return null;
+				}));
+			}
+
+			var reported = 0;
+			var running = true;
+			while (running) {
+				running = false;
+				for (final var future : futures) {
+					if (future.isDone()) {
+						// Propagate the first failure
+						join(future);
+					} else {
+						running = true;
+					}
+				}
+				final var done = IntStream.range(0, volumes.size()).map(progress::get).sum();
+				if (done != reported) {
+					final var completed = IntStream.range(0, volumes.size()).filter(i -> progress.get(i) == 100).count();
+					resource.nextStep(subscription, t -> {
+						t.setDone(done);
+						t.setStatusText(completed + "/" + volumes.size());
+					});
+					reported = done;
+				}
+				if (running) {
+					Thread.sleep(pollInterval);
+				}
+			}
+		} finally {
+			// Also stop the other volumes on failure, and wait for the started identifiers to be known
+			executor.shutdownNow();
+			if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.warn("Volume snapshots of subscription {} are still running", subscription);
+			}
+		}
+	}
+
+	private void join(final Future<?> future) throws Exception {
+		try {
+			future.get();
+		} catch (final ExecutionException e) {
+			throw e.getCause() instanceof Exception cause ? cause : e;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.List;
+
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+
+/**
+ * Snapshot contract where the plugin drives the volume snapshots. The volumes are snapshot in parallel, so the
+ * snapshot lasts as long as the largest volume instead of the sum of all volumes. When a provider implements this
+ * contract, {@link #snapshot(VmSnapshotStatus)} is not called by the plugin.
+ *
+ * @since 3.0.0
+ */
+public interface VolumeSnapshotting extends Snapshotting {
+
+	/**
+	 * Prepare the snapshot, such as stopping the VM when requested by the task, and return the volumes to snapshot.
+	 *
+	 * @param task A transient instance of the related task, and also linked to a subscription. Note it is a read-only
+	 *             view.
+	 * @return The volumes to snapshot. The <code>name</code> attribute is the device name, and the identifier is not
+	 *         yet known.
+	 * @throws Exception Any error while preparing the snapshot.
+	 */
+	List<VolumeSnapshot> prepareSnapshot(VmSnapshotStatus task) throws Exception; // NOSONAR
+
+	/**
+	 * Start the snapshot of a volume. This method is called concurrently for different volumes of the same task.
+	 *
+	 * @param task   A transient instance of the related task. Note it is a read-only view.
+	 * @param volume The volume to snapshot.
+	 * @return The provider identifier of the volume snapshot.
+	 * @throws Exception Any error while starting the snapshot.
+	 */
+	String startVolume(VmSnapshotStatus task, VolumeSnapshot volume) throws Exception; // NOSONAR
+
+	/**
+	 * Return the progress of a volume snapshot. This method is called concurrently for different volumes of the same
+	 * task.
+	 *
+	 * @param task   A transient instance of the related task. Note it is a read-only view.
+	 * @param volume The volume being snapshot. Its identifier is the one returned by
+	 *               {@link #startVolume(VmSnapshotStatus, VolumeSnapshot)}.
+	 * @return The progress percentage, from <code>0</code> to <code>100</code>. <code>100</code> means the volume
+	 *         snapshot is completed.
+	 * @throws Exception Any error while checking the snapshot, including a failed volume snapshot.
+	 */
+	int pollVolume(VmSnapshotStatus task, VolumeSnapshot volume) throws Exception; // NOSONAR
+
+	/**
+	 * Delete a volume snapshot of a failed snapshot. This method is called for each volume snapshot already started
+	 * when another volume has failed, or when the snapshot could not be completed.
+	 *
+	 * @param task   A transient instance of the related task. Note it is a read-only view.
+	 * @param volume The volume snapshot to delete. Its identifier is the one returned by
+	 *               {@link #startVolume(VmSnapshotStatus, VolumeSnapshot)}.
+	 * @throws Exception Any error while deleting the volume snapshot. The identifier is then kept in the task status.
+	 */
+	void deleteVolume(VmSnapshotStatus task, VolumeSnapshot volume) throws Exception; // NOSONAR
+
+	/**
+	 * Complete the snapshot once all volumes are snapshot, such as registering the snapshot and restarting the VM.
+	 *
+	 * @param task    A transient instance of the related task. Note it is a read-only view.
+	 * @param volumes The snapshot volumes.
+	 * @return <code>true</code> when the snapshot is finished remotely. When <code>false</code>, the remote completion
+	 *         is asynchronous and is checked later with {@link #completeStatus(VmSnapshotStatus)}, that must set the
+	 *         <code>finishedRemote</code> flag.
+	 * @throws Exception Any error while completing the snapshot.
+	 */
+	default boolean completeSnapshot(final VmSnapshotStatus task, final List<VolumeSnapshot> volumes) throws Exception { // NOSONAR
+		return true;
+	}
+}
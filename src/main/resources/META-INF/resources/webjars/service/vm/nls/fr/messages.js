@@ -59,7 +59,12 @@ define({
 	"vm-operation-success": "Lancement de l'opération {{[1]}} effectuée sur la VM {{[0]}}",
 	"error": {
 		"vm-cron": "Expression CRON invalide",
-		"vm-cron-second": "Expression CRON valide, mais ne doit pas être toutes les secondes"
+		"vm-cron-second": "Expression CRON valide, mais ne doit pas être toutes les secondes",
+		"vm-snapshot-group-size": "Un groupe de snapshots contient de 1 à {{this}} souscriptions",
+		"vm-retention-empty": "Au moins le nombre de snapshots ou le nombre de jours à conserver est requis",
+		"vm-guard-open": "Le noeud {{this}} est temporairement indisponible suite à des erreurs répétées",
+		"vm-guard-busy": "Le noeud {{this}} est trop sollicité",
+		"vm-guard-timeout": "Le noeud {{this}} n'a pas répondu à temps"
 	}
 
 });
\ No newline at end of file
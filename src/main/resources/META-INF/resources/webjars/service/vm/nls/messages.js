@@ -61,7 +61,12 @@ define({
 		"vm-operation-success": "Requesting operation {{[1]}} done on VM {{[0]}}",
 		"error": {
 			"vm-cron": "Invalid CRON expression",
-			"vm-cron-second": "Valid CRON expression, but cannot be every second"
+			"vm-cron-second": "Valid CRON expression, but cannot be every second",
+			"vm-snapshot-group-size": "A snapshot group contains from 1 to {{this}} subscriptions",
+			"vm-retention-empty": "At least one of the amount of snapshots or the amount of days to keep is required",
+			"vm-guard-open": "Node {{this}} is temporarily unavailable after repeated errors",
+			"vm-guard-busy": "Node {{this}} is too busy",
+			"vm-guard-timeout": "Node {{this}} did not answer in time"
 		}
 	},
 	"fr": true
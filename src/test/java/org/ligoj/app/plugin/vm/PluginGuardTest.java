@@ -0,0 +1,231 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jakarta.ws.rs.ForbiddenException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.plugin.vm.execution.Vm;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.snapshot.Snapshotting;
+import org.ligoj.app.plugin.vm.snapshot.VolumeSnapshotting;
+import org.ligoj.app.resource.node.NodeResource;
+import org.ligoj.bootstrap.core.resource.BusinessException;
+import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Test class of {@link PluginGuard}
+ */
+class PluginGuardTest {
+
+	private static final String NODE = "service:vm:test:test";
+
+	private PluginGuard guard;
+
+	private VmExecutionServicePlugin tool;
+
+	@BeforeEach
+	void prepare() {
+		guard = new PluginGuard();
+		guard.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doAnswer(i -> i.getArgument(1)).when(guard.configuration).get(ArgumentMatchers.anyString(),
+				ArgumentMatchers.anyInt());
+		guard.nodeResource = Mockito.mock(NodeResource.class);
+		tool = Mockito.mock(VmExecutionServicePlugin.class);
+		Mockito.doReturn("service:vm:test").when(tool).getKey();
+	}
+
+	@AfterEach
+	void destroy() {
+		guard.destroy();
+	}
+
+	private void configure(final String key, final int value) {
+		Mockito.doReturn(value).when(guard.configuration).get(ArgumentMatchers.eq(key), ArgumentMatchers.anyInt());
+	}
+
+	@Test
+	void wrap() throws Exception {
+		final var vm = new Vm();
+		Mockito.doReturn(vm).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		Assertions.assertNotSame(tool, guarded);
+		Assertions.assertSame(vm, guarded.getVmDetails(Map.of()));
+		Assertions.assertSame(tool, PluginGuard.getTarget(guarded));
+		Assertions.assertSame(tool, PluginGuard.getTarget(tool));
+		Assertions.assertEquals(guarded, guarded);
+		Assertions.assertNotEquals(guarded, tool);
+
+		// Already guarded, or missing plug-in
+		Assertions.assertSame(guarded, guard.wrap(NODE, VmExecutionServicePlugin.class, guarded));
+		Assertions.assertNull(guard.wrap(NODE, VmExecutionServicePlugin.class, null));
+
+		final var status = guard.findAll().getFirst();
+		Assertions.assertEquals(NODE, status.getNode());
+		Assertions.assertEquals("service:vm:test", status.getPlugin());
+		Assertions.assertEquals("closed", status.getState());
+		Assertions.assertEquals(1, status.getCalls());
+		Assertions.assertEquals(0, status.getRunning());
+	}
+
+	@Test
+	void transactional() throws Exception {
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		guarded.getVmDetails(Map.of());
+		TransactionSynchronizationManager.setActualTransactionActive(true);
+		try {
+			guarded.getVmDetails(Map.of());
+		} finally {
+			TransactionSynchronizationManager.setActualTransactionActive(false);
+		}
+		final var status = guard.findAll().getFirst();
+		Assertions.assertEquals(2, status.getCalls());
+		Assertions.assertEquals(1, status.getTransactionalCalls());
+		Assertions.assertTrue(status.getTransactionalTime() >= 0);
+	}
+
+	@Test
+	void wrapSubContract() {
+		final var volumes = Mockito.mock(VolumeSnapshotting.class);
+		Assertions.assertInstanceOf(VolumeSnapshotting.class, guard.wrap(NODE, Snapshotting.class, volumes));
+		Assertions.assertFalse(guard.wrap(NODE, Snapshotting.class, Mockito.mock(Snapshotting.class))
+				instanceof VolumeSnapshotting);
+	}
+
+	@Test
+	void open() throws Exception {
+		configure(PluginGuard.CONF_FAILURES, 2);
+		configure(PluginGuard.CONF_OPEN, 100);
+		Mockito.doThrow(new IllegalStateException("remote-error")).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		final var error = Assertions.assertThrows(IllegalStateException.class, () -> guarded.getVmDetails(Map.of()));
+		Assertions.assertEquals("remote-error", error.getMessage());
+		Assertions.assertThrows(IllegalStateException.class, () -> guarded.getVmDetails(Map.of()));
+
+		// Open, the node is no more reached
+		Assertions.assertEquals(PluginGuardException.OPEN,
+				Assertions.assertThrows(PluginGuardException.class, () -> guarded.getVmDetails(Map.of())).getMessage());
+		Mockito.verify(tool, Mockito.times(2)).getVmDetails(ArgumentMatchers.anyMap());
+		Assertions.assertEquals("open", guard.findAll().getFirst().getState());
+		Assertions.assertEquals(1, guard.findAll().getFirst().getRejected());
+
+		// Half-open, a failed trial call opens it again
+		Thread.sleep(150);
+		Assertions.assertEquals("half-open", guard.findAll().getFirst().getState());
+		Assertions.assertThrows(IllegalStateException.class, () -> guarded.getVmDetails(Map.of()));
+		Assertions.assertThrows(PluginGuardException.class, () -> guarded.getVmDetails(Map.of()));
+
+		// Half-open, a succeeded trial call closes it
+		Thread.sleep(150);
+		Mockito.doReturn(new Vm()).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		Assertions.assertNotNull(guarded.getVmDetails(Map.of()));
+		Assertions.assertNotNull(guarded.getVmDetails(Map.of()));
+		Assertions.assertEquals("closed", guard.findAll().getFirst().getState());
+		Assertions.assertEquals(0, guard.findAll().getFirst().getFailures());
+	}
+
+	@Test
+	void busy() throws Exception {
+		configure(PluginGuard.CONF_CONCURRENCY, 1);
+		configure(PluginGuard.CONF_WAIT, 0);
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		Mockito.doAnswer(i -> {
+			// Nested call while the only slot is held
+			Assertions.assertEquals(PluginGuardException.BUSY, Assertions
+					.assertThrows(PluginGuardException.class, () -> guarded.getVmDetails(Map.of())).getMessage());
+			return new Vm();
+		}).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		Assertions.assertNotNull(guarded.getVmDetails(Map.of()));
+		Assertions.assertEquals(1, guard.findAll().getFirst().getRejected());
+
+		// Load alone does not open the circuit
+		Assertions.assertEquals(0, guard.findAll().getFirst().getFailures());
+		Assertions.assertEquals("closed", guard.findAll().getFirst().getState());
+	}
+
+	@Test
+	void timeoutDefault() throws Exception {
+		final var caller = new AtomicReference<Thread>();
+		Mockito.doAnswer(i -> {
+			caller.set(Thread.currentThread());
+			return new Vm();
+		}).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+
+		// Not bounded by default, so the call runs in the caller thread
+		guarded.getVmDetails(Map.of());
+		Assertions.assertSame(Thread.currentThread(), caller.get());
+		configure(PluginGuard.CONF_TIMEOUT, 1000);
+		guarded.getVmDetails(Map.of());
+		Assertions.assertNotSame(Thread.currentThread(), caller.get());
+	}
+
+	@Test
+	void businessNotFailure() throws Exception {
+		configure(PluginGuard.CONF_FAILURES, 1);
+		Mockito.doThrow(new BusinessException("vm-invalid")).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		Mockito.doThrow(new ValidationJsonException("id", "invalid")).when(tool).execute(ArgumentMatchers.any());
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		Assertions.assertThrows(BusinessException.class, () -> guarded.getVmDetails(Map.of()));
+		Assertions.assertThrows(ValidationJsonException.class, () -> guarded.execute(null));
+
+		// The node has answered, the breaker stays closed
+		Assertions.assertThrows(BusinessException.class, () -> guarded.getVmDetails(Map.of()));
+		Assertions.assertEquals("closed", guard.findAll().getFirst().getState());
+		Assertions.assertEquals(0, guard.findAll().getFirst().getFailures());
+	}
+
+	@Test
+	void servicePluginNotGuarded() throws Exception {
+		configure(PluginGuard.CONF_FAILURES, 1);
+		Mockito.doThrow(new IllegalStateException("remote-error")).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		Assertions.assertThrows(IllegalStateException.class, () -> guarded.getVmDetails(Map.of()));
+		Assertions.assertEquals("open", guard.findAll().getFirst().getState());
+
+		// The plug-in description is still available, and is not a call
+		Assertions.assertEquals("service:vm:test", guarded.getKey());
+		Assertions.assertEquals(1, guard.findAll().getFirst().getCalls());
+	}
+
+	@Test
+	void findAllNotAdmin() {
+		Mockito.doThrow(new ForbiddenException()).when(guard.nodeResource).checkWritableNode("service:vm");
+		Assertions.assertThrows(ForbiddenException.class, guard::findAll);
+	}
+
+	@Test
+	void timeout() throws Exception {
+		configure(PluginGuard.CONF_TIMEOUT, 100);
+		Mockito.doAnswer(i -> {
+			Thread.sleep(1000);
+			return new Vm();
+		}).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		Assertions.assertEquals(PluginGuardException.TIMEOUT,
+				Assertions.assertThrows(PluginGuardException.class, () -> guarded.getVmDetails(Map.of())).getMessage());
+		Assertions.assertEquals(1, guard.findAll().getFirst().getTimeouts());
+	}
+
+	@Test
+	void timeoutNotReached() throws Exception {
+		configure(PluginGuard.CONF_TIMEOUT, 1000);
+		Mockito.doReturn(new Vm()).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		Mockito.doThrow(new IllegalStateException("remote-error")).when(tool).execute(ArgumentMatchers.any());
+		final var guarded = guard.wrap(NODE, VmExecutionServicePlugin.class, tool);
+		Assertions.assertNotNull(guarded.getVmDetails(Map.of()));
+		Assertions.assertEquals("remote-error",
+				Assertions.assertThrows(IllegalStateException.class, () -> guarded.execute(null)).getMessage());
+	}
+}
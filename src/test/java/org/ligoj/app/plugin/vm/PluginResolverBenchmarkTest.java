@@ -0,0 +1,77 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import jakarta.transaction.Transactional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.api.ConfigurablePlugin;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Benchmark of the {@link PluginResolver} lookups against the direct lookups of the real {@link ServicePluginLocator}.
+ * The plug-in of a leaf node is resolved through the node refinement. Only run with the "scale" Maven profile.
+ */
+@Slf4j
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+@Tag(ScaleReport.TAG)
+class PluginResolverBenchmarkTest extends AbstractServerTest {
+
+	private static final String NODE = "service:vm:test:test";
+
+	@Autowired
+	private ServicePluginLocator locator;
+
+	@Autowired
+	private PluginResolver resolver;
+
+	@BeforeEach
+	void prepareData() throws IOException {
+		persistEntities("csv", new Class<?>[]{Node.class}, StandardCharsets.UTF_8);
+		resolver.onApplicationEvent(null);
+	}
+
+	@Test
+	void benchmark() throws IOException {
+		final var iterations = ScaleReport.getParameter("lookups", 10000);
+
+		// Warm up both paths
+		Assertions.assertNotNull(locator.getResource(NODE, ConfigurablePlugin.class));
+		Assertions.assertNotNull(resolver.getResource(locator, NODE, ConfigurablePlugin.class));
+
+		final var direct = new ArrayList<Long>();
+		final var memoized = new ArrayList<Long>();
+		for (var i = 0; i < iterations; i++) {
+			var start = System.nanoTime();
+			locator.getResource(NODE, ConfigurablePlugin.class);
+			direct.add(System.nanoTime() - start);
+			start = System.nanoTime();
+			resolver.getResource(locator, NODE, ConfigurablePlugin.class);
+			memoized.add(System.nanoTime() - start);
+		}
+		final var report = new ScaleReport("plugin-resolver-benchmark").put("lookups", iterations);
+		report.putPercentiles("directNs", direct).putPercentiles("memoizedNs", memoized);
+		log.info("Plug-in lookups: {}", report.getMetrics());
+		report.write();
+	}
+}
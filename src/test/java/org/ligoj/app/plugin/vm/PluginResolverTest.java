@@ -0,0 +1,83 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.snapshot.Snapshotting;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+/**
+ * Test class of {@link PluginResolver}
+ */
+class PluginResolverTest {
+
+	private static final String NODE = "service:vm:test:test";
+
+	private PluginResolver resolver;
+
+	private ServicePluginLocator locator;
+
+	private VmExecutionServicePlugin tool;
+
+	@BeforeEach
+	void prepare() {
+		resolver = new PluginResolver();
+		resolver.guard = Mockito.mock(PluginGuard.class);
+		Mockito.doAnswer(i -> i.getArgument(2)).when(resolver.guard).wrap(ArgumentMatchers.anyString(),
+				ArgumentMatchers.any(), ArgumentMatchers.any());
+		locator = Mockito.mock(ServicePluginLocator.class);
+		tool = Mockito.mock(VmExecutionServicePlugin.class);
+		Mockito.doReturn(tool).when(locator).getResource(NODE, VmExecutionServicePlugin.class);
+	}
+
+	@Test
+	void getResource() {
+		Assertions.assertSame(tool, resolver.getResource(locator, NODE, VmExecutionServicePlugin.class));
+		Assertions.assertSame(tool, resolver.getResource(locator, NODE, VmExecutionServicePlugin.class));
+		Mockito.verify(locator).getResource(NODE, VmExecutionServicePlugin.class);
+
+		// Missing plug-in is memoized too
+		Assertions.assertNull(resolver.getResource(locator, NODE, Snapshotting.class));
+		Assertions.assertNull(resolver.getResource(locator, NODE, Snapshotting.class));
+		Mockito.verify(locator).getResource(NODE, Snapshotting.class);
+	}
+
+	@Test
+	void getResourcePerLocator() {
+		final var other = Mockito.mock(ServicePluginLocator.class);
+		resolver.getResource(locator, NODE, VmExecutionServicePlugin.class);
+		Assertions.assertNull(resolver.getResource(other, NODE, VmExecutionServicePlugin.class));
+		Mockito.verify(other).getResource(NODE, VmExecutionServicePlugin.class);
+	}
+
+	@Test
+	void getResourceExpected() {
+		Assertions.assertSame(tool, resolver.getResourceExpected(locator, NODE, VmExecutionServicePlugin.class));
+		Mockito.verify(locator, Mockito.never()).getResourceExpected(NODE, VmExecutionServicePlugin.class);
+	}
+
+	@Test
+	void getResourceExpectedNotFound() {
+		Mockito.doThrow(new IllegalStateException("not-found")).when(locator).getResourceExpected(NODE,
+				Snapshotting.class);
+		Assertions.assertEquals("not-found", Assertions.assertThrows(IllegalStateException.class,
+				() -> resolver.getResourceExpected(locator, NODE, Snapshotting.class)).getMessage());
+	}
+
+	@Test
+	void onApplicationEvent() {
+		resolver.getResource(locator, NODE, VmExecutionServicePlugin.class);
+		resolver.onApplicationEvent(null);
+
+		// Plug-in reloaded
+		final var reloaded = Mockito.mock(VmExecutionServicePlugin.class);
+		Mockito.doReturn(reloaded).when(locator).getResource(NODE, VmExecutionServicePlugin.class);
+		Assertions.assertSame(reloaded, resolver.getResource(locator, NODE, VmExecutionServicePlugin.class));
+	}
+}
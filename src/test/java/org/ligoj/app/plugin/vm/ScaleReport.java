@@ -0,0 +1,118 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Machine-readable report of a scale test, written as JSON into the directory given by the "vm.scale.report" system
+ * property, "target/scale" by default.
+ */
+@Slf4j
+public class ScaleReport {
+
+	/**
+	 * Tag of the scale tests, only run with the "scale" Maven profile.
+	 */
+	public static final String TAG = "scale";
+
+	private final String name;
+
+	@Getter
+	private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+	/**
+	 * Constructor with the report name.
+	 *
+	 * @param name The report name, also the file name without extension.
+	 */
+	public ScaleReport(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Return the integer parameter of a scale test.
+	 *
+	 * @param name         The parameter name, read from the "vm.scale.[name]" system property.
+	 * @param defaultValue The default value.
+	 * @return The parameter value.
+	 */
+	public static int getParameter(final String name, final int defaultValue) {
+		return Integer.getInteger("vm.scale." + name, defaultValue);
+	}
+
+	/**
+	 * Add a metric.
+	 *
+	 * @param metric The metric name.
+	 * @param value  The metric value.
+	 * @return This report.
+	 */
+	public ScaleReport put(final String metric, final Object value) {
+		metrics.put(metric, value);
+		return this;
+	}
+
+	/**
+	 * Add the percentiles 50, 90, 99 and the maximum of the given values.
+	 *
+	 * @param metric The metric name, prefix of each percentile.
+	 * @param values The measured values.
+	 * @return This report.
+	 */
+	public ScaleReport putPercentiles(final String metric, final Collection<Long> values) {
+		final var sorted = new ArrayList<>(values);
+		Collections.sort(sorted);
+		put(metric + "P50", percentile(sorted, 50));
+		put(metric + "P90", percentile(sorted, 90));
+		put(metric + "P99", percentile(sorted, 99));
+		return put(metric + "Max", sorted.isEmpty() ? 0 : sorted.getLast());
+	}
+
+	private long percentile(final List<Long> sorted, final int percentile) {
+		if (sorted.isEmpty()) {
+			return 0;
+		}
+		return sorted.get(Math.max(0, (int) Math.ceil(percentile / 100d * sorted.size()) - 1));
+	}
+
+	/**
+	 * Return the used heap after a garbage collection.
+	 *
+	 * @return The used heap, in bytes.
+	 */
+	public static long getUsedHeap() {
+		final var runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Write this report.
+	 *
+	 * @return The written file.
+	 * @throws IOException When the report cannot be written.
+	 */
+	public File write() throws IOException {
+		final var directory = new File(System.getProperty("vm.scale.report", "target/scale"));
+		directory.mkdirs();
+		final var file = new File(directory, name + ".json");
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, metrics);
+		log.info("Scale report {}: {}", file, metrics);
+		return file;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class of {@link ScaleReport}
+ */
+class ScaleReportTest {
+
+	@Test
+	void write(@TempDir final Path directory) throws IOException {
+		System.setProperty("vm.scale.report", directory.toString());
+		try {
+			final var report = new ScaleReport("test").put("count", 3);
+			report.putPercentiles("lag", List.of(5L, 1L, 3L, 2L, 4L, 6L, 7L, 8L, 9L, 10L));
+			Assertions.assertEquals(5L, report.getMetrics().get("lagP50"));
+			Assertions.assertEquals(9L, report.getMetrics().get("lagP90"));
+			Assertions.assertEquals(10L, report.getMetrics().get("lagP99"));
+			Assertions.assertEquals(10L, report.getMetrics().get("lagMax"));
+
+			final var json = Files.readString(report.write().toPath());
+			Assertions.assertTrue(json.contains("\"count\" : 3"));
+			Assertions.assertTrue(json.contains("\"lagP90\" : 9"));
+		} finally {
+			System.clearProperty("vm.scale.report");
+		}
+	}
+
+	@Test
+	void putPercentilesEmpty() {
+		final var report = new ScaleReport("test").putPercentiles("lag", List.of());
+		Assertions.assertEquals(0L, report.getMetrics().get("lagP50"));
+		Assertions.assertEquals(0L, report.getMetrics().get("lagMax"));
+	}
+
+	@Test
+	void getParameter() {
+		Assertions.assertEquals(12, ScaleReport.getParameter("unknown", 12));
+	}
+}
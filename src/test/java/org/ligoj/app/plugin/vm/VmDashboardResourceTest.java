@@ -0,0 +1,172 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+
+import jakarta.transaction.Transactional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.execution.Vm;
+import org.ligoj.app.plugin.vm.execution.VmExecutionResource;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.model.VmExecutionStatus;
+import org.ligoj.app.plugin.vm.model.VmSchedule;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.plugin.vm.schedule.VmScheduleResource;
+import org.ligoj.app.plugin.vm.schedule.VmScheduleVo;
+import org.ligoj.app.plugin.vm.snapshot.Snapshot;
+import org.ligoj.app.plugin.vm.snapshot.Snapshotting;
+import org.ligoj.app.plugin.vm.snapshot.VmSnapshotResource;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link VmDashboardResource}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+class VmDashboardResourceTest extends AbstractServerTest {
+
+	private VmDashboardResource resource;
+
+	private int subscription;
+
+	private VmExecutionServicePlugin tool;
+
+	private Snapshotting snap;
+
+	@Autowired
+	private ConfigurationResource configuration;
+
+	@BeforeEach
+	void prepareData() throws IOException, ParseException {
+		// Only with Spring context
+		persistEntities("csv", new Class<?>[]{Node.class, Project.class, Subscription.class, VmSchedule.class},
+				StandardCharsets.UTF_8);
+		subscription = getSubscription("Jupiter", VmResource.SERVICE_KEY);
+		resource = new VmDashboardResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		resource.locator = Mockito.mock(ServicePluginLocator.class);
+		tool = Mockito.mock(VmExecutionServicePlugin.class);
+		snap = Mockito.mock(Snapshotting.class);
+		Mockito.doReturn(tool).when(resource.locator).getResourceExpected("service:vm:test:test",
+				VmExecutionServicePlugin.class);
+		resource.cache.invalidate(subscription);
+
+		// The parts run outside the test transaction
+		resource.scheduleResource = Mockito.mock(VmScheduleResource.class);
+		Mockito.doReturn(List.of(new VmScheduleVo())).when(resource.scheduleResource).findAll(subscription);
+	}
+
+	@AfterEach
+	void destroy() {
+		resource.destroy();
+	}
+
+	@Test
+	void get() throws Exception {
+		final var vm = new Vm();
+		vm.setId("vm-1");
+		Mockito.doReturn(vm).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		final var snapshot = new Snapshot();
+		snapshot.setId("snap-1");
+		Mockito.doReturn(List.of(snapshot)).when(snap).findAllSnapshots(subscription, "");
+		Mockito.doReturn(snap).when(resource.locator).getResource("service:vm:test:test", Snapshotting.class);
+
+		final var dashboard = resource.get(subscription);
+		Assertions.assertTrue(dashboard.getErrors().isEmpty());
+		Assertions.assertEquals("vm-1", dashboard.getVm().getId());
+		Assertions.assertEquals("snap-1", dashboard.getSnapshots().getFirst().getId());
+		Assertions.assertEquals(1, dashboard.getConfiguration().getSchedules().size());
+		Assertions.assertTrue(dashboard.getConfiguration().isSupportSnapshot());
+		Assertions.assertNull(dashboard.getExecution());
+		Assertions.assertNull(dashboard.getSnapshot());
+	}
+
+	@Test
+	void getPartial() throws Exception {
+		// The VM part is too slow, and snapshot is not supported
+		configuration.put(VmDashboardResource.CONF_TIMEOUT, "100");
+		Mockito.doAnswer(i -> {
+			Thread.sleep(1000);
+			return new Vm();
+		}).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+
+		final var dashboard = resource.get(subscription);
+		Assertions.assertNull(dashboard.getVm());
+		Assertions.assertEquals(VmDashboardResource.ERROR_TIMEOUT, dashboard.getErrors().get(VmDashboardResource.PART_VM));
+		Assertions.assertNull(dashboard.getSnapshots());
+		Assertions.assertFalse(dashboard.getConfiguration().isSupportSnapshot());
+		Assertions.assertEquals(1, dashboard.getErrors().size());
+	}
+
+	@Test
+	void getPartTimeout() throws Exception {
+		// Only the configuration part has a shorter timeout
+		configuration.put(VmDashboardResource.CONF_TIMEOUT + "-" + VmDashboardResource.PART_CONFIGURATION, "100");
+		Mockito.doAnswer(i -> {
+			Thread.sleep(1000);
+			return List.of();
+		}).when(resource.scheduleResource).findAll(subscription);
+		Mockito.doAnswer(i -> {
+			Thread.sleep(200);
+			return new Vm();
+		}).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+
+		final var dashboard = resource.get(subscription);
+		Assertions.assertNotNull(dashboard.getVm());
+		Assertions.assertNull(dashboard.getConfiguration());
+		Assertions.assertEquals(VmDashboardResource.ERROR_TIMEOUT,
+				dashboard.getErrors().get(VmDashboardResource.PART_CONFIGURATION));
+		Assertions.assertEquals(1, dashboard.getErrors().size());
+	}
+
+	@Test
+	void getTasks() {
+		final var execution = new VmExecutionStatus();
+		resource.executionResource = Mockito.mock(VmExecutionResource.class);
+		Mockito.doReturn(execution).when(resource.executionResource).getTask(subscription);
+		final var snapshot = new VmSnapshotStatus();
+		resource.snapshotResource = Mockito.mock(VmSnapshotResource.class);
+		Mockito.doReturn(snapshot).when(resource.snapshotResource).getTask(subscription);
+
+		// The tasks are completed by their endpoints
+		final var dashboard = resource.get(subscription);
+		Assertions.assertSame(execution, dashboard.getExecution());
+		Assertions.assertSame(snapshot, dashboard.getSnapshot());
+	}
+
+	@Test
+	void getFailed() throws Exception {
+		Mockito.doThrow(new IllegalStateException("remote-error")).when(tool)
+				.getVmDetails(ArgumentMatchers.anyMap());
+		Mockito.doThrow(new IllegalStateException()).when(snap).findAllSnapshots(subscription, "");
+		Mockito.doReturn(snap).when(resource.locator).getResource("service:vm:test:test", Snapshotting.class);
+
+		final var dashboard = resource.get(subscription);
+		Assertions.assertEquals("remote-error", dashboard.getErrors().get(VmDashboardResource.PART_VM));
+		Assertions.assertEquals("IllegalStateException", dashboard.getErrors().get(VmDashboardResource.PART_SNAPSHOTS));
+		Assertions.assertNotNull(dashboard.getConfiguration());
+	}
+}
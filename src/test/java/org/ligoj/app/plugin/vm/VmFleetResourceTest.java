@@ -0,0 +1,105 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import jakarta.transaction.Transactional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.dao.SubscriptionRepository;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.dao.VmInventoryRepository;
+import org.ligoj.app.plugin.vm.model.VmInventory;
+import org.ligoj.app.plugin.vm.model.VmStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link VmFleetResource}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+class VmFleetResourceTest extends AbstractServerTest {
+
+	@Autowired
+	private VmFleetResource resource;
+
+	@Autowired
+	private VmInventoryRepository inventoryRepository;
+
+	@Autowired
+	private SubscriptionRepository subscriptionRepository;
+
+	private int subscription;
+
+	@BeforeEach
+	void prepareData() throws IOException {
+		// Only with Spring context
+		persistEntities("csv", new Class<?>[]{Node.class, Project.class, Subscription.class}, StandardCharsets.UTF_8);
+		subscription = getSubscription("Jupiter", VmResource.SERVICE_KEY);
+	}
+
+	private void newInventory(final VmStatus status) {
+		final var inventory = new VmInventory();
+		inventory.setSubscription(subscriptionRepository.findOneExpected(subscription));
+		inventory.setVm("vm-1");
+		inventory.setStatus(status);
+		inventory.setCpu(2);
+		inventory.setRam(1024);
+		inventory.setRefreshed(Instant.ofEpochMilli(1000L));
+		inventoryRepository.saveAndFlush(inventory);
+	}
+
+	@Test
+	void get() {
+		newInventory(VmStatus.POWERED_ON);
+		final var fleet = resource.get("service:vm");
+		Assertions.assertEquals("service:vm", fleet.getNode());
+		Assertions.assertEquals(1000L, fleet.getDate().getTime());
+		Assertions.assertEquals(1, fleet.getTotal());
+		Assertions.assertEquals(0, fleet.getUnknown());
+		Assertions.assertEquals(1, fleet.getCounts().get(VmStatus.POWERED_ON));
+		Assertions.assertEquals(2, fleet.getCpu());
+		Assertions.assertEquals(1024, fleet.getRam());
+	}
+
+	@Test
+	void getPoweredOff() {
+		newInventory(VmStatus.POWERED_OFF);
+		final var fleet = resource.get("service:vm:test");
+		Assertions.assertEquals(1, fleet.getTotal());
+		Assertions.assertEquals(1, fleet.getCounts().get(VmStatus.POWERED_OFF));
+		Assertions.assertEquals(0, fleet.getCpu());
+		Assertions.assertEquals(0, fleet.getRam());
+	}
+
+	@Test
+	void getUnknown() {
+		final var fleet = resource.get("service:vm");
+		Assertions.assertEquals(1, fleet.getTotal());
+		Assertions.assertEquals(1, fleet.getUnknown());
+		Assertions.assertNull(fleet.getDate());
+		Assertions.assertTrue(fleet.getCounts().isEmpty());
+	}
+
+	@Test
+	void getNoSubscription() {
+		final var fleet = resource.get("service:vm:any");
+		Assertions.assertEquals(0, fleet.getTotal());
+		Assertions.assertEquals(0, fleet.getUnknown());
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.schedule.VmScheduleVo;
+import org.ligoj.app.resource.subscription.SubscriptionResource;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.Mockito;
+
+/**
+ * Test class of {@link VmSubscriptionCache}
+ */
+class VmSubscriptionCacheTest {
+
+	private VmSubscriptionCache cache;
+
+	private SubscriptionResource resource;
+
+	private final Subscription subscription = new Subscription();
+
+	@BeforeEach
+	void prepare() {
+		cache = new VmSubscriptionCache();
+		cache.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(60).when(cache.configuration).get(VmSubscriptionCache.CONF_TTL, 60);
+		cache.securityHelper = Mockito.mock(SecurityHelper.class);
+		Mockito.doReturn("junit").when(cache.securityHelper).getLogin();
+		resource = Mockito.mock(SubscriptionResource.class);
+		Mockito.doReturn(subscription).when(resource).checkVisible(1);
+		Mockito.doReturn(Map.of("key", "value")).when(resource).getParametersNoCheck(1);
+	}
+
+	@Test
+	void checkVisible() {
+		Assertions.assertSame(subscription, cache.checkVisible(resource, 1));
+		Assertions.assertSame(subscription, cache.checkVisible(resource, 1));
+		Mockito.verify(resource).checkVisible(1);
+	}
+
+	@Test
+	void checkVisiblePerUser() {
+		cache.checkVisible(resource, 1);
+		Mockito.doReturn("other").when(cache.securityHelper).getLogin();
+		cache.checkVisible(resource, 1);
+		Mockito.verify(resource, Mockito.times(2)).checkVisible(1);
+	}
+
+	@Test
+	void checkVisibleFailed() {
+		Mockito.doThrow(new IllegalStateException("not-visible")).when(resource).checkVisible(2);
+		Assertions.assertThrows(IllegalStateException.class, () -> cache.checkVisible(resource, 2));
+		Assertions.assertThrows(IllegalStateException.class, () -> cache.checkVisible(resource, 2));
+		Mockito.verify(resource, Mockito.times(2)).checkVisible(2);
+	}
+
+	@Test
+	void getParameters() {
+		final var parameters = cache.getParameters(resource, 1);
+		Assertions.assertEquals("value", parameters.get("key"));
+
+		// The returned map is a copy
+		parameters.put("key", "changed");
+		Assertions.assertEquals("value", cache.getParameters(resource, 1).get("key"));
+		Mockito.verify(resource).getParametersNoCheck(1);
+	}
+
+	@Test
+	void invalidateSchedules() {
+		final var loads = new AtomicInteger();
+		cache.checkVisible(resource, 1);
+		cache.getSchedules(1, () -> load(loads));
+		cache.getSchedules(2, () -> load(loads));
+		Assertions.assertEquals(2, loads.get());
+
+		cache.invalidateSchedules(1);
+		cache.getSchedules(1, () -> load(loads));
+		cache.getSchedules(2, () -> load(loads));
+		Assertions.assertEquals(3, loads.get());
+
+		// The visibility of this subscription is kept
+		cache.checkVisible(resource, 1);
+		Mockito.verify(resource).checkVisible(1);
+	}
+
+	@Test
+	void invalidate() {
+		cache.checkVisible(resource, 1);
+		cache.getParameters(resource, 1);
+		cache.invalidate(1);
+		cache.checkVisible(resource, 1);
+		cache.getParameters(resource, 1);
+		Mockito.verify(resource, Mockito.times(2)).checkVisible(1);
+		Mockito.verify(resource, Mockito.times(2)).getParametersNoCheck(1);
+	}
+
+	@Test
+	void invalidateDuringLoad() {
+		final var loads = new AtomicInteger();
+		cache.getSchedules(1, () -> {
+			// Concurrent change while the previous state is loaded
+			cache.invalidateSchedules(1);
+			return load(loads);
+		});
+		cache.getSchedules(1, () -> load(loads));
+		Assertions.assertEquals(2, loads.get());
+	}
+
+	@Test
+	void disabled() {
+		Mockito.doReturn(0).when(cache.configuration).get(VmSubscriptionCache.CONF_TTL, 60);
+		cache.checkVisible(resource, 1);
+		cache.checkVisible(resource, 1);
+		Mockito.verify(resource, Mockito.times(2)).checkVisible(1);
+	}
+
+	private List<VmScheduleVo> load(final AtomicInteger loads) {
+		loads.incrementAndGet();
+		return List.of(new VmScheduleVo());
+	}
+}
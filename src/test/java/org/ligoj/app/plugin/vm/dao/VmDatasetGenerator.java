@@ -0,0 +1,159 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import jakarta.persistence.EntityManager;
+
+import org.hibernate.SessionFactory;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.model.VmExecution;
+import org.ligoj.app.plugin.vm.model.VmOperation;
+import org.ligoj.app.plugin.vm.model.VmSchedule;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generator of a realistic VM dataset: projects, subscriptions spread over the test nodes, schedules and executions.
+ * The rows are inserted with a stateless session and committed by chunks, so the volume is only bound by the
+ * database. The test nodes must already exist.
+ */
+@Slf4j
+public class VmDatasetGenerator {
+
+	/**
+	 * Prefix of the generated project keys.
+	 */
+	public static final String PREFIX = "bench-";
+
+	/**
+	 * Nodes of the generated subscriptions.
+	 */
+	public static final List<String> NODES = List.of("service:vm:test:test", "service:vm:test");
+
+	/**
+	 * Team leader of one project out of one hundred.
+	 */
+	public static final String LEADER = "fdaugan";
+
+	private static final int CHUNK = 10000;
+
+	private static final VmOperation[] OPERATIONS = VmOperation.values();
+
+	private final SessionFactory sessionFactory;
+
+	private final Random random = new Random(1);
+
+	/**
+	 * Generated subscriptions identifiers.
+	 */
+	@Getter
+	private final List<Integer> subscriptions = new ArrayList<>();
+
+	/**
+	 * Constructor with the entity manager giving the session factory.
+	 *
+	 * @param em The entity manager.
+	 */
+	public VmDatasetGenerator(final EntityManager em) {
+		this.sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactory.class);
+	}
+
+	/**
+	 * Generate the dataset.
+	 *
+	 * @param projects      Amount of projects.
+	 * @param subscriptions Amount of subscriptions, spread over the projects and the nodes.
+	 * @param schedules     Amount of schedules, spread over the subscriptions.
+	 * @param executions    Amount of executions, spread over the subscriptions, one minute apart.
+	 */
+	public void generate(final int projects, final int subscriptions, final int schedules, final int executions) {
+		final var start = System.currentTimeMillis();
+		final var projectIds = new ArrayList<Integer>();
+		insert(projects, i -> {
+			final var project = new Project();
+			project.setPkey(PREFIX + i);
+			project.setName("Bench " + i);
+			project.setTeamLeader(i % 100 == 0 ? LEADER : PREFIX + "leader-" + i % 50);
+			return project;
+		}, id -> projectIds.add((Integer) id));
+		insert(subscriptions, i -> {
+			final var subscription = new Subscription();
+			final var project = new Project();
+			project.setId(projectIds.get(i % projects));
+			subscription.setProject(project);
+			final var node = new Node();
+			node.setId(NODES.get(i % NODES.size()));
+			subscription.setNode(node);
+			return subscription;
+		}, id -> this.subscriptions.add((Integer) id));
+		insert(schedules, i -> {
+			final var schedule = new VmSchedule();
+			schedule.setSubscription(getSubscription(i));
+			schedule.setCron("0 0 " + i % 24 + " ? * MON-FRI");
+			schedule.setOperation(i % 2 == 0 ? VmOperation.OFF : VmOperation.ON);
+			return schedule;
+		}, id -> {
+		});
+		final var first = Instant.now().minus(executions, ChronoUnit.MINUTES);
+		insert(executions, i -> {
+			final var execution = new VmExecution();
+			execution.setSubscription(getSubscription(i));
+			execution.setDate(first.plus(i, ChronoUnit.MINUTES));
+			execution.setOperation(OPERATIONS[random.nextInt(OPERATIONS.length)]);
+			execution.setTrigger(i % 3 == 0 ? LEADER : "_system");
+			execution.setSucceed(random.nextInt(100) > 2);
+			execution.setVm("vm-" + i % subscriptions);
+			return execution;
+		}, id -> {
+		});
+		log.info("Generated {} projects, {} subscriptions, {} schedules and {} executions in {}ms", projects,
+				subscriptions, schedules, executions, System.currentTimeMillis() - start);
+	}
+
+	private Subscription getSubscription(final int index) {
+		final var subscription = new Subscription();
+		subscription.setId(subscriptions.get(index % subscriptions.size()));
+		return subscription;
+	}
+
+	private void insert(final int count, final IntFunction<Object> factory, final Consumer<Object> ids) {
+		try (var session = sessionFactory.openStatelessSession()) {
+			for (var from = 0; from < count; from += CHUNK) {
+				final var transaction = session.beginTransaction();
+				for (var i = from; i < Math.min(count, from + CHUNK); i++) {
+					ids.accept(session.insert(factory.apply(i)));
+				}
+				transaction.commit();
+			}
+		}
+	}
+
+	/**
+	 * Delete the generated dataset. Must be called within a transaction.
+	 *
+	 * @param em The entity manager.
+	 */
+	public static void clean(final EntityManager em) {
+		final var subscriptions = "(SELECT s.id FROM Subscription s WHERE s.project.pkey LIKE :prefix)";
+		em.createQuery("DELETE FROM VmExecution WHERE subscription.id IN " + subscriptions)
+				.setParameter("prefix", PREFIX + "%").executeUpdate();
+		em.createQuery("DELETE FROM VmSchedule WHERE subscription.id IN " + subscriptions)
+				.setParameter("prefix", PREFIX + "%").executeUpdate();
+		em.createQuery("DELETE FROM Subscription WHERE project.id IN (SELECT id FROM Project WHERE pkey LIKE :prefix)")
+				.setParameter("prefix", PREFIX + "%").executeUpdate();
+		em.createQuery("DELETE FROM Project WHERE pkey LIKE :prefix").setParameter("prefix", PREFIX + "%")
+				.executeUpdate();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Test class of {@link VmReadReplica}
+ */
+class VmReadReplicaTest {
+
+	private EmbeddedDatabase primary;
+
+	private EmbeddedDatabase replica;
+
+	@BeforeEach
+	void prepare() {
+		primary = newDatabase("primary");
+		replica = newDatabase("replica");
+	}
+
+	@AfterEach
+	void shutdown() {
+		primary.shutdown();
+		replica.shutdown();
+	}
+
+	/**
+	 * Create an embedded database with a single row identifying this database.
+	 */
+	private EmbeddedDatabase newDatabase(final String name) {
+		final var database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.HSQL).generateUniqueName(true)
+				.build();
+		final var jdbc = new JdbcTemplate(database);
+		jdbc.execute("CREATE TABLE origin (name VARCHAR(10))");
+		jdbc.update("INSERT INTO origin (name) VALUES (?)", name);
+		return database;
+	}
+
+	private DataSource route(final boolean withReplica) {
+		final var factory = new DefaultListableBeanFactory();
+		if (withReplica) {
+			factory.registerSingleton(VmReadReplica.REPLICA_BEAN, replica);
+		}
+		final var processor = new VmReadReplica();
+		processor.setBeanFactory(factory);
+		return (DataSource) processor.postProcessAfterInitialization(primary, VmReadReplica.PRIMARY_BEAN);
+	}
+
+	private String query(final DataSource dataSource, final boolean readOnly, final boolean replica) {
+		final var template = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		template.setReadOnly(readOnly);
+		return template.execute(s -> {
+			final Supplier<String> query = () -> new JdbcTemplate(dataSource).queryForObject("SELECT name FROM origin",
+					String.class);
+			return replica ? VmReadReplica.read(query) : query.get();
+		});
+	}
+
+	/**
+	 * Run the query within a read-only transaction of the JPA transaction manager used by the resources.
+	 */
+	private String queryJpa(final DataSource dataSource, final boolean replica) {
+		final var factory = new LocalContainerEntityManagerFactoryBean();
+		factory.setDataSource(dataSource);
+		factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		factory.setPackagesToScan(VmReadReplicaTest.class.getPackageName());
+		factory.afterPropertiesSet();
+		final var emf = factory.getObject();
+		try {
+			final var template = new TransactionTemplate(new JpaTransactionManager(emf));
+			template.setReadOnly(true);
+			return template.execute(s -> {
+				final Supplier<String> query = () -> (String) EntityManagerFactoryUtils
+						.getTransactionalEntityManager(emf).createNativeQuery("SELECT name FROM origin")
+						.getSingleResult();
+				return replica ? VmReadReplica.read(query) : query.get();
+			});
+		} finally {
+			factory.destroy();
+		}
+	}
+
+	@Test
+	void readJpa() {
+		Assertions.assertEquals("replica", queryJpa(route(true), true));
+	}
+
+	@Test
+	void readJpaOutside() {
+		Assertions.assertEquals("primary", queryJpa(route(true), false));
+	}
+
+	@Test
+	void read() {
+		Assertions.assertEquals("replica", query(route(true), true, true));
+	}
+
+	@Test
+	void readNotReadOnly() {
+		Assertions.assertEquals("primary", query(route(true), false, true));
+	}
+
+	@Test
+	void readOnlyOutside() {
+		Assertions.assertEquals("primary", query(route(true), true, false));
+	}
+
+	@Test
+	void readNested() {
+		final var dataSource = route(true);
+		Assertions.assertEquals("replica", VmReadReplica.read(() -> {
+			// The inner scope does not leave the outer one
+			VmReadReplica.read(() -> null);
+			return query(dataSource, true, false);
+		}));
+
+		// The scope is left
+		Assertions.assertEquals("primary", query(dataSource, true, false));
+	}
+
+	@Test
+	void noReplica() {
+		Assertions.assertSame(primary, route(false));
+		Assertions.assertEquals("primary", query(primary, true, true));
+	}
+
+	@Test
+	void otherBean() {
+		final var processor = new VmReadReplica();
+		final var factory = new DefaultListableBeanFactory();
+		factory.registerSingleton(VmReadReplica.REPLICA_BEAN, replica);
+		processor.setBeanFactory(factory);
+		Assertions.assertSame(replica, processor.postProcessAfterInitialization(replica, VmReadReplica.REPLICA_BEAN));
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.dao;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.plugin.vm.ScaleReport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Benchmark of all queries of {@link VmExecutionRepository} and {@link VmScheduleRepository} against a generated
+ * dataset. Each query is timed, and its SQL and plan are reported. Only run with the "scale" Maven profile.
+ */
+@Slf4j
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Tag(ScaleReport.TAG)
+class VmRepositoryBenchmarkTest extends AbstractServerTest {
+
+	/**
+	 * JPQL parameters, in their order of appearance.
+	 */
+	private static final Pattern PARAMETER = Pattern.compile(":(\\w+)|\\?(\\d+)");
+
+	/**
+	 * A benchmarked query call.
+	 *
+	 * @param name       The case name.
+	 * @param repository The repository.
+	 * @param method     The query method.
+	 * @param args       The call arguments.
+	 */
+	private record Case(String name, Object repository, Method method, Object... args) {
+	}
+
+	@Autowired
+	private VmExecutionRepository executionRepository;
+
+	@Autowired
+	private VmScheduleRepository scheduleRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transaction;
+
+	private VmDatasetGenerator generator;
+
+	@BeforeEach
+	void prepareData() {
+		transaction = new TransactionTemplate(transactionManager);
+		transaction.executeWithoutResult(s -> {
+			try {
+				persistEntities("csv", new Class<?>[]{Node.class, Project.class}, StandardCharsets.UTF_8);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		generator = new VmDatasetGenerator(em);
+		generator.generate(ScaleReport.getParameter("projects", 10000),
+				ScaleReport.getParameter("subscriptions", 100000), ScaleReport.getParameter("schedules", 100000),
+				ScaleReport.getParameter("executions", 1000000));
+	}
+
+	@AfterEach
+	void cleanData() {
+		transaction.executeWithoutResult(s -> VmDatasetGenerator.clean(em));
+	}
+
+	private List<Case> newCases() throws ReflectiveOperationException {
+		final var subscription = generator.getSubscriptions().getFirst();
+		final var node = VmDatasetGenerator.NODES.getFirst();
+		final var execution = VmExecutionRepository.class;
+		final var schedule = VmScheduleRepository.class;
+		return List.of(
+				new Case("executionFindAllByNodeLastParent", executionRepository,
+						execution.getMethod("findAllByNodeLast", String.class), "service:vm"),
+				new Case("executionFindAllByNodeLast", executionRepository,
+						execution.getMethod("findAllByNodeLast", String.class), node),
+				new Case("executionFindAllBySubscription", executionRepository,
+						execution.getMethod("findAllBySubscription", int.class), subscription),
+				new Case("executionFindAllBySubscriptionPage", executionRepository,
+						execution.getMethod("findAllBySubscription", int.class, Instant.class, Instant.class, int.class,
+								Pageable.class),
+						subscription, Instant.EPOCH, Instant.now(), Integer.MAX_VALUE, PageRequest.of(0, 1000)),
+				new Case("scheduleFindBySubscription", scheduleRepository,
+						schedule.getMethod("findBySubscription", int.class), subscription),
+				new Case("scheduleCountBySubscription", scheduleRepository,
+						schedule.getMethod("countBySubscription", int.class), subscription),
+				new Case("scheduleFindAllByNodeParent", scheduleRepository,
+						schedule.getMethod("findAllByNode", String.class, String.class), "service:vm",
+						VmDatasetGenerator.LEADER),
+				new Case("scheduleFindAllByNode", scheduleRepository,
+						schedule.getMethod("findAllByNode", String.class, String.class), node,
+						VmDatasetGenerator.LEADER),
+				new Case("scheduleFindAllByNodeNoCheck", scheduleRepository,
+						schedule.getMethod("findAllByNodeNoCheck", String.class), node));
+	}
+
+	@Test
+	void benchmark() throws Exception {
+		final var cases = newCases();
+
+		// All queries must be benchmarked
+		final var covered = new HashSet<Method>();
+		cases.forEach(c -> covered.add(c.method()));
+		Arrays.stream(VmExecutionRepository.class.getDeclaredMethods()).filter(m -> m.isAnnotationPresent(Query.class))
+				.forEach(m -> Assertions.assertTrue(covered.contains(m), m::toString));
+		Arrays.stream(VmScheduleRepository.class.getDeclaredMethods()).filter(m -> m.isAnnotationPresent(Query.class))
+				.forEach(m -> Assertions.assertTrue(covered.contains(m), m::toString));
+
+		final var report = new ScaleReport("vm-repository-benchmark");
+		report.put("subscriptions", generator.getSubscriptions().size());
+		final var iterations = ScaleReport.getParameter("iterations", 10);
+		for (final var c : cases) {
+			final var times = new ArrayList<Long>();
+			var rows = 0;
+			for (var i = 0; i <= iterations; i++) {
+				final var start = System.nanoTime();
+				final var result = transaction.execute(s -> invoke(c));
+				if (i > 0) {
+					// The first call is a warmup
+					times.add((System.nanoTime() - start) / 1000);
+				}
+				rows = result instanceof Collection<?> collection ? collection.size() : 1;
+				transaction.executeWithoutResult(s -> em.clear());
+			}
+			report.put(c.name() + ".rows", rows);
+			report.putPercentiles(c.name() + ".micros", times);
+			transaction.executeWithoutResult(s -> explain(c, report));
+		}
+		report.write();
+	}
+
+	private Object invoke(final Case c) {
+		try {
+			return c.method().invoke(c.repository(), c.args());
+		} catch (final ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Capture the SQL of the query, then its plan.
+	 */
+	private void explain(final Case c, final ScaleReport report) {
+		final var jpql = c.method().getAnnotation(Query.class).value();
+		final var statements = new ArrayList<String>();
+		try (var session = em.getEntityManagerFactory().unwrap(SessionFactory.class).withOptions()
+				.statementInspector(sql -> {
+					statements.add(sql);
+					return sql;
+				}).openSession()) {
+			final var query = session.createQuery(jpql);
+			for (final var p : query.getParameters()) {
+				if (p.getName() == null) {
+					query.setParameter(p.getPosition(), getArgument(c, "?" + p.getPosition()));
+				} else {
+					query.setParameter(p.getName(), getArgument(c, ":" + p.getName()));
+				}
+			}
+			query.getResultList();
+		}
+		final var sql = statements.getLast();
+		report.put(c.name() + ".sql", sql);
+		em.unwrap(Session.class).doWork(connection -> report.put(c.name() + ".plan", explain(connection, c, sql)));
+	}
+
+	/**
+	 * Return the argument of the given JPQL parameter: ":name" or "?position".
+	 */
+	private Object getArgument(final Case c, final String parameter) {
+		if (parameter.startsWith("?")) {
+			return c.args()[Integer.parseInt(parameter.substring(1)) - 1];
+		}
+		final var parameters = c.method().getParameters();
+		for (var i = 0; i < parameters.length; i++) {
+			if (parameters[i].getName().equals(parameter.substring(1))) {
+				return c.args()[i];
+			}
+		}
+		throw new IllegalArgumentException(parameter);
+	}
+
+	private String explain(final Connection connection, final Case c, final String sql) {
+		try (var statement = connection.prepareStatement(getExplain(connection) + sql)) {
+			// The SQL parameters follow the order of the JPQL parameters
+			final var matcher = PARAMETER.matcher(c.method().getAnnotation(Query.class).value());
+			var index = 1;
+			while (matcher.find()) {
+				statement.setObject(index++, getArgument(c, matcher.group()));
+			}
+			final var plan = new StringBuilder();
+			try (var result = statement.executeQuery()) {
+				while (result.next()) {
+					plan.append(result.getString(1)).append('\n');
+				}
+			}
+			return plan.toString();
+		} catch (final SQLException e) {
+			log.warn("Unable to explain {}", c.name(), e);
+			return "unavailable: " + e.getMessage();
+		}
+	}
+
+	private String getExplain(final Connection connection) throws SQLException {
+		final var product = connection.getMetaData().getDatabaseProductName();
+		return product.startsWith("HSQL") ? "EXPLAIN PLAN FOR " : "EXPLAIN ";
+	}
+}
@@ -4,13 +4,16 @@
 package org.ligoj.app.plugin.vm.execution;
 
 import jakarta.transaction.Transactional;
+import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
 import org.apache.commons.io.IOUtils;
+import org.hibernate.SessionFactory;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.ligoj.app.AbstractServerTest;
 import org.ligoj.app.dao.NodeRepository;
 import org.ligoj.app.dao.SubscriptionRepository;
@@ -20,13 +23,19 @@ import org.ligoj.app.model.Subscription;
 import org.ligoj.app.plugin.vm.VmNetwork;
 import org.ligoj.app.plugin.vm.VmResource;
 import org.ligoj.app.plugin.vm.dao.VmExecutionRepository;
+import org.ligoj.app.plugin.vm.dao.VmExecutionRow;
+import org.ligoj.app.plugin.vm.dao.VmInventoryRepository;
 import org.ligoj.app.plugin.vm.dao.VmScheduleRepository;
 import org.ligoj.app.plugin.vm.model.*;
 import org.ligoj.app.plugin.vm.schedule.VmScheduleResource;
+import org.ligoj.app.plugin.vm.simulator.SimulatedVmPlugin;
+import org.ligoj.app.plugin.vm.simulator.SimulatorConfiguration;
 import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.app.resource.subscription.SubscriptionResource;
 import org.ligoj.bootstrap.core.SpringUtils;
 import org.ligoj.bootstrap.core.resource.BusinessException;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 import org.quartz.SchedulerException;
@@ -41,13 +50,20 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Test class of {@link VmExecutionResource}
@@ -72,6 +88,9 @@ class VmExecutionResourceTest extends AbstractServerTest {
 	@Autowired
 	private VmExecutionRepository vmExecutionRepository;
 
+	@Autowired
+	private VmInventoryRepository vmInventoryRepository;
+
 	@Autowired
 	private ServicePluginLocator locator;
 
@@ -153,6 +172,136 @@ class VmExecutionResourceTest extends AbstractServerTest {
 		Assertions.assertEquals(VmOperation.OFF, execution.getOperation());
 	}
 
+	private VmExecutionResource newSkipResource(final VmStatus status, final Instant refreshed) {
+		final var resource = newVmExecutionResource();
+		mockContext();
+		resource.locator = mockLocator;
+		resource.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn("true").when(resource.configuration).get(VmExecutionResource.CONF_SKIP);
+		Mockito.doReturn(60000).when(resource.configuration).get(VmExecutionResource.CONF_SKIP_AGE, 300000);
+		final var inventory = new VmInventory();
+		inventory.setSubscription(subscriptionRepository.findOneExpected(subscription));
+		inventory.setVm("my-vm");
+		inventory.setStatus(status);
+		inventory.setRefreshed(refreshed);
+		vmInventoryRepository.saveAndFlush(inventory);
+		return resource;
+	}
+
+	@Test
+	void executeSkipped() throws Exception {
+		final var resource = newSkipResource(VmStatus.POWERED_OFF, Instant.now());
+		final var task = resource.execute(subscription, VmOperation.SHUTDOWN);
+		Mockito.verify(mockVmTool, Mockito.never()).execute(ArgumentMatchers.any());
+		Assertions.assertTrue(task.isFinishedRemote());
+		Assertions.assertFalse(task.isFailed());
+		final var execution = vmExecutionRepository.findOneExpected(task.getExecution().getId());
+		Assertions.assertEquals(VmOperation.SHUTDOWN, execution.getOperation());
+		Assertions.assertEquals(VmStatus.POWERED_OFF, execution.getPreviousState());
+		Assertions.assertEquals(VmExecutionResource.STATUS_SKIPPED, execution.getStatusText());
+		Assertions.assertEquals("my-vm", execution.getVm());
+		Assertions.assertTrue(execution.isSucceed());
+	}
+
+	@Test
+	void executeNotSkippedOtherState() throws Exception {
+		final var resource = newSkipResource(VmStatus.POWERED_ON, Instant.now());
+		final var task = resource.execute(subscription, VmOperation.OFF);
+		Mockito.verify(mockVmTool).execute(ArgumentMatchers.any());
+		Assertions.assertNull(vmExecutionRepository.findOneExpected(task.getExecution().getId()).getStatusText());
+
+		// The state may have changed
+		Assertions.assertTrue(vmInventoryRepository.findBySubscription(subscription).isBusy());
+	}
+
+	@Test
+	void executeNotSkippedStale() throws Exception {
+		final var resource = newSkipResource(VmStatus.POWERED_OFF, Instant.now().minusSeconds(120));
+		resource.execute(subscription, VmOperation.OFF);
+		Mockito.verify(mockVmTool).execute(ArgumentMatchers.any());
+	}
+
+	@Test
+	void executeNotSkippedRefreshOverlap() throws Exception {
+		final var resource = newSkipResource(VmStatus.POWERED_ON, Instant.now().minusSeconds(1));
+		final var entity = subscriptionRepository.findOneExpected(subscription);
+		final var since = Instant.now();
+		final var vm = new Vm();
+		vm.setId("my-vm");
+		vm.setStatus(VmStatus.POWERED_ON);
+
+		// A background refresh fetched before the operation lands during the provider call
+		Mockito.doAnswer(i -> {
+			Assertions.assertTrue(resource.inventoryResource.updateStale(entity, vm, since));
+			return null;
+		}).when(mockVmTool).execute(ArgumentMatchers.any());
+		resource.execute(subscription, VmOperation.OFF);
+		Assertions.assertTrue(vmInventoryRepository.findBySubscription(subscription).isBusy());
+
+		// Another refresh fetched before the end of the operation lands after it, and is discarded
+		Assertions.assertFalse(resource.inventoryResource.updateStale(entity, vm, since));
+		final var inventory = vmInventoryRepository.findBySubscription(subscription);
+		Assertions.assertTrue(inventory.isBusy());
+
+		// The state preceding the operation is not used to skip the next one
+		inventory.setBusy(false);
+		inventory.setStatus(VmStatus.POWERED_OFF);
+		final var off = new Vm();
+		off.setStatus(VmStatus.POWERED_OFF);
+		Mockito.doReturn(off).when(mockVmTool).getVmDetails(ArgumentMatchers.anyMap());
+		resource.execute(subscription, VmOperation.ON);
+		Mockito.verify(mockVmTool, Mockito.times(2)).execute(ArgumentMatchers.any());
+	}
+
+	@Test
+	void executeNotSkippedDisabled() throws Exception {
+		final var resource = newSkipResource(VmStatus.POWERED_OFF, Instant.now());
+		Mockito.doReturn(null).when(resource.configuration).get(VmExecutionResource.CONF_SKIP);
+		resource.execute(subscription, VmOperation.OFF);
+		Mockito.verify(mockVmTool).execute(ArgumentMatchers.any());
+	}
+
+	@Test
+	void isNoOp() {
+		Assertions.assertTrue(VmExecutionResource.isNoOp(VmOperation.OFF, VmStatus.POWERED_OFF));
+		Assertions.assertTrue(VmExecutionResource.isNoOp(VmOperation.SHUTDOWN, VmStatus.POWERED_OFF));
+		Assertions.assertTrue(VmExecutionResource.isNoOp(VmOperation.ON, VmStatus.POWERED_ON));
+		Assertions.assertTrue(VmExecutionResource.isNoOp(VmOperation.SUSPEND, VmStatus.SUSPENDED));
+		Assertions.assertFalse(VmExecutionResource.isNoOp(VmOperation.OFF, VmStatus.SUSPENDED));
+		Assertions.assertFalse(VmExecutionResource.isNoOp(VmOperation.ON, null));
+		Assertions.assertFalse(VmExecutionResource.isNoOp(VmOperation.REBOOT, VmStatus.POWERED_ON));
+		Assertions.assertFalse(VmExecutionResource.isNoOp(VmOperation.RESET, VmStatus.POWERED_OFF));
+	}
+
+	@Test
+	void executeSimulated() throws Exception {
+		final var resource = newVmExecutionResource();
+		mockContext();
+		resource.locator = mockLocator;
+		final var configuration = new SimulatorConfiguration();
+		configuration.setBusyDuration(200);
+		new SimulatedVmPlugin(configuration).register(mockLocator, "service:vm:test:test");
+		final var entity = subscriptionRepository.findOneExpected(subscription);
+		resource.subscriptionResource = Mockito.mock(SubscriptionResource.class);
+		Mockito.doReturn(entity).when(resource.subscriptionResource).checkVisible(subscription);
+		Mockito.doReturn(Map.of(SimulatedVmPlugin.PARAMETER_VM, String.valueOf(subscription)))
+				.when(resource.subscriptionResource).getParametersNoCheck(subscription);
+
+		final var task = resource.execute(subscription, VmOperation.OFF);
+		Assertions.assertTrue(task.isFinished());
+		final var execution = vmExecutionRepository.findOneExpected(task.getExecution().getId());
+		Assertions.assertEquals(VmStatus.POWERED_ON, execution.getPreviousState());
+		Assertions.assertEquals(String.valueOf(subscription), execution.getVm());
+
+		// The VM is busy until the end of the simulated operation
+		Assertions.assertFalse(resource.getTask(subscription).isFinishedRemote());
+		Assertions.assertThrows(BusinessException.class, () -> resource.execute(subscription, VmOperation.ON));
+		Thread.sleep(250);
+		Assertions.assertTrue(resource.getTask(subscription).isFinishedRemote());
+		final var inventory = vmInventoryRepository.findBySubscription(subscription);
+		Assertions.assertEquals(VmStatus.POWERED_OFF, inventory.getStatus());
+	}
+
 	@Test
 	void executeNotFinishedRemote() throws Exception {
 		final var resource = newVmExecutionResource();
@@ -211,6 +360,60 @@ class VmExecutionResourceTest extends AbstractServerTest {
 		Assertions.assertNull(resource.getTask(subscription).getVm());
 	}
 
+	@Test
+	void isFinishedNotPolled() throws Exception {
+		final var resource = newVmExecutionResource();
+		mockContext();
+		resource.locator = mockLocator;
+		final var busyVm = new Vm();
+		busyVm.setBusy(true);
+		Mockito.doReturn(busyVm).when(mockVmTool).getVmDetails(ArgumentMatchers.any());
+		resource.execute(subscription, VmOperation.OFF);
+		em.flush();
+		em.clear();
+
+		// Still busy
+		final var task = resource.getTaskRepository().findBy("locked.id", subscription);
+		Assertions.assertFalse(resource.isFinished(task));
+
+		// The remote state of a task never polled is fetched and saved
+		Mockito.doReturn(new Vm()).when(mockVmTool).getVmDetails(ArgumentMatchers.any());
+		Assertions.assertTrue(resource.isFinished(task));
+		em.flush();
+		em.clear();
+		Assertions.assertTrue(resource.getTaskRepository().findBy("locked.id", subscription).isFinishedRemote());
+	}
+
+	@Test
+	void getTaskSavedOnChange() throws Exception {
+		final var resource = newVmExecutionResource();
+		mockContext();
+		resource.locator = mockLocator;
+		final var busyVm = new Vm();
+		busyVm.setBusy(true);
+		Mockito.doReturn(busyVm).when(mockVmTool).getVmDetails(ArgumentMatchers.any());
+		resource.execute(subscription, VmOperation.OFF);
+		em.flush();
+
+		// Concurrent change of another column, the managed task is not refreshed
+		em.createQuery("UPDATE VmExecutionStatus SET author = :author").setParameter("author", "other")
+				.executeUpdate();
+
+		// Nothing changed, nothing written
+		Assertions.assertSame(busyVm, resource.getTask(subscription).getVm());
+		em.flush();
+		Assertions.assertEquals("other", em.createQuery("SELECT author FROM VmExecutionStatus", String.class)
+				.getSingleResult());
+
+		// Only the changed column is written
+		Mockito.doReturn(new Vm()).when(mockVmTool).getVmDetails(ArgumentMatchers.any());
+		Assertions.assertTrue(resource.getTask(subscription).isFinishedRemote());
+		em.clear();
+		final var task = resource.getTask(subscription);
+		Assertions.assertTrue(task.isFinishedRemote());
+		Assertions.assertEquals("other", task.getAuthor());
+	}
+
 	/**
 	 * Coverage only
 	 */
@@ -380,12 +583,12 @@ class VmExecutionResourceTest extends AbstractServerTest {
 		var lines = IOUtils.readLines(new ByteArrayInputStream(output.toByteArray()), StandardCharsets.UTF_8);
 		Assertions.assertEquals(2, lines.size());
 		Assertions.assertEquals(
-				"subscription;project;projectKey;projectName;node;cron;operation;lastDateHMS;lastTimestamp;previousState;lastOperation;vm;lastTrigger;lastSucceed;lastStatusText;lastErrorText;nextDateHMS;nextTimestamp",
+				"subscription;project;projectKey;projectName;node;cron;operation;lastDateHMS;lastTimestamp;previousState;lastOperation;vm;lastTrigger;lastSucceed;lastStatusText;lastErrorText;nextDateHMS;nextTimestamp;status;statusDateHMS;statusTimestamp",
 				lines.getFirst());
 
 		// No last execution available
 		Assertions.assertTrue(lines.get(1).matches(
-						"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;0 0 0 1 1 \\? 2050;OFF;;;;;;;;;;2050/01/01 00:00:00;252460\\d{7}"),
+						"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;0 0 0 1 1 \\? 2050;OFF;;;;;;;;;;2050/01/01 00:00:00;252460\\d{7};;;"),
 				"Was : " + lines.get(1));
 		output.close();
 
@@ -414,7 +617,7 @@ class VmExecutionResourceTest extends AbstractServerTest {
 		lines = IOUtils.readLines(new ByteArrayInputStream(output.toByteArray()), StandardCharsets.UTF_8);
 		Assertions.assertEquals(2, lines.size());
 		Assertions.assertTrue(lines.get(1).matches(
-						"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;0 0 0 1 1 \\? 2050;OFF;.+;.+;POWERED_ON;SHUTDOWN;vm1;_system;true;;;2050/01/01 00:00:00;2524604400000"),
+						"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;0 0 0 1 1 \\? 2050;OFF;.+;.+;POWERED_ON;SHUTDOWN;vm1;_system;true;;;2050/01/01 00:00:00;2524604400000;[A-Z_]*;[^;]*;\\d*"),
 				"Was : " + lines.get(1));
 
 		// Next execution where schedule CRON has been updated
@@ -428,7 +631,7 @@ class VmExecutionResourceTest extends AbstractServerTest {
 		lines = IOUtils.readLines(new ByteArrayInputStream(output.toByteArray()), StandardCharsets.UTF_8);
 		Assertions.assertEquals(2, lines.size());
 		Assertions.assertTrue(lines.get(1).matches(
-				"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;INVALID;OFF;.+;.+;POWERED_ON;SHUTDOWN;vm1;fdaugan;true;;;ERROR;ERROR"));
+				"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;INVALID;OFF;.+;.+;POWERED_ON;SHUTDOWN;vm1;fdaugan;true;;;ERROR;ERROR;[A-Z_]*;[^;]*;\\d*"));
 
 		// Add another schedule to the same subscription, with an execution
 		final var schedule = new VmSchedule();
@@ -452,10 +655,235 @@ class VmExecutionResourceTest extends AbstractServerTest {
 		lines = IOUtils.readLines(new ByteArrayInputStream(output.toByteArray()), StandardCharsets.UTF_8);
 		Assertions.assertEquals(3, lines.size());
 		Assertions.assertTrue(lines.get(2).matches(
-						"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;0 0 0 1 1 \\? 2049;ON;.+;.+;POWERED_OFF;ON;;_system;true;;;2049/01/01 00:00:00;2493068400000"),
+						"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;0 0 0 1 1 \\? 2049;ON;.+;.+;POWERED_OFF;ON;;_system;true;;;2049/01/01 00:00:00;2493068400000;[A-Z_]*;[^;]*;\\d*"),
 				"Was : " + lines.get(2));
 	}
 
+	/**
+	 * The amount of statements of the reports does not depend on the amount of rows.
+	 */
+	@Test
+	void downloadReportStatements() throws Exception {
+		final var resource = newVmExecutionResource();
+		final var entity = subscriptionRepository.findOneExpected(subscription);
+		addExecution(entity);
+		final var history = countStatements(() -> resource.downloadHistoryReport(subscription, "file1"));
+		final var schedules = countStatements(() -> resource.downloadNodeSchedulesReport("service:vm:test", "file1"));
+
+		// More subscriptions with their schedule, executions and VM state, on the same node
+		for (var i = 0; i < 3; i++) {
+			final var other = new Subscription();
+			other.setProject(entity.getProject());
+			other.setNode(entity.getNode());
+			em.persist(other);
+			final var schedule = new VmSchedule();
+			schedule.setOperation(VmOperation.ON);
+			schedule.setCron("0 0 0 1 1 ? 2050");
+			schedule.setSubscription(other);
+			em.persist(schedule);
+			final var inventory = new VmInventory();
+			inventory.setSubscription(other);
+			inventory.setStatus(VmStatus.POWERED_ON);
+			inventory.setRefreshed(Instant.now());
+			em.persist(inventory);
+			addExecution(other);
+			addExecution(entity);
+		}
+		Assertions.assertEquals(history, countStatements(() -> resource.downloadHistoryReport(subscription, "file1")));
+		Assertions.assertEquals(schedules,
+				countStatements(() -> resource.downloadNodeSchedulesReport("service:vm:test", "file1")));
+	}
+
+	@Test
+	void downloadNodeSchedulesReportCached(@TempDir final Path directory) throws Exception {
+		final var resource = newVmExecutionResource();
+		final var expected = new ByteArrayOutputStream();
+		((StreamingOutput) resource.downloadNodeSchedulesReport("service:vm:test", "file1").getEntity())
+				.write(expected);
+
+		resource.reportCache = new VmReportCache();
+		resource.reportCache.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(60).when(resource.reportCache.configuration).get(VmReportCache.CONF_TTL, 0);
+		Mockito.doReturn(directory.toString()).when(resource.reportCache.configuration)
+				.get(VmReportCache.CONF_DIRECTORY);
+		try {
+			final var output = new ByteArrayOutputStream();
+			((StreamingOutput) resource.downloadNodeSchedulesReport("service:vm:test", "file1").getEntity())
+					.write(output);
+			Assertions.assertEquals(expected.toString(StandardCharsets.UTF_8), output.toString(StandardCharsets.UTF_8));
+
+			// Only the visible subscriptions are read
+			Assertions.assertEquals(1,
+					countStatements(() -> resource.downloadNodeSchedulesReport("service:vm:test", "file1")));
+
+			// Another visibility set is another report, here without any visible subscription
+			initSpringSecurityContext("any");
+			final var other = new ByteArrayOutputStream();
+			((StreamingOutput) resource.downloadNodeSchedulesReport("service:vm:test", "file1").getEntity())
+					.write(other);
+			Assertions.assertEquals(1, IOUtils.readLines(new ByteArrayInputStream(other.toByteArray()),
+					StandardCharsets.UTF_8).size());
+		} finally {
+			resource.reportCache.destroy();
+		}
+	}
+
+	@Test
+	void downloadNodeHistoryReport() throws Exception {
+		final var resource = newVmExecutionResource();
+		resource.configuration = Mockito.mock(ConfigurationResource.class);
+		final var entity = subscriptionRepository.findOneExpected(subscription);
+		addExecution(entity).setDate(Instant.ofEpochMilli(1000));
+		addExecution(entity).setVm("vm1");
+		em.flush();
+
+		var lines = readNodeHistory(resource, "executions-1.csv", null, null);
+		Assertions.assertEquals(
+				"subscription;project;projectKey;projectName;node;dateHMS;timestamp;previousState;operation;vm;trigger;succeed;statusText;errorText",
+				lines.getFirst());
+		Assertions.assertEquals(3, lines.size());
+		Assertions.assertTrue(lines.get(1).matches(
+				"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;.+;\\d+;;ON;vm1;_system;true;;"),
+				"Was : " + lines.get(1));
+		Assertions.assertTrue(lines.get(2).matches(
+				"\\d+;\\d+;ligoj-jupiter;Jupiter;service:vm:test:test;.+;1000;;ON;;_system;true;;"),
+				"Was : " + lines.get(2));
+
+		// Period filter
+		Assertions.assertEquals(2, readNodeHistory(resource, "executions-1.csv", 1001L, null).size());
+		Assertions.assertEquals(2, readNodeHistory(resource, "executions-1.csv", null, 1000L).size());
+
+		// Compressed
+		Assertions.assertEquals(lines, readNodeHistory(resource, "executions-1.csv.gz", null, null));
+
+		// Not visible
+		initSpringSecurityContext("any");
+		Assertions.assertEquals(1, readNodeHistory(resource, "executions-1.csv", null, null).size());
+	}
+
+	/**
+	 * The subscriptions are read in parallel, and written in order.
+	 */
+	@Test
+	void downloadNodeHistoryReportParallel() throws Exception {
+		final var resource = newVmExecutionResource();
+		resource.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(3).when(resource.configuration).get(VmExecutionResource.CONF_EXPORT_CONCURRENCY, 4);
+		final var entity = subscriptionRepository.findOneExpected(subscription);
+		for (var i = 0; i < 8; i++) {
+			final var other = new Subscription();
+			other.setProject(entity.getProject());
+			other.setNode(entity.getNode());
+			em.persist(other);
+		}
+		em.flush();
+
+		// The first subscriptions are the slowest to read
+		final var reads = new AtomicInteger();
+		final var running = new AtomicInteger();
+		final var maxRunning = new AtomicInteger();
+		resource.self = new VmExecutionResource() {
+			@Override
+			public List<VmExecutionRow> findAllExecutions(final int subscription, final Instant from,
+					final Instant to, final int before, final int size) {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(Math.max(0, 50 - 10 * reads.getAndIncrement()));
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					running.decrementAndGet();
+				}
+				return List.of(newExecutionRow(1, subscription));
+			}
+		};
+
+		final var lines = readNodeHistory(resource, "executions-1.csv", null, null);
+		final var subscriptions = lines.stream().skip(1).map(l -> Integer.valueOf(l.split(";")[0])).toList();
+		Assertions.assertTrue(subscriptions.size() >= 9);
+		Assertions.assertEquals(subscriptions.size(), reads.get());
+		Assertions.assertEquals(subscriptions.stream().sorted().toList(), subscriptions);
+
+		// The concurrent reads are bounded by the setting
+		Assertions.assertTrue(maxRunning.get() <= 3);
+	}
+
+	/**
+	 * The executions are read by pages, each page starting after the previous one.
+	 */
+	@Test
+	void downloadNodeHistoryReportPaged() throws Exception {
+		final var resource = newVmExecutionResource();
+		resource.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(1).when(resource.configuration).get(VmExecutionResource.CONF_EXPORT_CONCURRENCY, 4);
+		Mockito.doReturn(2).when(resource.configuration).get(VmExecutionResource.CONF_EXPORT_PAGE, 1000);
+
+		// Five executions per subscription, from 5 to 1
+		final var reads = new AtomicInteger();
+		resource.self = new VmExecutionResource() {
+			@Override
+			public List<VmExecutionRow> findAllExecutions(final int subscription, final Instant from,
+					final Instant to, final int before, final int size) {
+				reads.incrementAndGet();
+				return IntStream.iterate(Math.min(5, before - 1), i -> i > 0, i -> i - 1).limit(size)
+						.mapToObj(i -> newExecutionRow(i, subscription)).toList();
+			}
+		};
+
+		final var lines = readNodeHistory(resource, "executions-1.csv", null, null).stream().skip(1)
+				.map(l -> l.split(";")).toList();
+		final var subscriptions = lines.stream().map(l -> l[0]).distinct().count();
+		Assertions.assertTrue(subscriptions > 0);
+		Assertions.assertEquals(5 * subscriptions, lines.size());
+		Assertions.assertEquals(List.of("5", "4", "3", "2", "1"), lines.stream().limit(5).map(l -> l[9]).toList());
+		Assertions.assertEquals(3 * subscriptions, reads.get());
+	}
+
+	private VmExecutionRow newExecutionRow(final int id, final int subscription) {
+		return new VmExecutionRow(id, subscription, Instant.now(), null, VmOperation.ON, String.valueOf(id), "_system",
+				true, null, null);
+	}
+
+	private List<String> readNodeHistory(final VmExecutionResource resource, final String file, final Long from,
+			final Long to) throws IOException {
+		final var output = new ByteArrayOutputStream();
+		((StreamingOutput) resource.downloadNodeHistoryReport("service:vm:test", file, from, to).getEntity())
+				.write(output);
+		var input = (InputStream) new ByteArrayInputStream(output.toByteArray());
+		if (file.endsWith(".gz")) {
+			input = new GZIPInputStream(input);
+		}
+		return IOUtils.readLines(input, StandardCharsets.UTF_8);
+	}
+
+	private VmExecution addExecution(final Subscription subscription) {
+		final var execution = new VmExecution();
+		execution.setDate(Instant.now());
+		execution.setSubscription(subscription);
+		execution.setTrigger("_system");
+		execution.setOperation(VmOperation.ON);
+		execution.setSucceed(true);
+		em.persist(execution);
+		return execution;
+	}
+
+	/**
+	 * Return the amount of SQL statements to build and to write the given report.
+	 */
+	private long countStatements(final Callable<Response> report) throws Exception {
+		em.flush();
+		em.clear();
+		final var statistics = em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+		try {
+			((StreamingOutput) report.call().getEntity()).write(new ByteArrayOutputStream());
+			return statistics.getPrepareStatementCount();
+		} finally {
+			statistics.setStatisticsEnabled(false);
+		}
+	}
+
 	/**
 	 * Very dummy and ugly test, not very proud. But for now the {@link Vm} class is only in the contract of
 	 * {@link VmExecutionServicePlugin} and without usage.
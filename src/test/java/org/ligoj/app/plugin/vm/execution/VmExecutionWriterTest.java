@@ -0,0 +1,132 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.execution;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import jakarta.transaction.Transactional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.dao.SubscriptionRepository;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.dao.VmExecutionRepository;
+import org.ligoj.app.plugin.vm.model.VmExecution;
+import org.ligoj.app.plugin.vm.model.VmOperation;
+import org.ligoj.app.plugin.vm.model.VmStatus;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link VmExecutionWriter}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+class VmExecutionWriterTest extends AbstractServerTest {
+
+	@Autowired
+	private VmExecutionRepository repository;
+
+	@Autowired
+	private SubscriptionRepository subscriptionRepository;
+
+	private VmExecutionWriter writer;
+
+	private Subscription subscription;
+
+	@BeforeEach
+	void prepareData() throws IOException {
+		persistEntities("csv", new Class<?>[]{Node.class, Project.class, Subscription.class}, StandardCharsets.UTF_8);
+		subscription = subscriptionRepository.findOneExpected(getSubscription("Jupiter", VmResource.SERVICE_KEY));
+		writer = new VmExecutionWriter();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(writer);
+		writer.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(3600000).when(writer.configuration).get(VmExecutionWriter.CONF_DELAY, 1000);
+	}
+
+	@AfterEach
+	void destroy() {
+		writer.destroy();
+	}
+
+	private VmExecution newExecution(final VmOperation operation, final Instant date) {
+		final var execution = new VmExecution();
+		execution.setSubscription(subscription);
+		execution.setOperation(operation);
+		execution.setDate(date);
+		execution.setTrigger("junit");
+		execution.setSucceed(true);
+		execution.setVm("vm-1");
+		execution.setPreviousState(VmStatus.POWERED_ON);
+		return execution;
+	}
+
+	@Test
+	void save() {
+		final var execution = newExecution(VmOperation.OFF, Instant.now());
+		writer.save(execution);
+		Assertions.assertNotNull(execution.getId());
+		Assertions.assertEquals(0, writer.getQueued());
+	}
+
+	@Test
+	void saveQueued() {
+		Mockito.doReturn(10).when(writer.configuration).get(VmExecutionWriter.CONF_BATCH, 0);
+		final var date = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+		writer.save(newExecution(VmOperation.OFF, date));
+		writer.save(newExecution(VmOperation.ON, date.plusSeconds(1)));
+		writer.save(newExecution(VmOperation.SUSPEND, date.plusSeconds(2)));
+		Assertions.assertEquals(3, writer.getQueued());
+		Assertions.assertTrue(repository.findAllBySubscription(subscription.getId()).isEmpty());
+
+		writer.flush();
+		Assertions.assertEquals(0, writer.getQueued());
+		em.clear();
+		final var executions = repository.findAllBySubscription(subscription.getId());
+		Assertions.assertEquals(3, executions.size());
+		final var execution = executions.getFirst();
+		Assertions.assertEquals(VmOperation.SUSPEND, execution.operation());
+		Assertions.assertEquals(date.plusSeconds(2), execution.date());
+		Assertions.assertEquals("junit", execution.trigger());
+		Assertions.assertEquals("vm-1", execution.vm());
+		Assertions.assertEquals(VmStatus.POWERED_ON, execution.previousState());
+		Assertions.assertTrue(execution.succeed());
+		Assertions.assertEquals(subscription.getId(), execution.subscription());
+	}
+
+	@Test
+	void insert() {
+		final var now = Instant.now();
+		writer.insert(List.of(newExecution(VmOperation.OFF, now), newExecution(VmOperation.ON, now)));
+		em.clear();
+		Assertions.assertEquals(2, repository.findAllBySubscription(subscription.getId()).size());
+	}
+
+	@Test
+	void destroyFlush() {
+		Mockito.doReturn(10).when(writer.configuration).get(VmExecutionWriter.CONF_BATCH, 0);
+		writer.save(newExecution(VmOperation.OFF, Instant.now()));
+		writer.destroy();
+		Assertions.assertEquals(0, writer.getQueued());
+		em.clear();
+		Assertions.assertEquals(1, repository.findAllBySubscription(subscription.getId()).size());
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.execution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import jakarta.ws.rs.core.StreamingOutput;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.Mockito;
+
+/**
+ * Test class of {@link VmReportCache}
+ */
+class VmReportCacheTest {
+
+	@TempDir
+	private Path directory;
+
+	private VmReportCache cache;
+
+	private final AtomicInteger builds = new AtomicInteger();
+
+	/**
+	 * Report content is the build number and the key.
+	 */
+	private final Function<VmReportCache.Key, StreamingOutput> builder = k -> {
+		final var content = builds.incrementAndGet() + ":" + k.node() + ":" + k.subscriptions().size();
+		return o -> o.write(content.getBytes(StandardCharsets.UTF_8));
+	};
+
+	@BeforeEach
+	void prepare() {
+		cache = new VmReportCache();
+		cache.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(60).when(cache.configuration).get(VmReportCache.CONF_TTL, 0);
+		Mockito.doReturn(86400).when(cache.configuration).get(VmReportCache.CONF_IDLE, 86400);
+		Mockito.doReturn(directory.toString()).when(cache.configuration).get(VmReportCache.CONF_DIRECTORY);
+	}
+
+	@AfterEach
+	void clear() {
+		cache.destroy();
+	}
+
+	private String read(final StreamingOutput output) throws IOException {
+		final var stream = new ByteArrayOutputStream();
+		output.write(stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void get() throws IOException {
+		Assertions.assertTrue(cache.isEnabled());
+		Assertions.assertEquals("1:service:vm:2", read(cache.get("service:vm", List.of(1, 2), builder)));
+		Assertions.assertEquals("1:service:vm:2", read(cache.get("service:vm", List.of(2, 1), builder)));
+		Assertions.assertEquals(1, builds.get());
+	}
+
+	@Test
+	void getPerVisibility() throws IOException {
+		Assertions.assertEquals("1:service:vm:2", read(cache.get("service:vm", List.of(1, 2), builder)));
+		Assertions.assertEquals("2:service:vm:1", read(cache.get("service:vm", List.of(1), builder)));
+		Assertions.assertEquals("3:service:vm:test:1", read(cache.get("service:vm:test", List.of(1), builder)));
+	}
+
+	@Test
+	void getExpired() throws IOException {
+		Mockito.doReturn(0).when(cache.configuration).get(VmReportCache.CONF_TTL, 0);
+		Assertions.assertFalse(cache.isEnabled());
+		read(cache.get("service:vm", List.of(1), builder));
+		Assertions.assertEquals("2:service:vm:1", read(cache.get("service:vm", List.of(1), builder)));
+	}
+
+	@Test
+	void getFailed() throws IOException {
+		Assertions.assertEquals("failed", Assertions.assertThrows(IllegalStateException.class,
+				() -> cache.get("service:vm", List.of(1), k -> {
+					throw new IllegalStateException("failed");
+				})).getMessage());
+
+		// The next request builds the report
+		Assertions.assertEquals("1:service:vm:1", read(cache.get("service:vm", List.of(1), builder)));
+	}
+
+	@Test
+	void getDeletedDuringBuild() throws IOException {
+		final var deleted = new AtomicBoolean();
+		final Function<VmReportCache.Key, StreamingOutput> deleting = k -> {
+			if (!deleted.getAndSet(true)) {
+				// Concurrent deletion of this idle report
+				Mockito.doReturn(-1).when(cache.configuration).get(VmReportCache.CONF_IDLE, 86400);
+				cache.refresh(builder);
+				Mockito.doReturn(86400).when(cache.configuration).get(VmReportCache.CONF_IDLE, 86400);
+			}
+			return builder.apply(k);
+		};
+
+		// The orphan file is deleted, and the report is built again
+		Assertions.assertEquals("2:service:vm:1", read(cache.get("service:vm", List.of(1), deleting)));
+		try (var files = Files.list(directory)) {
+			Assertions.assertEquals(1, files.count());
+		}
+	}
+
+	@Test
+	void getConcurrent() throws Exception {
+		final var started = new CountDownLatch(1);
+		final var release = new CountDownLatch(1);
+		final Function<VmReportCache.Key, StreamingOutput> slow = k -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return builder.apply(k);
+		};
+		final var executor = Executors.newFixedThreadPool(4);
+		try {
+			final var first = executor.submit(() -> read(cache.get("service:vm", List.of(1), slow)));
+			Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+			final var others = List.of(executor.submit(() -> read(cache.get("service:vm", List.of(1), slow))),
+					executor.submit(() -> read(cache.get("service:vm", List.of(1), slow))));
+			Thread.sleep(100);
+			release.countDown();
+			Assertions.assertEquals("1:service:vm:1", first.get(5, TimeUnit.SECONDS));
+			for (final var other : others) {
+				Assertions.assertEquals("1:service:vm:1", other.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assertions.assertEquals(1, builds.get());
+	}
+
+	@Test
+	void refresh() throws Exception {
+		final var output = cache.get("service:vm", List.of(1), builder);
+
+		// Not yet half expired
+		Assertions.assertEquals(0, cache.refresh(builder));
+
+		Mockito.doReturn(1).when(cache.configuration).get(VmReportCache.CONF_TTL, 0);
+		Thread.sleep(600);
+		Assertions.assertEquals(1, cache.refresh(builder));
+		Assertions.assertEquals("2:service:vm:1", read(output));
+	}
+
+	@Test
+	void refreshIdle() throws Exception {
+		cache.get("service:vm", List.of(1), builder);
+		Mockito.doReturn(-1).when(cache.configuration).get(VmReportCache.CONF_IDLE, 86400);
+		Assertions.assertEquals(0, cache.refresh(builder));
+		try (var files = Files.list(directory)) {
+			Assertions.assertEquals(0, files.count());
+		}
+	}
+}
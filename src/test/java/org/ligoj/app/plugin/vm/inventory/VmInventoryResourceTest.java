@@ -0,0 +1,217 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.inventory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+
+import jakarta.persistence.PersistenceException;
+import jakarta.transaction.Transactional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.dao.VmInventoryRepository;
+import org.ligoj.app.plugin.vm.execution.Vm;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.model.VmInventory;
+import org.ligoj.app.plugin.vm.model.VmStatus;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link VmInventoryResource}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+class VmInventoryResourceTest extends AbstractServerTest {
+
+	private VmInventoryResource resource;
+
+	@Autowired
+	private VmInventoryRepository repository;
+
+	private int subscription;
+
+	private VmExecutionServicePlugin tool;
+
+	@BeforeEach
+	void prepareData() throws IOException {
+		// Only with Spring context
+		persistEntities("csv", new Class<?>[]{Node.class, Project.class, Subscription.class}, StandardCharsets.UTF_8);
+		subscription = getSubscription("Jupiter", VmResource.SERVICE_KEY);
+		resource = new VmInventoryResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		resource.locator = Mockito.mock(ServicePluginLocator.class);
+		tool = Mockito.mock(VmExecutionServicePlugin.class);
+		Mockito.doReturn(tool).when(resource.locator).getResource("service:vm:test:test",
+				VmExecutionServicePlugin.class);
+		Mockito.doReturn(tool).when(resource.locator).getResourceExpected("service:vm:test:test",
+				VmExecutionServicePlugin.class);
+	}
+
+	private Vm newVm(final VmStatus status) {
+		final var vm = new Vm();
+		vm.setId("vm-1");
+		vm.setStatus(status);
+		vm.setCpu(2);
+		vm.setRam(1024);
+		return vm;
+	}
+
+	@Test
+	void refresh() throws Exception {
+		Assertions.assertNull(resource.findBySubscription(subscription));
+		Mockito.doReturn(newVm(VmStatus.POWERED_ON)).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+
+		final var inventory = resource.refresh(subscription);
+		Assertions.assertEquals("vm-1", inventory.getVm());
+		Assertions.assertEquals(VmStatus.POWERED_ON, inventory.getStatus());
+		Assertions.assertEquals(2, inventory.getCpu());
+		Assertions.assertEquals(1024, inventory.getRam());
+		Assertions.assertFalse(inventory.isBusy());
+		Assertions.assertNotNull(inventory.getRefreshed());
+
+		// Updated in place
+		Mockito.doReturn(newVm(VmStatus.POWERED_OFF)).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		resource.refresh(subscription);
+		Assertions.assertEquals(VmStatus.POWERED_OFF, resource.findBySubscription(subscription).getStatus());
+		Assertions.assertEquals(1, repository.count());
+
+		resource.delete(subscription);
+		Assertions.assertNull(resource.findBySubscription(subscription));
+	}
+
+	@Test
+	void refreshNotCached() throws Exception {
+		resource.cache = Mockito.spy(resource.cache);
+		Mockito.doReturn(newVm(VmStatus.POWERED_ON)).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		resource.refresh(subscription);
+
+		// The visibility is checked without the cache
+		Mockito.verify(resource.cache, Mockito.never()).checkVisible(ArgumentMatchers.any(), ArgumentMatchers.anyInt());
+	}
+
+	@Test
+	void updateChanged() {
+		final var entity = em.find(Subscription.class, subscription);
+		final var inventory = resource.updateChanged(entity, newVm(VmStatus.POWERED_ON));
+		final var refreshed = inventory.getRefreshed();
+
+		// Same state, nothing written
+		final var same = newVm(VmStatus.POWERED_ON);
+		same.setCpu(4);
+		Assertions.assertSame(inventory, resource.updateChanged(entity, same));
+		Assertions.assertEquals(2, inventory.getCpu());
+		Assertions.assertEquals(refreshed, inventory.getRefreshed());
+
+		// The busy flag has changed
+		final var busy = newVm(VmStatus.POWERED_ON);
+		busy.setBusy(true);
+		Assertions.assertTrue(resource.updateChanged(entity, busy).isBusy());
+
+		// The status has changed
+		Assertions.assertEquals(VmStatus.POWERED_OFF,
+				resource.updateChanged(entity, newVm(VmStatus.POWERED_OFF)).getStatus());
+		Assertions.assertEquals(1, repository.count());
+	}
+
+	@Test
+	void updateUnique() {
+		final var entity = em.find(Subscription.class, subscription);
+		resource.update(entity, newVm(VmStatus.POWERED_ON));
+		resource.update(entity, newVm(VmStatus.POWERED_OFF));
+		Assertions.assertEquals(1, repository.count());
+
+		// A second state of the same subscription is rejected
+		final var duplicate = new VmInventory();
+		duplicate.setSubscription(entity);
+		duplicate.setRefreshed(Instant.now());
+		em.persist(duplicate);
+		Assertions.assertThrows(PersistenceException.class, em::flush);
+	}
+
+	@Test
+	void refreshStale() throws Exception {
+		Mockito.doReturn(null).when(tool).getAllVmDetails(ArgumentMatchers.anyMap());
+		Mockito.doReturn(newVm(VmStatus.POWERED_ON)).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		Assertions.assertEquals(1, resource.refreshStale());
+		Assertions.assertEquals(VmStatus.POWERED_ON, resource.findBySubscription(subscription).getStatus());
+
+		// Fresh enough
+		Assertions.assertEquals(0, resource.refreshStale());
+		Mockito.verify(tool).getVmDetails(ArgumentMatchers.anyMap());
+
+		// Stale
+		resource.findBySubscription(subscription).setRefreshed(Instant.ofEpochMilli(0));
+		Assertions.assertEquals(1, resource.refreshStale());
+		Assertions.assertEquals(1, repository.count());
+	}
+
+	@Test
+	void updateStale() {
+		final var entity = em.find(Subscription.class, subscription);
+		final var since = Instant.now().minusSeconds(60);
+
+		// First state
+		Assertions.assertTrue(resource.updateStale(entity, newVm(VmStatus.POWERED_ON), since));
+
+		// Refreshed since the fetch started, the fetched state is older
+		Assertions.assertFalse(resource.updateStale(entity, newVm(VmStatus.POWERED_OFF), since));
+		Assertions.assertEquals(VmStatus.POWERED_ON, resource.findBySubscription(subscription).getStatus());
+
+		// Marked busy by an operation since the fetch started
+		final var inventory = resource.findBySubscription(subscription);
+		inventory.setRefreshed(Instant.ofEpochMilli(0));
+		resource.markBusy(subscription);
+		Assertions.assertFalse(resource.updateStale(entity, newVm(VmStatus.POWERED_OFF), since));
+		Assertions.assertTrue(inventory.isBusy());
+		Assertions.assertEquals(VmStatus.POWERED_ON, inventory.getStatus());
+
+		// A busy mark older than the fetch is refreshed
+		Assertions.assertTrue(resource.updateStale(entity, newVm(VmStatus.POWERED_OFF), Instant.now().plusSeconds(1)));
+		Assertions.assertFalse(inventory.isBusy());
+		Assertions.assertEquals(VmStatus.POWERED_OFF, inventory.getStatus());
+		Assertions.assertEquals(1, repository.count());
+	}
+
+	@Test
+	void refreshStaleBatch() throws Exception {
+		Mockito.doReturn(Map.of(subscription, newVm(VmStatus.SUSPENDED))).when(tool)
+				.getAllVmDetails(ArgumentMatchers.anyMap());
+		Assertions.assertEquals(1, resource.refreshStale());
+		Assertions.assertEquals(VmStatus.SUSPENDED, resource.findBySubscription(subscription).getStatus());
+		Mockito.verify(tool, Mockito.never()).getVmDetails(ArgumentMatchers.anyMap());
+	}
+
+	@Test
+	void refreshStaleFailed() throws Exception {
+		Mockito.doReturn(null).when(tool).getAllVmDetails(ArgumentMatchers.anyMap());
+		Mockito.doThrow(new IllegalStateException()).when(tool).getVmDetails(ArgumentMatchers.anyMap());
+		Assertions.assertEquals(0, resource.refreshStale());
+		Assertions.assertNull(resource.findBySubscription(subscription));
+	}
+
+	@Test
+	void refreshStaleBatchFailed() throws Exception {
+		Mockito.doThrow(new IllegalStateException()).when(tool).getAllVmDetails(ArgumentMatchers.anyMap());
+		Assertions.assertEquals(0, resource.refreshStale());
+		Mockito.verify(tool, Mockito.never()).getVmDetails(ArgumentMatchers.anyMap());
+	}
+}
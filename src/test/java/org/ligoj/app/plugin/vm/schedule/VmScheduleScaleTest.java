@@ -0,0 +1,268 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.schedule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.ScaleReport;
+import org.ligoj.app.plugin.vm.dao.VmExecutionRepository;
+import org.ligoj.app.plugin.vm.dao.VmScheduleRepository;
+import org.ligoj.app.plugin.vm.execution.VmExecutionResource;
+import org.ligoj.app.plugin.vm.model.VmOperation;
+import org.ligoj.app.plugin.vm.model.VmSchedule;
+import org.ligoj.app.plugin.vm.simulator.SimulatedVmPlugin;
+import org.ligoj.app.plugin.vm.simulator.SimulatorConfiguration;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.bootstrap.core.security.SecurityHelper;
+import org.mockito.Mockito;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.TriggerListenerSupport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.quartz.SchedulerFactoryBean;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scale test of {@link VmScheduleResource} and {@link VmJob}: the schedules are loaded into Quartz, then a
+ * synchronized burst of operations is fired against a simulated provider. Only run with the "scale" Maven profile.
+ * The data is committed, since the operations are executed by the Quartz threads.
+ */
+@Slf4j
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Tag(ScaleReport.TAG)
+class VmScheduleScaleTest extends AbstractServerTest {
+
+	private static final String NODE = "service:vm:test:test";
+
+	private static final String BURST_GROUP = "vm-scale";
+
+	/**
+	 * Never fired CRON.
+	 */
+	private static final String CRON = "0 0 0 1 1 ? 2050";
+
+	@Autowired
+	private VmScheduleResource scheduleResource;
+
+	@Autowired
+	private VmScheduleRepository scheduleRepository;
+
+	@Autowired
+	private VmExecutionRepository executionRepository;
+
+	@Autowired
+	private SecurityHelper securityHelper;
+
+	@Autowired
+	private SchedulerFactoryBean vmSchedulerFactoryBean;
+
+	@Autowired
+	private JobDetail vmJobDetailFactoryBean;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transaction;
+
+	private int schedules;
+
+	private int subscriptions;
+
+	/**
+	 * Schedules of the burst, one per subscription.
+	 */
+	private final List<Integer> burst = new ArrayList<>();
+
+	@BeforeEach
+	void prepareData() {
+		schedules = ScaleReport.getParameter("schedules", 100000);
+		subscriptions = Math.min(schedules, ScaleReport.getParameter("subscriptions", 1000));
+		final var burstSize = Math.min(subscriptions, ScaleReport.getParameter("burst", subscriptions));
+		transaction = new TransactionTemplate(transactionManager);
+		transaction.executeWithoutResult(s -> {
+			try {
+				persistEntities("csv", new Class<?>[]{Node.class, Project.class}, StandardCharsets.UTF_8);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		final var start = System.currentTimeMillis();
+		final var ids = new ArrayList<Integer>();
+		transaction.executeWithoutResult(s -> {
+			final var node = em.find(Node.class, NODE);
+			final var project = em.createQuery("FROM Project WHERE pkey = :pkey", Project.class)
+					.setParameter("pkey", "ligoj-jupiter").getSingleResult();
+			for (var i = 0; i < subscriptions; i++) {
+				final var subscription = new Subscription();
+				subscription.setNode(node);
+				subscription.setProject(project);
+				em.persist(subscription);
+				ids.add(subscription.getId());
+			}
+		});
+		for (var from = 0; from < schedules; from += 1000) {
+			final var offset = from;
+			transaction.executeWithoutResult(s -> {
+				for (var i = offset; i < Math.min(schedules, offset + 1000); i++) {
+					final var schedule = new VmSchedule();
+					schedule.setCron(CRON);
+					schedule.setOperation(i % 2 == 0 ? VmOperation.OFF : VmOperation.ON);
+					schedule.setSubscription(em.getReference(Subscription.class, ids.get(i % subscriptions)));
+					em.persist(schedule);
+					if (i < burstSize) {
+						burst.add(schedule.getId());
+					}
+				}
+			});
+		}
+		log.info("Inserted {} schedules of {} subscriptions in {}ms", schedules, subscriptions,
+				System.currentTimeMillis() - start);
+	}
+
+	@AfterEach
+	void cleanData() throws SchedulerException {
+		final var scheduler = vmSchedulerFactoryBean.getScheduler();
+		scheduler.getListenerManager().removeTriggerListener(BURST_GROUP);
+		unschedule(scheduler, VmScheduleResource.SCHEDULE_TRIGGER_GROUP);
+		unschedule(scheduler, BURST_GROUP);
+		transaction.executeWithoutResult(s -> {
+			em.createQuery("DELETE FROM VmExecution").executeUpdate();
+			em.createQuery("DELETE FROM VmExecutionStatus").executeUpdate();
+			em.createQuery("DELETE FROM VmInventory").executeUpdate();
+			em.createQuery("DELETE FROM VmSchedule").executeUpdate();
+			em.createQuery("DELETE FROM Subscription").executeUpdate();
+			em.createQuery("DELETE FROM Project").executeUpdate();
+			em.createQuery("DELETE FROM Node WHERE id = :node").setParameter("node", NODE).executeUpdate();
+			em.createQuery("DELETE FROM Node WHERE id = :node").setParameter("node", "service:vm:test")
+					.executeUpdate();
+		});
+	}
+
+	private void unschedule(final Scheduler scheduler, final String group) throws SchedulerException {
+		scheduler.unscheduleJobs(new ArrayList<>(scheduler.getTriggerKeys(GroupMatcher.groupEquals(group))));
+	}
+
+	@Test
+	void scale() throws Exception {
+		final var report = new ScaleReport("vm-schedule-scale");
+		report.put("schedules", schedules).put("subscriptions", subscriptions);
+		final var scheduler = vmSchedulerFactoryBean.getScheduler();
+		unschedule(scheduler, VmScheduleResource.SCHEDULE_TRIGGER_GROUP);
+
+		// Load all schedules into Quartz, as done at startup
+		final var heap = ScaleReport.getUsedHeap();
+		final var start = System.currentTimeMillis();
+		scheduleResource.afterPropertiesSet();
+		report.put("loadMs", System.currentTimeMillis() - start);
+		report.put("loadHeapBytes", ScaleReport.getUsedHeap() - heap);
+		final var group = GroupMatcher.triggerGroupEquals(VmScheduleResource.SCHEDULE_TRIGGER_GROUP);
+		final var triggers = scheduler.getTriggerKeys(group).size();
+		report.put("triggers", triggers);
+
+		burst(scheduler, report);
+		report.write();
+		Assertions.assertEquals(schedules, triggers);
+		Assertions.assertEquals(burst.size(), report.getMetrics().get("executions"));
+	}
+
+	/**
+	 * Fire all burst schedules at the same time through {@link VmJob}, and measure the delay between the scheduled
+	 * time and the effective start of each job.
+	 */
+	private void burst(final Scheduler scheduler, final ScaleReport report) throws Exception {
+		final var configuration = new SimulatorConfiguration();
+		configuration.setDistribution(SimulatorConfiguration.Distribution.EXPONENTIAL);
+		configuration.setLatency(ScaleReport.getParameter("latency", 50));
+		configuration.setLatencyMax(configuration.getLatency() * 20);
+		configuration.setFailureRate(ScaleReport.getParameter("failures", 1) / 100d);
+		final var locator = Mockito.mock(ServicePluginLocator.class);
+		final var simulator = new SimulatedVmPlugin(configuration).register(locator, NODE);
+		final var resource = new VmExecutionResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		ReflectionTestUtils.setField(resource, "locator", locator);
+		final var context = Mockito.mock(ApplicationContext.class);
+		Mockito.doReturn(scheduleRepository).when(context).getBean(VmScheduleRepository.class);
+		Mockito.doReturn(securityHelper).when(context).getBean(SecurityHelper.class);
+		Mockito.doReturn(resource).when(context).getBean(VmExecutionResource.class);
+
+		final var lags = new ConcurrentLinkedQueue<Long>();
+		final var completed = new CountDownLatch(burst.size());
+		final var end = new AtomicLong();
+		scheduler.getListenerManager().addTriggerListener(new TriggerListenerSupport() {
+			@Override
+			public String getName() {
+				return BURST_GROUP;
+			}
+
+			@Override
+			public void triggerFired(final Trigger trigger, final JobExecutionContext job) {
+				lags.add(System.currentTimeMillis() - job.getScheduledFireTime().getTime());
+			}
+
+			@Override
+			public void triggerComplete(final Trigger trigger, final JobExecutionContext job,
+					final Trigger.CompletedExecutionInstruction instruction) {
+				end.accumulateAndGet(System.currentTimeMillis(), Math::max);
+				completed.countDown();
+			}
+		}, GroupMatcher.triggerGroupEquals(BURST_GROUP));
+
+		final var executions = executionRepository.count();
+		final var fireAt = new Date(System.currentTimeMillis() + 1000 + burst.size());
+		for (final var schedule : burst) {
+			final var data = new JobDataMap();
+			data.put("schedule", schedule);
+			data.put("context", context);
+			scheduler.scheduleJob(TriggerBuilder.newTrigger().withIdentity("burst-" + schedule, BURST_GROUP)
+					.forJob(vmJobDetailFactoryBean.getKey()).usingJobData(data).startAt(fireAt).build());
+		}
+		Assertions.assertTrue(completed.await(10, TimeUnit.MINUTES));
+		final var duration = Math.max(1, end.get() - fireAt.getTime());
+		final var written = executionRepository.count() - executions;
+
+		report.put("burst", burst.size());
+		report.put("quartzThreads", scheduler.getMetaData().getThreadPoolSize());
+		report.put("providerLatencyMs", configuration.getLatency());
+		report.put("providerFailures", simulator.getFailures().get());
+		report.put("burstMs", duration);
+		report.putPercentiles("fireLagMs", lags);
+		report.put("throughputPerSecond", burst.size() * 1000d / duration);
+		report.put("executions", (int) written);
+		report.put("historyWritesPerSecond", written * 1000d / duration);
+	}
+}
@@ -0,0 +1,401 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.simulator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.execution.Vm;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.model.VmExecution;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.plugin.vm.model.VmStatus;
+import org.ligoj.app.plugin.vm.snapshot.Snapshot;
+import org.ligoj.app.plugin.vm.snapshot.Snapshotting;
+import org.ligoj.app.plugin.vm.snapshot.VmSnapshotResource;
+import org.ligoj.app.plugin.vm.snapshot.VolumeSnapshot;
+import org.ligoj.app.plugin.vm.snapshot.VolumeSnapshotting;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.bootstrap.core.resource.BusinessException;
+import org.mockito.Mockito;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * In-memory VM provider for load and latency tests. Each VM is a state machine keyed by its subscription: an
+ * operation makes the VM busy for a while, then the VM reaches the target state. Latency, failures, throttling and
+ * busy durations follow a {@link SimulatorConfiguration}, and each VM draws its random decisions from its own seeded
+ * generator, so a scenario is reproduced as long as the calls of each VM are the same.
+ */
+public class SimulatedVmPlugin implements VmExecutionServicePlugin, VolumeSnapshotting {
+
+	/**
+	 * Plug-in key.
+	 */
+	public static final String KEY = VmResource.SERVICE_KEY + ":simulator";
+
+	/**
+	 * Parameter holding the subscription identifier of the VM, used by {@link #getVmDetails(Map)}.
+	 */
+	public static final String PARAMETER_VM = KEY + ":vm";
+
+	/**
+	 * Error of a simulated failed call.
+	 */
+	public static final String ERROR_FAILURE = "vm-simulator-failure";
+
+	/**
+	 * Error of a rejected call, above the throttle limit.
+	 */
+	public static final String ERROR_THROTTLED = "vm-simulator-throttled";
+
+	/**
+	 * Error of an operation requested on a busy VM.
+	 */
+	public static final String ERROR_BUSY = "vm-simulator-busy";
+
+	/**
+	 * Error of an unknown snapshot.
+	 */
+	public static final String ERROR_SNAPSHOT = "vm-simulator-snapshot";
+
+	/**
+	 * A simulated VM.
+	 */
+	private class SimulatedVm {
+		private final int subscription;
+		private final Random random;
+		private final List<Snapshot> snapshots = new ArrayList<>();
+		private VmStatus status;
+		private VmStatus target;
+		private long busyUntil;
+
+		private SimulatedVm(final int subscription) {
+			this.subscription = subscription;
+			this.random = new Random(configuration.getSeed() * 31 + subscription);
+			this.status = configuration.isPoweredOn() ? VmStatus.POWERED_ON : VmStatus.POWERED_OFF;
+			this.target = status;
+		}
+
+		/**
+		 * Move to the target state when the busy duration is elapsed.
+		 */
+		private boolean isBusy() {
+			if (busyUntil > System.currentTimeMillis()) {
+				return true;
+			}
+			status = target;
+			return false;
+		}
+
+		private Vm toVm() {
+			final var vm = new Vm();
+			vm.setBusy(isBusy());
+			vm.setId(String.valueOf(subscription));
+			vm.setName("vm-" + subscription);
+			vm.setStatus(status);
+			vm.setCpu(configuration.getCpu());
+			vm.setRam(configuration.getRam());
+			vm.setDeployed(status != VmStatus.POWERED_OFF);
+			vm.setOs("simulated");
+			return vm;
+		}
+	}
+
+	@Getter
+	private final SimulatorConfiguration configuration;
+
+	/**
+	 * Optional task runner ending the snapshot deletion tasks, as a real provider would do.
+	 */
+	@Setter
+	private VmSnapshotResource runner;
+
+	private final Map<Integer, SimulatedVm> vms = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> volumeStarts = new ConcurrentHashMap<>();
+
+	private final Random random;
+
+	private final AtomicInteger sequence = new AtomicInteger();
+
+	/**
+	 * Amount of remote calls, including the rejected ones.
+	 */
+	@Getter
+	private final AtomicLong calls = new AtomicLong();
+
+	/**
+	 * Amount of simulated failed calls.
+	 */
+	@Getter
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Amount of rejected calls, above the throttle limit.
+	 */
+	@Getter
+	private final AtomicLong throttled = new AtomicLong();
+
+	private long window;
+
+	private int windowCalls;
+
+	/**
+	 * Constructor with the simulator behavior.
+	 *
+	 * @param configuration The simulator behavior. May be updated while running.
+	 */
+	public SimulatedVmPlugin(final SimulatorConfiguration configuration) {
+		this.configuration = configuration;
+		this.random = new Random(configuration.getSeed());
+	}
+
+	/**
+	 * Register this simulator as both contracts of the given node into the given mocked locator.
+	 *
+	 * @param locator The mocked locator.
+	 * @param node    The test node.
+	 * @return This simulator.
+	 */
+	public SimulatedVmPlugin register(final ServicePluginLocator locator, final String node) {
+		Mockito.doReturn(this).when(locator).getResource(node, VmExecutionServicePlugin.class);
+		Mockito.doReturn(this).when(locator).getResourceExpected(node, VmExecutionServicePlugin.class);
+		Mockito.doReturn(this).when(locator).getResource(node, Snapshotting.class);
+		Mockito.doReturn(this).when(locator).getResourceExpected(node, Snapshotting.class);
+		return this;
+	}
+
+	@Override
+	public String getKey() {
+		return KEY;
+	}
+
+	/**
+	 * Return the simulated VM of the given subscription.
+	 *
+	 * @param subscription The subscription identifier.
+	 * @return The simulated VM state.
+	 */
+	public Vm getVm(final int subscription) {
+		final var vm = getSimulatedVm(subscription);
+		synchronized (vm) {
+			return vm.toVm();
+		}
+	}
+
+	private SimulatedVm getSimulatedVm(final int subscription) {
+		return vms.computeIfAbsent(subscription, SimulatedVm::new);
+	}
+
+	/**
+	 * Simulate a remote call: throttling, latency and failure.
+	 */
+	private void call(final Random random) throws InterruptedException {
+		calls.incrementAndGet();
+		if (configuration.getThrottle() > 0 && !acquire()) {
+			throttled.incrementAndGet();
+			throw new BusinessException(ERROR_THROTTLED);
+		}
+		final var latency = nextLatency(random);
+		if (latency > 0) {
+			Thread.sleep(latency);
+		}
+		if (random.nextDouble() < configuration.getFailureRate()) {
+			failures.incrementAndGet();
+			throw new BusinessException(ERROR_FAILURE);
+		}
+	}
+
+	private synchronized boolean acquire() {
+		final var second = System.currentTimeMillis() / 1000;
+		if (second != window) {
+			window = second;
+			windowCalls = 0;
+		}
+		return ++windowCalls <= configuration.getThrottle();
+	}
+
+	/**
+	 * Return the latency of the next call, according to the configured distribution.
+	 *
+	 * @param random The random generator of the call.
+	 * @return The latency in milliseconds.
+	 */
+	protected long nextLatency(final Random random) {
+		final var latency = configuration.getLatency();
+		final var max = Math.max(latency, configuration.getLatencyMax());
+		return switch (configuration.getDistribution()) {
+			case FIXED -> latency;
+			case UNIFORM -> latency + (long) (random.nextDouble() * (max - latency));
+			case EXPONENTIAL -> Math.min(max, (long) (-latency * Math.log(1 - random.nextDouble())));
+		};
+	}
+
+	@Override
+	public Vm getVmDetails(final Map<String, String> parameters) throws Exception {
+		final var vm = getSimulatedVm(Integer.parseInt(parameters.get(PARAMETER_VM)));
+		synchronized (vm) {
+			call(vm.random);
+			return vm.toVm();
+		}
+	}
+
+	@Override
+	public Map<Integer, Vm> getAllVmDetails(final Map<Integer, Map<String, String>> parameters) throws Exception {
+		if (!configuration.isBatch()) {
+			return null;
+		}
+		call(random);
+		final var result = new HashMap<Integer, Vm>();
+		parameters.keySet().forEach(s -> result.put(s, getVm(s)));
+		return result;
+	}
+
+	@Override
+	public void execute(final VmExecution execution) throws Exception {
+		final var vm = getSimulatedVm(execution.getSubscription().getId());
+		synchronized (vm) {
+			call(vm.random);
+			if (vm.isBusy()) {
+				throw new BusinessException(ERROR_BUSY);
+			}
+			execution.setVm(String.valueOf(vm.subscription));
+			execution.setPreviousState(vm.status);
+			final var target = switch (execution.getOperation()) {
+				case OFF, SHUTDOWN -> VmStatus.POWERED_OFF;
+				case SUSPEND -> VmStatus.SUSPENDED;
+				default -> VmStatus.POWERED_ON;
+			};
+			if (target == vm.status && target != VmStatus.POWERED_ON) {
+				// Already in the target state, nothing to do
+				execution.setOperation(null);
+				return;
+			}
+			vm.target = target;
+			vm.busyUntil = System.currentTimeMillis() + configuration.getBusyDuration();
+		}
+	}
+
+	@Override
+	public List<VolumeSnapshot> prepareSnapshot(final VmSnapshotStatus task) throws Exception {
+		final var vm = getSimulatedVm(task.getLocked().getId());
+		synchronized (vm) {
+			call(vm.random);
+			if (task.isStop()) {
+				vm.status = VmStatus.POWERED_OFF;
+			}
+		}
+		final var volumes = new ArrayList<VolumeSnapshot>();
+		for (var i = 0; i < configuration.getVolumes(); i++) {
+			final var volume = new VolumeSnapshot();
+			volume.setName("/dev/sd" + (char) ('a' + i));
+			volumes.add(volume);
+		}
+		return volumes;
+	}
+
+	@Override
+	public String startVolume(final VmSnapshotStatus task, final VolumeSnapshot volume) throws Exception {
+		call(random);
+		final var id = "snap-vol-" + sequence.incrementAndGet();
+		volumeStarts.put(id, System.currentTimeMillis());
+		return id;
+	}
+
+	@Override
+	public int pollVolume(final VmSnapshotStatus task, final VolumeSnapshot volume) throws Exception {
+		call(random);
+		final var duration = configuration.getSnapshotDuration();
+		if (duration <= 0) {
+			return 100;
+		}
+		return (int) Math.min(100, (System.currentTimeMillis() - volumeStarts.get(volume.getId())) * 100 / duration);
+	}
+
+	@Override
+	public void deleteVolume(final VmSnapshotStatus task, final VolumeSnapshot volume) throws Exception {
+		call(random);
+		volumeStarts.remove(volume.getId());
+	}
+
+	@Override
+	public boolean completeSnapshot(final VmSnapshotStatus task, final List<VolumeSnapshot> volumes) throws Exception {
+		final var vm = getSimulatedVm(task.getLocked().getId());
+		synchronized (vm) {
+			call(vm.random);
+			final var snapshot = new Snapshot();
+			snapshot.setId("snap-" + sequence.incrementAndGet());
+			snapshot.setName("snapshot-" + vm.subscription + "-" + snapshot.getId());
+			snapshot.setDate(new Date());
+			snapshot.setVolumes(volumes);
+			snapshot.setAvailable(true);
+			vm.snapshots.addFirst(snapshot);
+			vm.status = vm.target;
+		}
+		volumes.forEach(v -> volumeStarts.remove(v.getId()));
+		return true;
+	}
+
+	@Override
+	public void snapshot(final VmSnapshotStatus task) {
+		// Driven by the volume contract
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void delete(final VmSnapshotStatus task) throws Exception {
+		final int subscription = task.getLocked().getId();
+		final var vm = getSimulatedVm(subscription);
+		try {
+			synchronized (vm) {
+				call(vm.random);
+				if (!vm.snapshots.removeIf(s -> s.getId().equals(task.getSnapshotInternalId()))) {
+					throw new BusinessException(ERROR_SNAPSHOT, task.getSnapshotInternalId());
+				}
+			}
+		} catch (final Exception e) {
+			endTask(subscription, true);
+			throw e;
+		}
+		endTask(subscription, false);
+	}
+
+	private void endTask(final int subscription, final boolean failed) {
+		if (runner != null) {
+			runner.endTask(subscription, failed);
+		}
+	}
+
+	@Override
+	public List<Snapshot> findAllSnapshots(final int subscription, final String criteria) throws Exception {
+		final var vm = getSimulatedVm(subscription);
+		synchronized (vm) {
+			call(vm.random);
+			return vm.snapshots.stream()
+					.filter(s -> StringUtils.containsIgnoreCase(s.getId(), criteria)
+							|| StringUtils.containsIgnoreCase(s.getName(), criteria))
+					.sorted(Comparator.comparing(Snapshot::getDate).reversed()).toList();
+		}
+	}
+
+	@Override
+	public void completeStatus(final VmSnapshotStatus task) {
+		// The snapshots are completed as soon as the task is ended
+		if (task.getEnd() != null) {
+			task.setFinishedRemote(true);
+		}
+	}
+}
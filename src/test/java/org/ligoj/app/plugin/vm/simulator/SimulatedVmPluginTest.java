@@ -0,0 +1,225 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.simulator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.execution.VmExecutionServicePlugin;
+import org.ligoj.app.plugin.vm.model.VmExecution;
+import org.ligoj.app.plugin.vm.model.VmOperation;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.plugin.vm.model.VmStatus;
+import org.ligoj.app.plugin.vm.snapshot.Snapshotting;
+import org.ligoj.app.plugin.vm.snapshot.VmSnapshotResource;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.bootstrap.core.resource.BusinessException;
+import org.mockito.Mockito;
+
+/**
+ * Test class of {@link SimulatedVmPlugin}
+ */
+class SimulatedVmPluginTest {
+
+	private SimulatorConfiguration configuration;
+
+	private SimulatedVmPlugin simulator;
+
+	@BeforeEach
+	void prepare() {
+		configuration = new SimulatorConfiguration();
+		simulator = new SimulatedVmPlugin(configuration);
+	}
+
+	private VmExecution newExecution(final int subscription, final VmOperation operation) {
+		final var entity = new Subscription();
+		entity.setId(subscription);
+		final var execution = new VmExecution();
+		execution.setSubscription(entity);
+		execution.setOperation(operation);
+		return execution;
+	}
+
+	private VmSnapshotStatus newTask(final int subscription) {
+		final var entity = new Subscription();
+		entity.setId(subscription);
+		final var task = new VmSnapshotStatus();
+		task.setLocked(entity);
+		return task;
+	}
+
+	@Test
+	void execute() throws Exception {
+		configuration.setBusyDuration(100);
+		Assertions.assertEquals(VmStatus.POWERED_ON, simulator.getVm(1).getStatus());
+		final var execution = newExecution(1, VmOperation.OFF);
+		simulator.execute(execution);
+		Assertions.assertEquals("1", execution.getVm());
+		Assertions.assertEquals(VmStatus.POWERED_ON, execution.getPreviousState());
+		Assertions.assertEquals(VmOperation.OFF, execution.getOperation());
+
+		// Busy, any other operation is rejected
+		var vm = simulator.getVmDetails(Map.of(SimulatedVmPlugin.PARAMETER_VM, "1"));
+		Assertions.assertTrue(vm.isBusy());
+		Assertions.assertEquals(VmStatus.POWERED_ON, vm.getStatus());
+		Assertions.assertEquals(SimulatedVmPlugin.ERROR_BUSY, Assertions.assertThrows(BusinessException.class,
+				() -> simulator.execute(newExecution(1, VmOperation.ON))).getMessage());
+
+		// Target state is reached
+		Thread.sleep(150);
+		vm = simulator.getVmDetails(Map.of(SimulatedVmPlugin.PARAMETER_VM, "1"));
+		Assertions.assertFalse(vm.isBusy());
+		Assertions.assertFalse(vm.isDeployed());
+		Assertions.assertEquals(VmStatus.POWERED_OFF, vm.getStatus());
+
+		// Already in the target state
+		final var skipped = newExecution(1, VmOperation.SHUTDOWN);
+		simulator.execute(skipped);
+		Assertions.assertNull(skipped.getOperation());
+		Assertions.assertFalse(simulator.getVm(1).isBusy());
+		Assertions.assertEquals(VmStatus.POWERED_ON, simulator.getVm(2).getStatus());
+	}
+
+	@Test
+	void failureRate() throws Exception {
+		configuration.setFailureRate(0.3);
+		final var failures = runFailures();
+		Assertions.assertTrue(failures > 10 && failures < 50, "failures=" + failures);
+		Assertions.assertEquals(failures, simulator.getFailures().get());
+		Assertions.assertEquals(100, simulator.getCalls().get());
+
+		// Same seed, same scenario
+		simulator = new SimulatedVmPlugin(configuration);
+		Assertions.assertEquals(failures, runFailures());
+	}
+
+	private int runFailures() {
+		var failures = 0;
+		for (var i = 0; i < 100; i++) {
+			try {
+				simulator.getVmDetails(Map.of(SimulatedVmPlugin.PARAMETER_VM, String.valueOf(i % 10)));
+			} catch (final Exception e) {
+				Assertions.assertEquals(SimulatedVmPlugin.ERROR_FAILURE, e.getMessage());
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	@Test
+	void throttle() {
+		configuration.setThrottle(10);
+		var throttled = 0;
+		for (var i = 0; i < 30; i++) {
+			try {
+				simulator.getVmDetails(Map.of(SimulatedVmPlugin.PARAMETER_VM, "1"));
+			} catch (final Exception e) {
+				Assertions.assertEquals(SimulatedVmPlugin.ERROR_THROTTLED, e.getMessage());
+				throttled++;
+			}
+		}
+		// At most two windows of one second
+		Assertions.assertTrue(throttled >= 10, "throttled=" + throttled);
+		Assertions.assertEquals(throttled, simulator.getThrottled().get());
+		Assertions.assertEquals(30, simulator.getCalls().get());
+	}
+
+	@Test
+	void nextLatency() {
+		final var random = new Random(1);
+		configuration.setLatency(10);
+		configuration.setLatencyMax(50);
+		Assertions.assertEquals(10, simulator.nextLatency(random));
+		configuration.setDistribution(SimulatorConfiguration.Distribution.UNIFORM);
+		for (var i = 0; i < 100; i++) {
+			final var latency = simulator.nextLatency(random);
+			Assertions.assertTrue(latency >= 10 && latency <= 50);
+		}
+		configuration.setDistribution(SimulatorConfiguration.Distribution.EXPONENTIAL);
+		var total = 0L;
+		for (var i = 0; i < 1000; i++) {
+			final var latency = simulator.nextLatency(random);
+			Assertions.assertTrue(latency >= 0 && latency <= 50);
+			total += latency;
+		}
+		// Mean is close to the configured one, minus the capped tail
+		Assertions.assertTrue(total / 1000 >= 5 && total / 1000 <= 12, "mean=" + total / 1000);
+	}
+
+	@Test
+	void getAllVmDetails() throws Exception {
+		final var vms = simulator.getAllVmDetails(Map.of(1, Map.of(), 2, Map.of()));
+		Assertions.assertEquals(2, vms.size());
+		Assertions.assertEquals("vm-2", vms.get(2).getName());
+		Assertions.assertEquals(2, vms.get(2).getCpu());
+		Assertions.assertEquals(1, simulator.getCalls().get());
+
+		// Not supported batch
+		configuration.setBatch(false);
+		Assertions.assertNull(simulator.getAllVmDetails(Map.of(1, Map.of())));
+	}
+
+	@Test
+	void snapshot() throws Exception {
+		configuration.setVolumes(2);
+		configuration.setSnapshotDuration(100);
+		final var task = newTask(1);
+		task.setStop(true);
+		final var volumes = simulator.prepareSnapshot(task);
+		Assertions.assertEquals(2, volumes.size());
+		Assertions.assertEquals("/dev/sdb", volumes.get(1).getName());
+		Assertions.assertEquals(VmStatus.POWERED_OFF, simulator.getVm(1).getStatus());
+		for (final var volume : volumes) {
+			volume.setId(simulator.startVolume(task, volume));
+		}
+		Assertions.assertTrue(simulator.pollVolume(task, volumes.getFirst()) < 100);
+		Thread.sleep(150);
+		Assertions.assertEquals(100, simulator.pollVolume(task, volumes.getFirst()));
+		simulator.completeSnapshot(task, new ArrayList<>(volumes));
+		Assertions.assertEquals(VmStatus.POWERED_ON, simulator.getVm(1).getStatus());
+
+		final var snapshots = simulator.findAllSnapshots(1, "");
+		Assertions.assertEquals(1, snapshots.size());
+		Assertions.assertTrue(snapshots.getFirst().isAvailable());
+		Assertions.assertEquals(2, snapshots.getFirst().getVolumes().size());
+		Assertions.assertEquals(1, simulator.findAllSnapshots(1, snapshots.getFirst().getId().toUpperCase()).size());
+		Assertions.assertTrue(simulator.findAllSnapshots(1, "any").isEmpty());
+		Assertions.assertTrue(simulator.findAllSnapshots(2, "").isEmpty());
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> simulator.snapshot(task));
+
+		// The remote side is completed with the task
+		simulator.completeStatus(task);
+		Assertions.assertFalse(task.isFinishedRemote());
+		task.setEnd(new Date());
+		simulator.completeStatus(task);
+		Assertions.assertTrue(task.isFinishedRemote());
+
+		// Delete ends the task
+		final var runner = Mockito.mock(VmSnapshotResource.class);
+		simulator.setRunner(runner);
+		final var delete = newTask(1);
+		delete.setSnapshotInternalId(snapshots.getFirst().getId());
+		simulator.delete(delete);
+		Mockito.verify(runner).endTask(1, false);
+		Assertions.assertTrue(simulator.findAllSnapshots(1, "").isEmpty());
+		Assertions.assertEquals(SimulatedVmPlugin.ERROR_SNAPSHOT,
+				Assertions.assertThrows(BusinessException.class, () -> simulator.delete(delete)).getMessage());
+		Mockito.verify(runner).endTask(1, true);
+	}
+
+	@Test
+	void register() {
+		final var locator = Mockito.mock(ServicePluginLocator.class);
+		Assertions.assertSame(simulator, simulator.register(locator, "service:vm:test:test"));
+		Assertions.assertSame(simulator, locator.getResource("service:vm:test:test", VmExecutionServicePlugin.class));
+		Assertions.assertSame(simulator, locator.getResourceExpected("service:vm:test:test", Snapshotting.class));
+		Assertions.assertEquals(SimulatedVmPlugin.KEY, simulator.getKey());
+	}
+}
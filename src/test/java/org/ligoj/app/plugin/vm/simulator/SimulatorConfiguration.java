@@ -0,0 +1,92 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.simulator;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Behavior of a {@link SimulatedVmPlugin}. All durations are in milliseconds.
+ */
+@Getter
+@Setter
+public class SimulatorConfiguration {
+
+	/**
+	 * Latency distribution of each remote call.
+	 */
+	public enum Distribution {
+		/**
+		 * Always {@link SimulatorConfiguration#latency}.
+		 */
+		FIXED,
+
+		/**
+		 * Uniform between {@link SimulatorConfiguration#latency} and {@link SimulatorConfiguration#latencyMax}.
+		 */
+		UNIFORM,
+
+		/**
+		 * Exponential of mean {@link SimulatorConfiguration#latency}, capped to
+		 * {@link SimulatorConfiguration#latencyMax}. Reproduces the long tail of the remote APIs.
+		 */
+		EXPONENTIAL
+	}
+
+	/**
+	 * Seed of all random decisions. The same seed and the same calls per VM give the same behavior.
+	 */
+	private long seed = 1L;
+
+	private Distribution distribution = Distribution.FIXED;
+
+	/**
+	 * Fixed, minimal or mean latency, depending on the distribution.
+	 */
+	private int latency;
+
+	/**
+	 * Maximal latency.
+	 */
+	private int latencyMax;
+
+	/**
+	 * Probability, from <code>0</code> to <code>1</code>, of a failed remote call.
+	 */
+	private double failureRate;
+
+	/**
+	 * Maximal amount of remote calls per second. Any other call is rejected. <code>0</code> means unlimited.
+	 */
+	private int throttle;
+
+	/**
+	 * Duration a VM stays busy after an operation, before reaching its target state.
+	 */
+	private int busyDuration;
+
+	/**
+	 * Duration of a volume snapshot.
+	 */
+	private int snapshotDuration;
+
+	/**
+	 * Amount of volumes of each VM.
+	 */
+	private int volumes = 1;
+
+	/**
+	 * When <code>true</code>, the VM details are fetched in one batch call.
+	 */
+	private boolean batch = true;
+
+	/**
+	 * Initial state of the VMs.
+	 */
+	private boolean poweredOn = true;
+
+	private int cpu = 2;
+
+	private int ram = 4096;
+}
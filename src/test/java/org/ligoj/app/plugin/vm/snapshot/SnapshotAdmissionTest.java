@@ -0,0 +1,198 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+
+/**
+ * Test class of {@link SnapshotAdmission}
+ */
+class SnapshotAdmissionTest {
+
+	private static final String NODE = "service:vm:test:test";
+
+	private SnapshotAdmission admission;
+
+	@BeforeEach
+	void newAdmission() {
+		admission = new SnapshotAdmission() {
+			@Override
+			protected int getConcurrency() {
+				return 1;
+			}
+
+			@Override
+			protected int getQueueSize() {
+				return 1;
+			}
+		};
+	}
+
+	@AfterEach
+	void destroy() {
+		admission.destroy();
+	}
+
+	@Test
+	void submit() throws InterruptedException {
+		final var release = new CountDownLatch(1);
+		final var done = new CountDownLatch(2);
+
+		// First operation is started, the second one is queued
+		admission.checkCapacity(NODE);
+		Assertions.assertFalse(admission.submit(NODE, 1, () -> {
+			release.await();
+			done.countDown();
+			return null;
+		}));
+		admission.checkCapacity(NODE);
+		Assertions.assertTrue(admission.submit(NODE, 2, () -> {
+			done.countDown();
+			return null;
+		}));
+
+		final var running = newTask(1);
+		admission.completeQueue(running);
+		Assertions.assertEquals(0, running.getQueuePosition());
+		Assertions.assertNull(running.getEta());
+		final var queued = newTask(2);
+		admission.completeQueue(queued);
+		Assertions.assertEquals(1, queued.getQueuePosition());
+
+		// The queue is full
+		final var e = Assertions.assertThrows(WebApplicationException.class, () -> admission.checkCapacity(NODE));
+		Assertions.assertEquals(429, e.getResponse().getStatus());
+		Assertions.assertEquals("60", e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER));
+
+		// The slot is reserved by the submission itself
+		Assertions.assertEquals(429, Assertions.assertThrows(WebApplicationException.class,
+				() -> admission.submit(NODE, 4, () -> null)).getResponse().getStatus());
+
+		// Another node is not impacted
+		admission.checkCapacity("service:vm:test:other");
+
+		// Release the first operation, the second one is started
+		release.countDown();
+		Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		admission.completeQueue(queued);
+		Assertions.assertNull(queued.getQueuePosition());
+
+		// ETA is now based on the recent durations
+		final var release2 = new CountDownLatch(1);
+		Assertions.assertFalse(admission.submit(NODE, 3, () -> {
+			release2.await();
+			return null;
+		}));
+		final var third = newTask(3);
+		admission.completeQueue(third);
+		Assertions.assertEquals(0, third.getQueuePosition());
+		Assertions.assertNotNull(third.getEta());
+		release2.countDown();
+	}
+
+	@Test
+	void submitFailed() throws InterruptedException {
+		admission.submit(NODE, 1, () -> {
+			throw new IllegalStateException();
+		});
+		Thread.sleep(100);
+
+		// Slot is released even on failure
+		Assertions.assertFalse(admission.submit(NODE, 2, () -> null));
+	}
+
+	@Test
+	void reserve() throws InterruptedException {
+		// Not enough slots on a node, nothing is reserved
+		Assertions.assertEquals(429, Assertions.assertThrows(WebApplicationException.class,
+				() -> admission.reserve(Map.of(NODE, List.of(1, 2)))).getResponse().getStatus());
+		Assertions.assertEquals(429, Assertions.assertThrows(WebApplicationException.class,
+				() -> admission.reserve(Map.of("service:vm:test:other", List.of(1), NODE, List.of(2, 3))))
+				.getResponse().getStatus());
+		final var task = newTask(2);
+		admission.completeQueue(task);
+		Assertions.assertNull(task.getQueuePosition());
+
+		// The reserved slot is running, the next operation is queued until its release
+		admission.reserve(Map.of(NODE, List.of(1)));
+		final var done = new CountDownLatch(1);
+		Assertions.assertTrue(admission.submit(NODE, 2, () -> {
+			done.countDown();
+			return null;
+		}));
+		admission.release(NODE, 1, true);
+		Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		// Releasing an unknown slot has no effect
+		admission.release(NODE, 1, false);
+	}
+
+	@Test
+	void destroyQueued() throws InterruptedException {
+		final var release = new CountDownLatch(1);
+		final var aborted = new AtomicInteger();
+		admission.submit(NODE, 1, () -> {
+			release.await();
+			return null;
+		}, aborted::incrementAndGet);
+		Assertions.assertTrue(admission.submit(NODE, 2, () -> null, aborted::incrementAndGet));
+
+		// The queued operation is ended, not the running one
+		admission.onApplicationEvent(null);
+		Assertions.assertEquals(1, aborted.get());
+		admission.destroy();
+		Assertions.assertEquals(1, aborted.get());
+		release.countDown();
+	}
+
+	@Test
+	void destroyAbortFailed() {
+		admission.submit(NODE, 1, () -> {
+			Thread.sleep(1000);
+			return null;
+		});
+		admission.submit(NODE, 2, () -> null, () -> {
+			throw new IllegalStateException();
+		});
+
+		// Failed abort does not stop the shutdown
+		admission.destroy();
+	}
+
+	@Test
+	void completeQueueUnknownNode() {
+		final var task = newTask(1);
+		task.setQueuePosition(2);
+		admission.completeQueue(task);
+		Assertions.assertNull(task.getQueuePosition());
+		Assertions.assertNull(task.getEta());
+	}
+
+	private VmSnapshotStatus newTask(final int subscription) {
+		final var node = new Node();
+		node.setId(NODE);
+		final var entity = new Subscription();
+		entity.setId(subscription);
+		entity.setNode(node);
+		final var task = new VmSnapshotStatus();
+		task.setLocked(entity);
+		return task;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.Mockito;
+
+/**
+ * Test class of {@link SnapshotCache}
+ */
+class SnapshotCacheTest {
+
+	private SnapshotCache cache;
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@BeforeEach
+	void prepare() {
+		cache = new SnapshotCache();
+		cache.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(60).when(cache.configuration).get(SnapshotCache.CONF_TTL, 60);
+		Mockito.doReturn(3600).when(cache.configuration).get(SnapshotCache.CONF_MAX_STALE, 3600);
+	}
+
+	@AfterEach
+	void destroy() {
+		cache.destroy();
+	}
+
+	private List<Snapshot> load() {
+		loads.incrementAndGet();
+		return List.of(new Snapshot());
+	}
+
+	@Test
+	void evict() throws Exception {
+		cache.get(1, this::load);
+		final var token = cache.changes(2, null, this::load).getToken();
+
+		// Fresh listings are kept
+		Assertions.assertEquals(0, cache.evict());
+		cache.get(1, this::load);
+		Assertions.assertEquals(2, loads.get());
+
+		// Expired listings are evicted
+		Mockito.doReturn(-1).when(cache.configuration).get(SnapshotCache.CONF_MAX_STALE, 3600);
+		Assertions.assertEquals(2, cache.evict());
+		Assertions.assertEquals(0, cache.evict());
+
+		// The next changes are complete
+		Mockito.doReturn(3600).when(cache.configuration).get(SnapshotCache.CONF_MAX_STALE, 3600);
+		Assertions.assertTrue(cache.changes(2, token, this::load).isFull());
+		Assertions.assertEquals(3, loads.get());
+	}
+
+	@Test
+	void evictOnAccess() throws Exception {
+		cache.get(1, this::load);
+		Mockito.doReturn(-1).when(cache.configuration).get(SnapshotCache.CONF_MAX_STALE, 3600);
+
+		// The expired listing of the other subscription is evicted by this access
+		cache.get(2, this::load);
+		Mockito.doReturn(3600).when(cache.configuration).get(SnapshotCache.CONF_MAX_STALE, 3600);
+		cache.get(1, this::load);
+		Assertions.assertEquals(3, loads.get());
+	}
+}
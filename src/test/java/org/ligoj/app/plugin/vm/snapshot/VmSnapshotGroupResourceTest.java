@@ -0,0 +1,140 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.WebApplicationException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.model.SnapshotOperation;
+import org.ligoj.app.plugin.vm.model.VmSchedule;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.bootstrap.core.resource.BusinessException;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link VmSnapshotGroupResource}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+class VmSnapshotGroupResourceTest extends AbstractServerTest {
+
+	private VmSnapshotGroupResource resource;
+
+	private int subscription;
+
+	private Snapshotting service;
+
+	@BeforeEach
+	void prepareData() throws IOException {
+		// Only with Spring context
+		persistEntities("csv", new Class<?>[]{Node.class, Project.class, Subscription.class, VmSchedule.class},
+				StandardCharsets.UTF_8);
+
+		subscription = getSubscription("Jupiter", VmResource.SERVICE_KEY);
+		service = Mockito.mock(Snapshotting.class);
+		final var snapshotResource = new VmSnapshotResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(snapshotResource);
+		snapshotResource.locator = Mockito.mock(ServicePluginLocator.class);
+		Mockito.doReturn(service).when(snapshotResource.locator).getResource("service:vm:test:test",
+				Snapshotting.class);
+		resource = new VmSnapshotGroupResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		resource.snapshotResource = snapshotResource;
+	}
+
+	@Test
+	void create() throws Exception {
+		final var vo = new SnapshotGroupVo();
+		vo.setSubscriptions(List.of(subscription, subscription));
+		vo.setStop(true);
+		final var group = resource.create(vo);
+		Thread.sleep(200);
+		Mockito.verify(service).snapshot(ArgumentMatchers.any(VmSnapshotStatus.class));
+
+		Assertions.assertNotNull(group.getId());
+		Assertions.assertEquals(getAuthenticationName(), group.getAuthor());
+		Assertions.assertNotNull(group.getStart());
+		Assertions.assertEquals(List.of(subscription), group.getSubscriptions());
+		Assertions.assertEquals(1, group.getTasks().size());
+		Assertions.assertTrue(group.getTasks().get(0).isStop());
+		Assertions.assertEquals(SnapshotOperation.CREATE, group.getTasks().get(0).getOperation());
+		Assertions.assertEquals(100, group.getWorkload());
+		Assertions.assertEquals(0, group.getDone());
+		Assertions.assertFalse(group.isFinished());
+		Assertions.assertFalse(group.isFailed());
+
+		// Aggregated progress
+		final var task = group.getTasks().get(0);
+		task.setWorkload(4);
+		task.setDone(1);
+		final var found = resource.findById(group.getId());
+		Assertions.assertEquals(25, found.getDone());
+		Assertions.assertFalse(found.isFinished());
+
+		// A finished task counts for its full workload
+		resource.snapshotResource.endTask(subscription, false, t -> t.setFinishedRemote(true));
+		final var finished = resource.findById(group.getId());
+		Assertions.assertEquals(100, finished.getDone());
+		Assertions.assertTrue(finished.isFinished());
+		Assertions.assertFalse(finished.isFailed());
+	}
+
+	@Test
+	void createEmpty() {
+		final var vo = new SnapshotGroupVo();
+		vo.setSubscriptions(List.of());
+		Assertions.assertEquals("vm-snapshot-group-size",
+				Assertions.assertThrows(BusinessException.class, () -> resource.create(vo)).getMessage());
+	}
+
+	@Test
+	void createNotSupported() throws Exception {
+		resource.snapshotResource.locator = Mockito.mock(ServicePluginLocator.class);
+		final var vo = new SnapshotGroupVo();
+		vo.setSubscriptions(List.of(subscription));
+		Assertions.assertEquals("snapshot-no-supported",
+				Assertions.assertThrows(BusinessException.class, () -> resource.create(vo)).getMessage());
+		Assertions.assertNull(resource.snapshotResource.getTaskRepository().findBy("locked.id", subscription));
+	}
+
+	@Test
+	void createNoSlot() {
+		resource.admission = Mockito.mock(SnapshotAdmission.class);
+		Mockito.doThrow(new WebApplicationException(429)).when(resource.admission)
+				.reserve(ArgumentMatchers.anyMap());
+		final var vo = new SnapshotGroupVo();
+		vo.setSubscriptions(List.of(subscription));
+		Assertions.assertEquals(429, Assertions.assertThrows(WebApplicationException.class, () -> resource.create(vo))
+				.getResponse().getStatus());
+		Assertions.assertNull(resource.snapshotResource.getTaskRepository().findBy("locked.id", subscription));
+		Mockito.verify(resource.admission).reserve(Map.of("service:vm:test:test", List.of(subscription)));
+	}
+
+	@Test
+	void findByIdNotFound() {
+		Assertions.assertThrows(EntityNotFoundException.class, () -> resource.findById("any"));
+	}
+}
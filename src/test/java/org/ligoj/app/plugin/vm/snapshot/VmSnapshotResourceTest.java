@@ -5,11 +5,13 @@ package org.ligoj.app.plugin.vm.snapshot;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 import jakarta.transaction.Transactional;
+import jakarta.ws.rs.WebApplicationException;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -76,6 +78,7 @@ class VmSnapshotResourceTest extends AbstractServerTest {
 		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
 		resource.locator = Mockito.mock(ServicePluginLocator.class);
 		Mockito.doReturn(service).when(resource.locator).getResource("service:vm:test:test", Snapshotting.class);
+		resource.cache.invalidate(subscription);
 	}
 
 	@Test
@@ -126,6 +129,20 @@ class VmSnapshotResourceTest extends AbstractServerTest {
 		Assertions.assertFalse(resource.getTask(subscription).isFinished());
 	}
 
+	@Test
+	void createRejected() {
+		resource.admission = Mockito.mock(SnapshotAdmission.class);
+		Mockito.doThrow(new WebApplicationException(429)).when(resource.admission)
+				.submit(ArgumentMatchers.anyString(), ArgumentMatchers.anyInt(), ArgumentMatchers.any(),
+						ArgumentMatchers.any());
+		Assertions.assertThrows(WebApplicationException.class, () -> resource.create(subscription, true));
+
+		// The started task is ended
+		final var task = resource.getTask(subscription);
+		Assertions.assertTrue(task.isFailed());
+		Assertions.assertEquals("rejected", task.getStatusText());
+	}
+
 	@Test
 	void delete() throws Exception {
 		status = resource.delete(subscription, "snapshot-id");
@@ -149,6 +166,8 @@ class VmSnapshotResourceTest extends AbstractServerTest {
 	@Test
 	void findAll() throws Exception {
 		var snapshot = new Snapshot();
+		snapshot.setId("snap-1");
+		snapshot.setName("Criteria-Name");
 		snapshot.setAuthor(new SimpleUser());
 		snapshot.setAvailable(true);
 		snapshot.setDate(new Date());
@@ -163,7 +182,7 @@ class VmSnapshotResourceTest extends AbstractServerTest {
 		volumeSnapshot.setSize(10);
 		volumeSnapshot.setName("/dev");
 		snapshot.setVolumes(Collections.singletonList(volumeSnapshot));
-		Mockito.doReturn(Collections.singletonList(snapshot)).when(service).findAllSnapshots(subscription, "criteria");
+		Mockito.doReturn(Collections.singletonList(snapshot)).when(service).findAllSnapshots(subscription, "");
 
 		final var list = resource.findAll(subscription, "criteria");
 		Assertions.assertEquals(1, list.size());
@@ -187,6 +206,164 @@ class VmSnapshotResourceTest extends AbstractServerTest {
 				SnapshotOperation.valueOf(SnapshotOperation.values()[0].name()));
 	}
 
+	@Test
+	void findAllCached() throws Exception {
+		final var snapshot1 = new Snapshot();
+		snapshot1.setId("snap-1");
+		snapshot1.setName("first");
+		final var snapshot2 = new Snapshot();
+		snapshot2.setId("snap-2");
+		snapshot2.setName("second");
+		Mockito.doReturn(List.of(snapshot2, snapshot1)).when(service).findAllSnapshots(subscription, "");
+
+		// Criteria is applied in memory on the cached listing
+		Assertions.assertEquals(2, resource.findAll(subscription, "").size());
+		Assertions.assertEquals("snap-1", resource.findAll(subscription, "FIRST").getFirst().getId());
+		Assertions.assertEquals("snap-2", resource.findAll(subscription, "snap-2").getFirst().getId());
+		Assertions.assertEquals(0, resource.findAll(subscription, "any").size());
+		Mockito.verify(service, Mockito.times(1)).findAllSnapshots(subscription, "");
+
+		// A finished deletion patches the listing
+		final var task = new VmSnapshotStatus();
+		task.setLocked(subscriptionRepository.findOneExpected(subscription));
+		task.setOperation(SnapshotOperation.DELETE);
+		task.setSnapshotInternalId("snap-2");
+		resource.cache.finished(task);
+		Assertions.assertEquals("snap-1", resource.findAll(subscription, "").getFirst().getId());
+
+		// A finished creation invalidates the listing
+		Thread.sleep(200);
+		task.setOperation(SnapshotOperation.CREATE);
+		resource.cache.finished(task);
+		Mockito.doReturn(List.of(snapshot1)).when(service).findAllSnapshots(subscription, "");
+		Assertions.assertEquals(1, resource.findAll(subscription, "").size());
+	}
+
+	@Test
+	void findChanges() throws Exception {
+		final var snapshot1 = new Snapshot();
+		snapshot1.setId("snap-1");
+		snapshot1.setDate(new Date(1000));
+		Mockito.doReturn(List.of(snapshot1)).when(service).findAllSnapshots(subscription, "");
+
+		// Unknown token
+		final var full = resource.findChanges(subscription, null);
+		Assertions.assertTrue(full.isFull());
+		Assertions.assertEquals(1, full.getChanged().size());
+		Assertions.assertTrue(full.getToken().startsWith("v"));
+
+		// No change
+		final var same = resource.findChanges(subscription, full.getToken());
+		Assertions.assertFalse(same.isFull());
+		Assertions.assertEquals(full.getToken(), same.getToken());
+		Assertions.assertTrue(same.getChanged().isEmpty());
+		Assertions.assertTrue(same.getDeleted().isEmpty());
+
+		// Creation, change and deletion
+		final var snapshot1b = new Snapshot();
+		snapshot1b.setId("snap-1");
+		snapshot1b.setDate(new Date(1000));
+		snapshot1b.setAvailable(true);
+		final var snapshot2 = new Snapshot();
+		snapshot2.setId("snap-2");
+		snapshot2.setDate(new Date(2000));
+		Mockito.doReturn(List.of(snapshot2, snapshot1b)).when(service).findAllSnapshots(subscription, "");
+		resource.cache.invalidate(subscription);
+		var delta = resource.findChanges(subscription, full.getToken());
+		Assertions.assertNotEquals(full.getToken(), delta.getToken());
+		Assertions.assertEquals(List.of("snap-2", "snap-1"), delta.getChanged().stream().map(Snapshot::getId).toList());
+		Assertions.assertTrue(delta.getDeleted().isEmpty());
+
+		Mockito.doReturn(List.of(snapshot2)).when(service).findAllSnapshots(subscription, "");
+		resource.cache.invalidate(subscription);
+		delta = resource.findChanges(subscription, delta.getToken());
+		Assertions.assertTrue(delta.getChanged().isEmpty());
+		Assertions.assertEquals(List.of("snap-1"), delta.getDeleted());
+
+		// Only the creations since a timestamp
+		delta = resource.findChanges(subscription, "1500");
+		Assertions.assertFalse(delta.isFull());
+		Assertions.assertEquals("snap-2", delta.getChanged().getFirst().getId());
+		Assertions.assertTrue(resource.findChanges(subscription, "3000").getChanged().isEmpty());
+
+		// Invalid token
+		Assertions.assertTrue(resource.findChanges(subscription, "v-invalid").isFull());
+	}
+
+	@Test
+	void findChangesNative() throws Exception {
+		final var delta = new SnapshotDelta();
+		Mockito.doReturn(delta).when(service).findChangedSnapshots(subscription, "token");
+		Assertions.assertSame(delta, resource.findChanges(subscription, "token"));
+		Mockito.verify(service, Mockito.never()).findAllSnapshots(subscription, "");
+	}
+
+	@Test
+	void findPageNative() throws Exception {
+		final var page = new SnapshotPage();
+		page.setNext("token");
+		Mockito.doReturn(page).when(service).findSnapshots(ArgumentMatchers.eq(subscription),
+				ArgumentMatchers.argThat(q -> q.getLimit() == 500 && !q.isVolumes()));
+		Assertions.assertEquals("token",
+				resource.findPage(subscription, "", 1000, null, null, null, null, false).getNext());
+		Mockito.verify(service, Mockito.never()).findAllSnapshots(subscription, "");
+	}
+
+	@Test
+	void findPage() throws Exception {
+		final var snapshots = new ArrayList<Snapshot>();
+		for (var i = 3; i > 0; i--) {
+			final var snapshot = new Snapshot();
+			snapshot.setId("snap-" + i);
+			snapshot.setName("name-" + i);
+			snapshot.setDate(new Date(i * 1000L));
+			snapshot.setAvailable(i != 2);
+			final var volume = new VolumeSnapshot();
+			volume.setId("vol-" + i);
+			snapshot.setVolumes(List.of(volume));
+			snapshots.add(snapshot);
+		}
+		final var paging = new Snapshotting() {
+
+			@Override
+			public void snapshot(final VmSnapshotStatus transientTask) {
+				// No implementation
+			}
+
+			@Override
+			public List<Snapshot> findAllSnapshots(int subscription, String criteria) {
+				return snapshots;
+			}
+
+			@Override
+			public void delete(final VmSnapshotStatus transientTask) {
+				// No implementation
+			}
+		};
+		Mockito.doReturn(paging).when(resource.locator).getResource("service:vm:test:test", Snapshotting.class);
+
+		// First page
+		var page = resource.findPage(subscription, "", 2, null, null, null, null, true);
+		Assertions.assertEquals(3, page.getTotal());
+		Assertions.assertEquals("2", page.getNext());
+		Assertions.assertEquals(List.of("snap-3", "snap-2"), page.getData().stream().map(Snapshot::getId).toList());
+		Assertions.assertEquals(1, page.getData().getFirst().getVolumes().size());
+
+		// Last page, without volumes
+		page = resource.findPage(subscription, "", 2, page.getNext(), null, null, null, false);
+		Assertions.assertNull(page.getNext());
+		Assertions.assertEquals("snap-1", page.getData().getFirst().getId());
+		Assertions.assertEquals("name-1", page.getData().getFirst().getName());
+		Assertions.assertNull(page.getData().getFirst().getVolumes());
+		Assertions.assertNotNull(snapshots.get(2).getVolumes());
+
+		// Filters
+		page = resource.findPage(subscription, "", 50, null, 1000L, 3000L, true, true);
+		Assertions.assertEquals(List.of("snap-1"), page.getData().stream().map(Snapshot::getId).toList());
+		page = resource.findPage(subscription, "NAME-2", 50, null, null, null, null, true);
+		Assertions.assertEquals(List.of("snap-2"), page.getData().stream().map(Snapshot::getId).toList());
+	}
+
 	@Test
 	void getTask() {
 		// Add a running task
@@ -202,6 +379,69 @@ class VmSnapshotResourceTest extends AbstractServerTest {
 		Mockito.verify(service).completeStatus(ArgumentMatchers.any(VmSnapshotStatus.class));
 		Assertions.assertEquals("junit", task.getAuthor());
 		Assertions.assertEquals(SnapshotOperation.CREATE, task.getOperation());
+
+		// The checked state is saved
+		em.clear();
+		Assertions.assertNotNull(repository.findBy("locked.id", subscription).getNextCheck());
+	}
+
+	@Test
+	void getTaskConcurrentProgress() {
+		final var oldTask = new VmSnapshotStatus();
+		oldTask.setAuthor("junit");
+		oldTask.setStart(new Date());
+		oldTask.setWorkload(2);
+		oldTask.setLocked(subscriptionRepository.findOneExpected(subscription));
+		repository.saveAndFlush(oldTask);
+		mockProxy();
+
+		// Concurrent progress of the runner, the managed task is not refreshed
+		em.createQuery("UPDATE VmSnapshotStatus SET done = 2, phase = :phase").setParameter("phase", "end")
+				.executeUpdate();
+
+		// Only the check columns are written
+		resource.getTask(subscription);
+		em.flush();
+		em.clear();
+		final var task = repository.findBy("locked.id", subscription);
+		Assertions.assertNotNull(task.getNextCheck());
+		Assertions.assertEquals(2, task.getDone());
+		Assertions.assertEquals("end", task.getPhase());
+	}
+
+	@Test
+	void getTaskThrottled() {
+		final var oldTask = new VmSnapshotStatus();
+		oldTask.setAuthor("junit");
+		oldTask.setStart(new Date());
+		oldTask.setPhase("phase1");
+		oldTask.setLocked(subscriptionRepository.findOneExpected(subscription));
+		repository.saveAndFlush(oldTask);
+		mockProxy();
+
+		// First poll checks the remote status
+		var task = resource.getTask(subscription);
+		Assertions.assertNotNull(task.getLastCheck());
+		Assertions.assertEquals(2000, task.getNextCheck().getTime() - task.getLastCheck().getTime());
+		Assertions.assertEquals("phase1", task.getCheckedPhase());
+
+		// Next poll is throttled
+		task = resource.getTask(subscription);
+		Mockito.verify(service, Mockito.times(1)).completeStatus(ArgumentMatchers.any(VmSnapshotStatus.class));
+
+		// Due check doubles the delay
+		task.setNextCheck(new Date(task.getLastCheck().getTime() + 2000 - 60000));
+		task.setLastCheck(new Date(task.getLastCheck().getTime() - 60000));
+		task = resource.getTask(subscription);
+		Mockito.verify(service, Mockito.times(2)).completeStatus(ArgumentMatchers.any(VmSnapshotStatus.class));
+		Assertions.assertEquals(4000, task.getNextCheck().getTime() - task.getLastCheck().getTime());
+
+		// Phase change resets the delay
+		task.setPhase("phase2");
+		task = resource.getTask(subscription);
+		Mockito.verify(service, Mockito.times(3)).completeStatus(ArgumentMatchers.any(VmSnapshotStatus.class));
+		Assertions.assertEquals(2000, task.getNextCheck().getTime() - task.getLastCheck().getTime());
+		Assertions.assertEquals("phase2", task.getCheckedPhase());
 	}
 
 	@Test
@@ -0,0 +1,264 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+
+import jakarta.transaction.Transactional;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractServerTest;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.VmResource;
+import org.ligoj.app.plugin.vm.dao.VmSnapshotRetentionRepository;
+import org.ligoj.app.plugin.vm.model.SnapshotOperation;
+import org.ligoj.app.plugin.vm.model.VmSnapshotDeletion;
+import org.ligoj.app.plugin.vm.model.VmSchedule;
+import org.ligoj.app.plugin.vm.model.VmSnapshotRetention;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.app.resource.ServicePluginLocator;
+import org.ligoj.app.resource.node.NodeResource;
+import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Test class of {@link VmSnapshotRetentionResource}
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+class VmSnapshotRetentionResourceTest extends AbstractServerTest {
+
+	private VmSnapshotRetentionResource resource;
+
+	private int subscription;
+
+	private Snapshotting service;
+
+	@Autowired
+	private VmSnapshotRetentionRepository repository;
+
+	@BeforeEach
+	void prepareData() throws IOException {
+		// Only with Spring context
+		persistEntities("csv", new Class<?>[]{Node.class, Project.class, Subscription.class, VmSchedule.class},
+				StandardCharsets.UTF_8);
+
+		subscription = getSubscription("Jupiter", VmResource.SERVICE_KEY);
+		service = Mockito.mock(Snapshotting.class);
+		resource = new VmSnapshotRetentionResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		resource.locator = Mockito.mock(ServicePluginLocator.class);
+		Mockito.doReturn(service).when(resource.locator).getResource("service:vm:test:test", Snapshotting.class);
+		resource.snapshotResource = new VmSnapshotResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource.snapshotResource);
+		resource.snapshotResource.locator = resource.locator;
+
+		// The deletions are remotely finished on the first remote check
+		Mockito.doAnswer(i -> {
+			i.<VmSnapshotStatus>getArgument(0).setFinishedRemote(true);
+			return null;
+		}).when(service).completeStatus(ArgumentMatchers.any(VmSnapshotStatus.class));
+		resource.nodeResource = Mockito.mock(NodeResource.class);
+		Mockito.doAnswer(i -> em.find(Node.class, i.getArgument(0))).when(resource.nodeResource)
+				.checkWritableNode(ArgumentMatchers.anyString());
+	}
+
+	@Test
+	void getExpiredNoRule() {
+		Assertions.assertTrue(VmSnapshotRetentionResource
+				.getExpired(List.of(newSnapshot("s1", 10, true)), new VmSnapshotRetention(), new Date()).isEmpty());
+	}
+
+	@Test
+	void getExpiredKeepLast() {
+		final var rule = new VmSnapshotRetention();
+		rule.setKeepLast(2);
+		rule.setKeepAvailable(false);
+		final var pending = newSnapshot("pending", 0, false);
+		pending.setPending(true);
+		final var expired = VmSnapshotRetentionResource.getExpired(List.of(newSnapshot("s4", 40, true),
+				newSnapshot("s1", 1, true), pending, newSnapshot("s3", 30, true), newSnapshot("s2", 2, true)), rule,
+				new Date());
+		Assertions.assertEquals(List.of("s3", "s4"), expired.stream().map(Snapshot::getId).toList());
+	}
+
+	@Test
+	void getExpiredKeepDays() {
+		final var rule = new VmSnapshotRetention();
+		rule.setKeepDays(7);
+		final var expired = VmSnapshotRetentionResource.getExpired(
+				List.of(newSnapshot("s1", 1, true), newSnapshot("s2", 8, true), newSnapshot("s3", 9, true)), rule,
+				new Date());
+		Assertions.assertEquals(List.of("s2", "s3"), expired.stream().map(Snapshot::getId).toList());
+	}
+
+	@Test
+	void getExpiredKeepAvailable() {
+		final var rule = new VmSnapshotRetention();
+		rule.setKeepLast(1);
+		final var expired = VmSnapshotRetentionResource.getExpired(
+				List.of(newSnapshot("s1", 1, false), newSnapshot("s2", 2, true), newSnapshot("s3", 3, true)), rule,
+				new Date());
+		Assertions.assertEquals(List.of("s3"), expired.stream().map(Snapshot::getId).toList());
+	}
+
+	@Test
+	void saveOrUpdate() {
+		Assertions.assertNull(resource.findBySubscription(subscription));
+
+		// Node rule is inherited
+		resource.saveOrUpdate("service:vm", newVo(5, null));
+		Assertions.assertEquals("service:vm", resource.findBySubscription(subscription).getNode());
+		resource.saveOrUpdate("service:vm:test", newVo(4, null));
+		Assertions.assertEquals("service:vm:test", resource.findBySubscription(subscription).getNode());
+		Assertions.assertEquals(4, resource.findByNode("service:vm:test").getKeepLast());
+
+		// Subscription rule wins
+		resource.saveOrUpdate(subscription, newVo(null, 30));
+		resource.saveOrUpdate(subscription, newVo(2, 30));
+		var vo = resource.findBySubscription(subscription);
+		Assertions.assertNull(vo.getNode());
+		Assertions.assertEquals(2, vo.getKeepLast());
+		Assertions.assertEquals(30, vo.getKeepDays());
+		Assertions.assertTrue(vo.isKeepAvailable());
+		Assertions.assertEquals(2, resource.resolve().get(subscription).rule().getKeepLast());
+
+		// Back to the node rule
+		resource.delete(subscription);
+		Assertions.assertEquals("service:vm:test", resource.findBySubscription(subscription).getNode());
+		Assertions.assertEquals(4, resource.resolve().get(subscription).rule().getKeepLast());
+		resource.delete("service:vm:test");
+		resource.delete("service:vm");
+		Assertions.assertNull(resource.findBySubscription(subscription));
+		Assertions.assertNull(resource.findByNode("service:vm"));
+		Assertions.assertTrue(resource.resolve().isEmpty());
+	}
+
+	@Test
+	void saveOrUpdateEmpty() {
+		final var vo = newVo(null, null);
+		Assertions.assertThrows(ValidationJsonException.class, () -> resource.saveOrUpdate(subscription, vo));
+	}
+
+	@Test
+	void purge() throws Exception {
+		resource.saveOrUpdate(subscription, newVo(1, null));
+		Mockito.doReturn(List.of(newSnapshot("s1", 1, true), newSnapshot("s2", 2, true), newSnapshot("s3", 3, true)))
+				.when(service).findAllSnapshots(subscription, "");
+		Mockito.doThrow(new IllegalStateException("remote-error")).when(service)
+				.delete(ArgumentMatchers.argThat(t -> "s3".equals(t.getSnapshotInternalId())));
+		final var target = resource.resolve().get(subscription);
+
+		final var deletions = resource.purge(target.subscription(), target.rule());
+		Assertions.assertEquals(2, deletions.size());
+		Assertions.assertEquals("s2", deletions.get(0).getSnapshot());
+		Assertions.assertTrue(deletions.get(0).isSucceed());
+		Assertions.assertNull(deletions.get(0).getError());
+		Assertions.assertEquals("s3", deletions.get(1).getSnapshot());
+		Assertions.assertFalse(deletions.get(1).isSucceed());
+		Assertions.assertEquals("remote-error", deletions.get(1).getError());
+		Mockito.verify(service, Mockito.times(2)).delete(ArgumentMatchers.any(VmSnapshotStatus.class));
+
+		// Each snapshot has its own task, ended even when the provider does not, and remotely checked
+		final var task = resource.snapshotResource.getTaskRepository().findBy("locked.id", subscription);
+		Assertions.assertEquals(SnapshotOperation.DELETE, task.getOperation());
+		Assertions.assertEquals(1, task.getWorkload());
+		Assertions.assertEquals("s3", task.getSnapshotInternalId());
+		Assertions.assertEquals("retention", task.getStatusText());
+		Assertions.assertNotNull(task.getEnd());
+		Assertions.assertTrue(task.isFailed());
+		Mockito.verify(service).completeStatus(ArgumentMatchers.argThat(t -> "s2".equals(t.getSnapshotInternalId())));
+
+		// Report
+		final var report = resource.findAllDeletions(subscription);
+		Assertions.assertEquals(2, report.size());
+		Assertions.assertEquals("s3", report.get(0).getSnapshot());
+
+		// Subscription deletion
+		resource.deleteAll(subscription);
+		Assertions.assertTrue(resource.findAllDeletions(subscription).isEmpty());
+		Assertions.assertEquals(0, repository.count());
+	}
+
+	@Test
+	void purgeBatches() throws Exception {
+		resource.saveOrUpdate(subscription, newVo(1, null));
+		final var snapshots = List.of(newSnapshot("s1", 1, true), newSnapshot("s2", 2, true),
+				newSnapshot("s3", 3, true), newSnapshot("s4", 4, true));
+		Mockito.doReturn(snapshots).when(service).findAllSnapshots(subscription, "");
+		Mockito.doThrow(new IllegalStateException("remote-error")).when(service)
+				.delete(ArgumentMatchers.argThat(t -> "s3".equals(t.getSnapshotInternalId())));
+		resource.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(1).when(resource.configuration).get(VmSnapshotRetentionResource.CONF_BATCH, 10);
+		final var target = resource.resolve().get(subscription);
+
+		// The execution stops after the failed batch
+		final var deletions = resource.purge(target.subscription(), target.rule());
+		Assertions.assertEquals(List.of("s2", "s3"), deletions.stream().map(VmSnapshotDeletion::getSnapshot).toList());
+		Mockito.verify(service, Mockito.never())
+				.delete(ArgumentMatchers.argThat(t -> "s4".equals(t.getSnapshotInternalId())));
+	}
+
+	@Test
+	void purgeCached() throws Exception {
+		resource.saveOrUpdate(subscription, newVo(1, null));
+		final var snapshots = List.of(newSnapshot("s1", 1, true), newSnapshot("s2", 2, true),
+				newSnapshot("s3", 3, true));
+		Mockito.doReturn(snapshots).when(service).findAllSnapshots(subscription, "");
+		resource.cache.invalidate(subscription);
+		Assertions.assertEquals(3, resource.cache.get(subscription, () -> snapshots).size());
+		final var target = resource.resolve().get(subscription);
+		Assertions.assertEquals(2, resource.purge(target.subscription(), target.rule()).size());
+
+		// The deleted snapshots are removed from the cached listing
+		Assertions.assertEquals(List.of("s1"),
+				resource.cache.get(subscription, () -> snapshots).stream().map(Snapshot::getId).toList());
+	}
+
+	@Test
+	void purgeNotSupported() throws Exception {
+		resource.saveOrUpdate(subscription, newVo(1, null));
+		resource.locator = Mockito.mock(ServicePluginLocator.class);
+		final var target = resource.resolve().get(subscription);
+		Assertions.assertTrue(resource.purge(target.subscription(), target.rule()).isEmpty());
+	}
+
+	@Test
+	void executeNoRule() {
+		Assertions.assertEquals(0, resource.execute());
+	}
+
+	private VmSnapshotRetentionVo newVo(final Integer keepLast, final Integer keepDays) {
+		final var vo = new VmSnapshotRetentionVo();
+		vo.setKeepLast(keepLast);
+		vo.setKeepDays(keepDays);
+		return vo;
+	}
+
+	private Snapshot newSnapshot(final String id, final int days, final boolean available) {
+		final var snapshot = new Snapshot();
+		snapshot.setId(id);
+		snapshot.setName(id);
+		snapshot.setDate(DateUtils.addDays(new Date(), -days));
+		snapshot.setAvailable(available);
+		return snapshot;
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.vm.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.vm.model.VmSnapshotStatus;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+/**
+ * Test class of {@link VolumeSnapshotRunner}
+ */
+class VolumeSnapshotRunnerTest {
+
+	private VolumeSnapshotRunner runner;
+
+	private VmSnapshotResource resource;
+
+	private VmSnapshotStatus task;
+
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final AtomicInteger maxRunning = new AtomicInteger();
+
+	private final Map<String, Integer> polls = new ConcurrentHashMap<>();
+
+	private final List<VolumeSnapshot> completed = new ArrayList<>();
+
+	private final List<String> deleted = new ArrayList<>();
+
+	private boolean async;
+
+	private boolean deleteFailed;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void prepare() {
+		runner = new VolumeSnapshotRunner();
+		runner.pollInterval = 10;
+		runner.configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.doReturn(2).when(runner.configuration).get(VolumeSnapshotRunner.CONF_CONCURRENCY, 4);
+		final var subscription = new Subscription();
+		subscription.setId(1);
+		task = new VmSnapshotStatus();
+		task.setLocked(subscription);
+		resource = Mockito.mock(VmSnapshotResource.class);
+		Mockito.doAnswer(i -> {
+			((Consumer<VmSnapshotStatus>) i.getArgument(1)).accept(task);
+			return null;
+		}).when(resource).nextStep(ArgumentMatchers.eq(1), ArgumentMatchers.any());
+		Mockito.doAnswer(i -> {
+			task.setFailed(true);
+			((Consumer<VmSnapshotStatus>) i.getArgument(2)).accept(task);
+			return null;
+		}).when(resource).endTask(ArgumentMatchers.eq(1), ArgumentMatchers.eq(true), ArgumentMatchers.any());
+		Mockito.doAnswer(i -> {
+			((Consumer<VmSnapshotStatus>) i.getArgument(2)).accept(task);
+			return null;
+		}).when(resource).endTask(ArgumentMatchers.eq(1), ArgumentMatchers.eq(false), ArgumentMatchers.any());
+	}
+
+	@Test
+	void snapshot() throws Exception {
+		runner.snapshot(resource, task, newProvider(null));
+
+		// All volumes are snapshot, with at most 2 at the same time
+		Assertions.assertEquals(2, maxRunning.get());
+		Assertions.assertEquals(3, completed.size());
+		Assertions.assertEquals("snap-sda", completed.get(0).getId());
+		Assertions.assertEquals(300, task.getWorkload());
+		Assertions.assertEquals(300, task.getDone());
+		Assertions.assertEquals("3/3", task.getStatusText());
+		Assertions.assertEquals(VolumeSnapshotRunner.PHASE_COMPLETING, task.getPhase());
+		Assertions.assertTrue(task.isFinishedRemote());
+		Assertions.assertFalse(task.isFailed());
+		Assertions.assertTrue(deleted.isEmpty());
+	}
+
+	@Test
+	void snapshotAsync() throws Exception {
+		async = true;
+		runner.snapshot(resource, task, newProvider(null));
+
+		// The remote completion is left to the status polling
+		Assertions.assertEquals(3, completed.size());
+		Assertions.assertFalse(task.isFinishedRemote());
+		Assertions.assertFalse(task.isFailed());
+	}
+
+	@Test
+	void snapshotFailed() {
+		Assertions.assertEquals("sdb-failed", Assertions
+				.assertThrows(IllegalStateException.class, () -> runner.snapshot(resource, task, newProvider("sdb")))
+				.getMessage());
+		Assertions.assertTrue(task.isFailed());
+		Assertions.assertEquals("sdb-failed", task.getStatusText());
+		Assertions.assertTrue(completed.isEmpty());
+		Assertions.assertFalse(task.isFinishedRemote());
+		Mockito.verify(resource, Mockito.never()).endTask(ArgumentMatchers.eq(1), ArgumentMatchers.eq(false),
+				ArgumentMatchers.any());
+
+		// The started volume snapshots are deleted
+		Assertions.assertTrue(deleted.containsAll(List.of("snap-sda", "snap-sdb")));
+	}
+
+	@Test
+	void snapshotFailedNotDeleted() {
+		deleteFailed = true;
+		Assertions.assertThrows(IllegalStateException.class, () -> runner.snapshot(resource, task, newProvider("sdb")));
+		Assertions.assertTrue(task.isFailed());
+		Assertions.assertTrue(task.getStatusText().startsWith("sdb-failed, remaining volumes: "));
+		Assertions.assertTrue(task.getStatusText().contains("snap-sdb"));
+	}
+
+	private VolumeSnapshotting newProvider(final String failing) {
+		return new VolumeSnapshotting() {
+
+			@Override
+			public List<VolumeSnapshot> prepareSnapshot(final VmSnapshotStatus task) {
+				return List.of(newVolume("sda"), newVolume("sdb"), newVolume("sdc"));
+			}
+
+			@Override
+			public String startVolume(final VmSnapshotStatus task, final VolumeSnapshot volume) {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				return "snap-" + volume.getName();
+			}
+
+			@Override
+			public int pollVolume(final VmSnapshotStatus task, final VolumeSnapshot volume) throws Exception {
+				Thread.sleep(20);
+				if (volume.getName().equals(failing)) {
+					throw new IllegalStateException(failing + "-failed");
+				}
+				final int percent = polls.merge(volume.getName(), 50, Integer::sum);
+				if (percent >= 100) {
+					running.decrementAndGet();
+				}
+				return percent;
+			}
+
+			@Override
+			public void deleteVolume(final VmSnapshotStatus task, final VolumeSnapshot volume) {
+				if (deleteFailed) {
+					throw new IllegalStateException("delete-failed");
+				}
+				synchronized (deleted) {
+					deleted.add(volume.getId());
+				}
+			}
+
+			@Override
+			public boolean completeSnapshot(final VmSnapshotStatus task, final List<VolumeSnapshot> volumes) {
+				completed.addAll(volumes);
+				return !async;
+			}
+
+			@Override
+			public void snapshot(final VmSnapshotStatus task) {
+				Assertions.fail("Not called");
+			}
+
+			@Override
+			public void delete(final VmSnapshotStatus task) {
+				// Not used
+			}
+
+			@Override
+			public List<Snapshot> findAllSnapshots(final int subscription, final String criteria) {
+				return List.of();
+			}
+		};
+	}
+
+	private VolumeSnapshot newVolume(final String device) {
+		final var volume = new VolumeSnapshot();
+		volume.setName(device);
+		return volume;
+	}
+}
@@ -81,4 +81,9 @@ export default {
 
   'error.vm-cron': 'Invalid CRON expression',
   'error.vm-cron-second': 'Valid CRON expression, but cannot be every second',
+  'error.vm-snapshot-group-size': 'A snapshot group contains from 1 to {max} subscriptions',
+  'error.vm-retention-empty': 'At least one of the amount of snapshots or the amount of days to keep is required',
+  'error.vm-guard-open': 'Node {node} is temporarily unavailable after repeated errors',
+  'error.vm-guard-busy': 'Node {node} is too busy',
+  'error.vm-guard-timeout': 'Node {node} did not answer in time',
 }
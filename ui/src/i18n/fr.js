@@ -75,4 +75,9 @@ export default {
 
   'error.vm-cron': 'Expression CRON invalide',
   'error.vm-cron-second': 'Expression CRON valide, mais ne doit pas être toutes les secondes',
+  'error.vm-snapshot-group-size': 'Un groupe de snapshots contient de 1 à {max} souscriptions',
+  'error.vm-retention-empty': 'Au moins le nombre de snapshots ou le nombre de jours à conserver est requis',
+  'error.vm-guard-open': 'Le noeud {node} est temporairement indisponible suite à des erreurs répétées',
+  'error.vm-guard-busy': 'Le noeud {node} est trop sollicité',
+  'error.vm-guard-timeout': "Le noeud {node} n'a pas répondu à temps",
 }